@@ -0,0 +1,102 @@
+package br.com.gamemods.universalcoinsserver.api;
+
+import br.com.gamemods.universalcoinsserver.item.ItemCoin;
+import net.minecraft.item.ItemStack;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks properties of the coin algorithms that can't be seen on the benchmark timings, it fails with an
+ * {@link IllegalStateException} on the first violation.
+ * <p>
+ * Run with {@code gradlew coinChecks}.
+ */
+public final class CoinChecks
+{
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 100000;
+
+    private CoinChecks()
+    {
+    }
+
+    public static void main(String[] args)
+    {
+        CoinFixtures.init();
+        checkBestStack();
+        checkScanDoesNotAllocate();
+        System.out.println("All coin checks passed");
+    }
+
+    /**
+     * The best stack is the one holding the most coins, not the one with the highest coin that fits
+     */
+    private static void checkBestStack()
+    {
+        // coins, expected coin value, expected stack size
+        int[][] cases = {
+                {0, 1, 0},
+                {1, 1, 1},
+                {8, 1, 8},
+                {9, 1, 9},
+                {64, 1, 64},
+                {100, 9, 11},
+                {729, 81, 9},
+                {5831, 81, 64},
+                {6560, 729, 8},
+                {6561, 729, 9},
+                {46656, 729, 64},
+                {Integer.MAX_VALUE, 6561, 64},
+        };
+
+        for(int[] test: cases)
+        {
+            ItemStack stack = CoinDenominations.createBestStack(test[0]);
+            int value = ((ItemCoin) stack.getItem()).getValue();
+            if(value != test[1] || stack.stackSize != test[2])
+                throw new IllegalStateException("createBestStack("+test[0]+") = "+stack.stackSize+"x"+value
+                        +", expected "+test[2]+"x"+test[1]);
+        }
+        System.out.println("createBestStack: "+cases.length+" cases passed");
+    }
+
+    /**
+     * A 36 slots inventory scanned again and again into the same result must not allocate anything
+     */
+    private static void checkScanDoesNotAllocate()
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if(!threads.isThreadAllocatedMemorySupported())
+        {
+            System.out.println("Skipping the scan allocation check, the JVM doesn't measure the allocated memory");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        for(CoinFixtures.Fragmentation fragmentation: CoinFixtures.Fragmentation.values())
+        {
+            FakeInventory inventory = new FakeInventory(36);
+            inventory.load(CoinFixtures.createLayout(36, fragmentation, CoinFixtures.Distribution.MIXED, 42));
+            ScanResult result = new ScanResult();
+
+            int coins = 0;
+            for(int i = 0; i < WARMUP; i++)
+                coins += UniversalCoinsServerAPI.scanCoins(inventory, 0, 36, result).getCoins();
+
+            // The measurement itself may allocate, it's discounted
+            long start = threads.getThreadAllocatedBytes(thread);
+            long overhead = threads.getThreadAllocatedBytes(thread) - start;
+
+            start = threads.getThreadAllocatedBytes(thread);
+            for(int i = 0; i < ITERATIONS; i++)
+                coins += UniversalCoinsServerAPI.scanCoins(inventory, 0, 36, result).getCoins();
+            long allocated = threads.getThreadAllocatedBytes(thread) - start - overhead;
+
+            if(allocated > 0)
+                throw new IllegalStateException(ITERATIONS+" scans of a "+fragmentation+" inventory allocated "
+                        +allocated+" bytes");
+            System.out.println("Scan of a "+fragmentation+" inventory: no allocation ("+coins+")");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package br.com.gamemods.universalcoinsserver.api;
+
+import br.com.gamemods.universalcoinsserver.CommonProxy;
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import br.com.gamemods.universalcoinsserver.item.ItemCoin;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+
+/**
+ * Creates the coin items and the inventory layouts used by the benchmarks without starting Forge.
+ */
+public final class CoinFixtures
+{
+    /**
+     * How the coins are spread over the inventory
+     */
+    public enum Fragmentation
+    {
+        /**
+         * Few full stacks at the beginning of the inventory, the remaining slots are empty
+         */
+        PACKED,
+        /**
+         * Small coin stacks on half of the slots mixed with other items, the remaining slots are empty
+         */
+        SCATTERED,
+        /**
+         * Small coin stacks and other items on every slot, there's no empty slot left
+         */
+        FULL
+    }
+
+    /**
+     * Which coin types are used
+     */
+    public enum Distribution
+    {
+        /**
+         * Only coins and small coin stacks
+         */
+        SMALL(0, 1),
+        /**
+         * All coin types
+         */
+        MIXED(0, 4),
+        /**
+         * Only small and large coin bags
+         */
+        LARGE(3, 4);
+
+        final int minTier, maxTier;
+
+        Distribution(int minTier, int maxTier)
+        {
+            this.minTier = minTier;
+            this.maxTier = maxTier;
+        }
+    }
+
+    private static boolean initialized;
+    private static Item junk;
+
+    private CoinFixtures()
+    {
+    }
+
+    /**
+     * Creates the coin items on the proxy like {@link CommonProxy} does on init, it's safe to be called many times
+     */
+    public static synchronized void init()
+    {
+        if(initialized)
+            return;
+
+        CommonProxy proxy = UniversalCoinsServer.proxy;
+        proxy.itemCoin = new ItemCoin(1);
+        proxy.itemSmallCoinStack = new ItemCoin(9);
+        proxy.itemLargeCoinStack = new ItemCoin(9*9);
+        proxy.itemSmallCoinBag = new ItemCoin(9*9*9);
+        proxy.itemLargeCoinBag = new ItemCoin(9*9*9*9);
+        proxy.coins = new ItemCoin[]{proxy.itemCoin, proxy.itemSmallCoinStack, proxy.itemLargeCoinStack, proxy.itemSmallCoinBag, proxy.itemLargeCoinBag};
+        junk = new Item();
+        initialized = true;
+    }
+
+    /**
+     * Creates a deterministic inventory layout, the same parameters will always create the same layout
+     */
+    @Nonnull
+    public static ItemStack[] createLayout(int size, @Nonnull Fragmentation fragmentation, @Nonnull Distribution distribution, long seed)
+    {
+        init();
+
+        Random random = new Random(seed);
+        ItemCoin[] coins = UniversalCoinsServer.proxy.coins;
+        ItemStack[] layout = new ItemStack[size];
+        switch (fragmentation)
+        {
+            case PACKED:
+                for(int i = 0; i < size / 4; i++)
+                    layout[i] = new ItemStack(randomCoin(random, coins, distribution), 64);
+                break;
+
+            case SCATTERED:
+                for(int i = 0; i < size; i += 2)
+                    layout[i] = random.nextInt(4) == 0? new ItemStack(junk, 1 + random.nextInt(64))
+                            : new ItemStack(randomCoin(random, coins, distribution), 1 + random.nextInt(8));
+                break;
+
+            case FULL:
+                for(int i = 0; i < size; i++)
+                    layout[i] = random.nextInt(4) == 0? new ItemStack(junk, 1 + random.nextInt(64))
+                            : new ItemStack(randomCoin(random, coins, distribution), 1 + random.nextInt(8));
+                break;
+        }
+
+        return layout;
+    }
+
+    private static ItemCoin randomCoin(Random random, ItemCoin[] coins, Distribution distribution)
+    {
+        return coins[distribution.minTier + random.nextInt(distribution.maxTier - distribution.minTier + 1)];
+    }
+}
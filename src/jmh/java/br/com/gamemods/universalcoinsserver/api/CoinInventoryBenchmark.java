@@ -0,0 +1,119 @@
+package br.com.gamemods.universalcoinsserver.api;
+
+import net.minecraft.item.ItemStack;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the coin inventory algorithms from {@link UniversalCoinsServerAPI}.
+ * <p>
+ * The methods that change the inventory must restore it first, the cost of the restoration alone is measured by
+ * {@link #reset()} and should be discounted from them.
+ * <p>
+ * Run with {@code gradlew jmh}, the GC profiler is enabled by default so the allocation rate is reported together
+ * with the timings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoinInventoryBenchmark
+{
+    @Param({"9", "36", "54"})
+    public int inventorySize;
+
+    @Param({"PACKED", "SCATTERED", "FULL"})
+    public CoinFixtures.Fragmentation fragmentation;
+
+    @Param({"SMALL", "MIXED", "LARGE"})
+    public CoinFixtures.Distribution distribution;
+
+    @Param({"12345"})
+    public int coins;
+
+    private ItemStack[] layout;
+    private FakeInventory inventory;
+    private ScanResult scanResult;
+    private ScanResult reusable;
+    private int takeAmount;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        layout = CoinFixtures.createLayout(inventorySize, fragmentation, distribution, 42);
+        inventory = new FakeInventory(inventorySize);
+        inventory.load(layout);
+        scanResult = UniversalCoinsServerAPI.scanCoins(inventory);
+        reusable = new ScanResult();
+        takeAmount = Math.max(1, scanResult.getCoins() / 3);
+    }
+
+    @Benchmark
+    public FakeInventory reset()
+    {
+        inventory.load(layout);
+        return inventory;
+    }
+
+    @Benchmark
+    public ScanResult scanCoins()
+    {
+        return UniversalCoinsServerAPI.scanCoins(inventory);
+    }
+
+    @Benchmark
+    public ScanResult scanCoinsReusing()
+    {
+        return UniversalCoinsServerAPI.scanCoins(inventory, 0, inventorySize, reusable);
+    }
+
+    @Benchmark
+    public ScanResult rescan()
+    {
+        return scanResult.rescan();
+    }
+
+    @Benchmark
+    public int takeCoins()
+    {
+        inventory.load(layout);
+        return UniversalCoinsServerAPI.takeCoins(UniversalCoinsServerAPI.scanCoins(inventory), takeAmount);
+    }
+
+    @Benchmark
+    public int addCoins()
+    {
+        inventory.load(layout);
+        return UniversalCoinsServerAPI.addCoins(UniversalCoinsServerAPI.scanCoins(inventory), coins);
+    }
+
+    @Benchmark
+    public int addCoinsAnywhere()
+    {
+        inventory.load(layout);
+        return UniversalCoinsServerAPI.addCoinsAnywhere(inventory, coins);
+    }
+
+    @Benchmark
+    public int rebalance()
+    {
+        inventory.load(layout);
+        return UniversalCoinsServerAPI.rebalance(inventory);
+    }
+
+    @Benchmark
+    public List<ItemStack> createStacks()
+    {
+        return UniversalCoinsServerAPI.createStacks(coins);
+    }
+
+    @Benchmark
+    public ItemStack createBestStack()
+    {
+        return UniversalCoinsServerAPI.createBestStack(coins);
+    }
+}
@@ -0,0 +1,119 @@
+package br.com.gamemods.universalcoinsserver.api;
+
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.inventory.IInventory;
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A headless inventory backed by an array, it doesn't need a world or a player to work
+ */
+public class FakeInventory implements IInventory
+{
+    private final ItemStack[] stacks;
+
+    public FakeInventory(int size)
+    {
+        stacks = new ItemStack[size];
+    }
+
+    /**
+     * Replaces the inventory contents with copies of the template stacks
+     */
+    public void load(@Nonnull ItemStack[] template)
+    {
+        for(int i = 0; i < stacks.length; i++)
+        {
+            ItemStack stack = i < template.length? template[i] : null;
+            stacks[i] = stack == null? null : stack.copy();
+        }
+    }
+
+    @Override
+    public int getSizeInventory()
+    {
+        return stacks.length;
+    }
+
+    @Override
+    public ItemStack getStackInSlot(int slot)
+    {
+        return stacks[slot];
+    }
+
+    @Override
+    public ItemStack decrStackSize(int slot, int amount)
+    {
+        ItemStack stack = stacks[slot];
+        if(stack == null)
+            return null;
+
+        if(stack.stackSize <= amount)
+        {
+            stacks[slot] = null;
+            return stack;
+        }
+
+        return stack.splitStack(amount);
+    }
+
+    @Override
+    public ItemStack getStackInSlotOnClosing(int slot)
+    {
+        ItemStack stack = stacks[slot];
+        stacks[slot] = null;
+        return stack;
+    }
+
+    @Override
+    public void setInventorySlotContents(int slot, ItemStack stack)
+    {
+        stacks[slot] = stack;
+    }
+
+    @Override
+    public String getInventoryName()
+    {
+        return "FakeInventory";
+    }
+
+    @Override
+    public boolean hasCustomInventoryName()
+    {
+        return false;
+    }
+
+    @Override
+    public int getInventoryStackLimit()
+    {
+        return 64;
+    }
+
+    @Override
+    public void markDirty()
+    {
+    }
+
+    @Override
+    public boolean isUseableByPlayer(EntityPlayer player)
+    {
+        return true;
+    }
+
+    @Override
+    public void openInventory()
+    {
+    }
+
+    @Override
+    public void closeInventory()
+    {
+    }
+
+    @Override
+    public boolean isItemValidForSlot(int slot, ItemStack stack)
+    {
+        return true;
+    }
+}
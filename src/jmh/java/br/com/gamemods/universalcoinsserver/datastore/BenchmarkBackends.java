@@ -0,0 +1,167 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import net.minecraft.tileentity.TileEntity;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Creates the datastores and the fixtures shared by the benchmark tools
+ */
+final class BenchmarkBackends
+{
+    static final class BenchmarkMachine implements Machine
+    {
+        private final UUID machineId = UUID.randomUUID();
+        private final TileEntity tileEntity = new TileEntity();
+
+        @Override
+        public UUID getMachineId()
+        {
+            return machineId;
+        }
+
+        @Override
+        public TileEntity getMachineEntity()
+        {
+            return tileEntity;
+        }
+    }
+
+    /**
+     * Picks indexes following a zipf distribution, the lower indexes are the most picked ones
+     */
+    static final class Zipf
+    {
+        private final double[] cumulative;
+
+        /**
+         * @param skew The zipf exponent, zero picks the indexes uniformly
+         */
+        Zipf(int size, double skew)
+        {
+            cumulative = new double[size];
+            double sum = 0;
+            for(int i = 0; i < size; i++)
+                cumulative[i] = sum += 1 / Math.pow(i + 1, skew);
+            for(int i = 0; i < size; i++)
+                cumulative[i] /= sum;
+        }
+
+        int next(Random random)
+        {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            if(index < 0) index = -index - 1;
+            return Math.min(index, cumulative.length - 1);
+        }
+    }
+
+    private BenchmarkBackends()
+    {
+    }
+
+    /**
+     * Parses {@code key=value} arguments
+     */
+    static void parseOptions(String[] args, Map<String, String> options)
+    {
+        for(String arg: args)
+        {
+            int index = arg.indexOf('=');
+            if(index <= 0)
+                throw new IllegalArgumentException("Invalid option, key=value expected: "+arg);
+            options.put(arg.substring(0, index).trim(), arg.substring(index + 1).trim());
+        }
+    }
+
+    static String option(Map<String, String> options, String key, String def)
+    {
+        String value = options.get(key);
+        return value == null? def : value;
+    }
+
+    /**
+     * The directory from the {@code dir} option or a new temporary directory
+     */
+    @Nonnull
+    static File workDir(Map<String, String> options) throws IOException
+    {
+        String dir = options.get("dir");
+        if(dir != null)
+            return new File(dir);
+
+        File temp = File.createTempFile("universalcoins-benchmark", "");
+        if(!temp.delete() || !temp.mkdirs())
+            throw new IOException("Failed to create the directory "+temp);
+        return temp;
+    }
+
+    /**
+     * Creates a datastore from its name: {@code properties}, {@code nbt} or {@code sql}.
+     * <p>
+     * The sql backend uses the {@code sql}, {@code sqlUser} and {@code sqlPassword} options and defaults to an embedded
+     * H2 database on MySQL mode, the tables are created if they don't exist.
+     */
+    @Nonnull
+    static CardDataBase create(String backend, File dir, Map<String, String> options) throws IOException, SQLException
+    {
+        switch (backend.toLowerCase())
+        {
+            case "properties":
+                return new PropertiesDB(new File(dir, "properties"));
+            case "nbt":
+                return new MemoryNbtDB();
+            case "sql":
+                String url = option(options, "sql", "jdbc:h2:"+new File(dir, "h2").getAbsolutePath()+";MODE=MySQL;DATABASE_TO_UPPER=FALSE");
+                Connection connection = DriverManager.getConnection(url, option(options, "sqlUser", ""), option(options, "sqlPassword", ""));
+                createSchema(connection);
+                return new SqlDB(connection);
+            default:
+                throw new IllegalArgumentException("Unknown backend: "+backend);
+        }
+    }
+
+    private static void createSchema(Connection connection) throws IOException, SQLException
+    {
+        StringBuilder sb = new StringBuilder();
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(
+                BenchmarkBackends.class.getResourceAsStream("/universalcoins-schema.sql"), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+                if(!line.trim().startsWith("--"))
+                    sb.append(line).append('\n');
+        }
+
+        try(Statement statement = connection.createStatement())
+        {
+            for(String sql: sb.toString().split(";"))
+                if(!sql.trim().isEmpty())
+                    statement.execute(sql);
+        }
+    }
+
+    static void print(String name, LatencyHistogram histogram)
+    {
+        if(histogram.getCount() == 0)
+            return;
+
+        System.out.printf("%-18s %10d %12.1f %12.1f %12.1f %12.1f%n", name, histogram.getCount(),
+                histogram.getPercentileNanos(50) / 1e3, histogram.getPercentileNanos(99) / 1e3,
+                histogram.getPercentileNanos(99.9) / 1e3, histogram.getMaxNanos() / 1e3);
+    }
+
+    static void printHeader()
+    {
+        System.out.printf("%-18s %10s %12s %12s %12s %12s%n", "operation", "count", "p50 (us)", "p99 (us)", "p999 (us)", "max (us)");
+    }
+}
@@ -0,0 +1,201 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Drives the same workload against every {@link CardDataBase} backend and reports the throughput and the latency
+ * percentiles of each operation.
+ * <p>
+ * Run with {@code gradlew datastoreBenchmark -PbenchArgs="key=value ..."}, the accepted options are:
+ * <ul>
+ *     <li>{@code backends}: Comma separated list of {@code properties}, {@code nbt} and {@code sql}. Default: all</li>
+ *     <li>{@code accounts}: Amount of accounts created before the run. Default: 1000</li>
+ *     <li>{@code operations}: Operations measured per backend. Default: 50000</li>
+ *     <li>{@code warmup}: Operations executed before measuring. Default: 10000</li>
+ *     <li>{@code reads}: Fraction of the operations that are balance reads, the remaining ones are split between
+ *         deposits, withdrawals, trades and transaction logs. Default: 0.8</li>
+ *     <li>{@code skew}: Zipf exponent used to pick the accounts, 0 picks them uniformly. Default: 1.0</li>
+ *     <li>{@code seed}: Random seed. Default: 42</li>
+ *     <li>{@code dir}: Directory used by the properties backend and by the default SQL database. Default: a temporary directory</li>
+ *     <li>{@code sql}: JDBC URL used by the sql backend. Default: an embedded H2 database on MySQL mode</li>
+ *     <li>{@code sqlUser} and {@code sqlPassword}: SQL credentials</li>
+ * </ul>
+ */
+public class DataStoreBenchmark
+{
+    private enum Operation
+    {
+        GET_BALANCE, DEPOSIT, TAKE, PROCESS_TRADE, SAVE_TRANSACTION
+    }
+
+    private final Map<String, String> options;
+    private final int accountCount, operations, warmup;
+    private final double reads, skew;
+    private final long seed;
+    private final File dir;
+    private final BenchmarkBackends.Zipf accountDistribution;
+
+    private CardDataBase db;
+    private AccountAddress[] accounts;
+    private int[] balances;
+    private Machine machine;
+    private PlayerOperator operator;
+    private Random random;
+
+    private DataStoreBenchmark(Map<String, String> options) throws IOException
+    {
+        this.options = options;
+        accountCount = Integer.parseInt(option("accounts", "1000"));
+        operations = Integer.parseInt(option("operations", "50000"));
+        warmup = Integer.parseInt(option("warmup", "10000"));
+        reads = Double.parseDouble(option("reads", "0.8"));
+        skew = Double.parseDouble(option("skew", "1.0"));
+        seed = Long.parseLong(option("seed", "42"));
+
+        dir = BenchmarkBackends.workDir(options);
+        accountDistribution = new BenchmarkBackends.Zipf(accountCount, skew);
+    }
+
+    private String option(String key, String def)
+    {
+        return BenchmarkBackends.option(options, key, def);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        BenchmarkBackends.parseOptions(args, options);
+
+        DataStoreBenchmark benchmark = new DataStoreBenchmark(options);
+        for(String backend: benchmark.option("backends", "properties,nbt,sql").split("\\s*,\\s*"))
+            benchmark.run(backend);
+    }
+
+    private void run(String backend) throws Exception
+    {
+        db = BenchmarkBackends.create(backend, dir, options);
+        UniversalCoinsServer.cardDb = db;
+        random = new Random(seed);
+        machine = new BenchmarkBackends.BenchmarkMachine();
+        operator = new PlayerOperator(UUID.randomUUID());
+
+        accounts = new AccountAddress[accountCount];
+        balances = new int[accountCount];
+        for(int i = 0; i < accountCount; i++)
+        {
+            UUID playerId = UUID.nameUUIDFromBytes((backend+i).getBytes(StandardCharsets.UTF_8));
+            accounts[i] = db.createPrimaryAccount(playerId, "Player"+i);
+            deposit(i, 1000000);
+        }
+
+        for(int i = 0; i < warmup; i++)
+            execute(nextOperation());
+
+        EnumMap<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+        for(Operation operation: Operation.values())
+            histograms.put(operation, new LatencyHistogram());
+        LatencyHistogram all = new LatencyHistogram();
+
+        long start = System.nanoTime();
+        for(int i = 0; i < operations; i++)
+        {
+            Operation operation = nextOperation();
+            long operationStart = System.nanoTime();
+            execute(operation);
+            long elapsed = System.nanoTime() - operationStart;
+            histograms.get(operation).record(elapsed);
+            all.record(elapsed);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%n== %s: %d accounts, %d operations, reads=%.2f, skew=%.2f ==%n", backend, accountCount, operations, reads, skew);
+        System.out.printf("Throughput: %.1f ops/s%n", operations / (elapsed / 1e9));
+        BenchmarkBackends.printHeader();
+        for(Map.Entry<Operation, LatencyHistogram> entry: histograms.entrySet())
+            BenchmarkBackends.print(entry.getKey().name(), entry.getValue());
+        BenchmarkBackends.print("ALL", all);
+    }
+
+    private Operation nextOperation()
+    {
+        if(random.nextDouble() < reads)
+            return Operation.GET_BALANCE;
+
+        int write = random.nextInt(10);
+        if(write < 3) return Operation.DEPOSIT;
+        else if(write < 6) return Operation.TAKE;
+        else if(write < 9) return Operation.PROCESS_TRADE;
+        else return Operation.SAVE_TRANSACTION;
+    }
+
+    private int nextAccount()
+    {
+        return accountDistribution.next(random);
+    }
+
+    private Transaction.CardCoinSource coinSource(int account, int increment)
+    {
+        return new Transaction.CardCoinSource(null, accounts[account], balances[account], balances[account] + increment);
+    }
+
+    private void deposit(int account, int amount) throws DataBaseException
+    {
+        Transaction transaction = new Transaction(machine, Transaction.Operation.DEPOSIT_TO_ACCOUNT_BY_API, operator,
+                null, coinSource(account, amount), null);
+        db.depositToAccount(accounts[account], amount, transaction);
+        balances[account] += amount;
+    }
+
+    private void execute(Operation operation) throws DataBaseException
+    {
+        int account = nextAccount();
+        int amount = 1 + random.nextInt(100);
+        switch (operation)
+        {
+            case GET_BALANCE:
+                db.getAccountBalance(accounts[account]);
+                return;
+
+            case DEPOSIT:
+                deposit(account, amount);
+                return;
+
+            case TAKE:
+            {
+                Transaction transaction = new Transaction(machine, Transaction.Operation.WITHDRAW_FROM_ACCOUNT_BY_API,
+                        operator, null, coinSource(account, -amount), null);
+                db.takeFromAccount(accounts[account], amount, transaction);
+                balances[account] -= amount;
+                return;
+            }
+
+            case PROCESS_TRADE:
+            {
+                int owner = nextAccount();
+                if(owner == account)
+                    owner = (owner + 1) % accountCount;
+
+                Transaction transaction = new Transaction(machine, operator, null, null,
+                        Transaction.Operation.BUY_FROM_MACHINE, false, 1, amount, amount,
+                        coinSource(account, -amount), coinSource(owner, amount));
+                db.processTrade(transaction);
+                balances[account] -= amount;
+                balances[owner] += amount;
+                return;
+            }
+
+            case SAVE_TRANSACTION:
+            {
+                Transaction transaction = new Transaction(machine, operator, null, null,
+                        Transaction.Operation.SELL_TO_MACHINE, true, 1, amount, amount,
+                        new Transaction.InventoryCoinSource(operator, 0, amount), null);
+                db.saveTransaction(transaction);
+            }
+        }
+    }
+}
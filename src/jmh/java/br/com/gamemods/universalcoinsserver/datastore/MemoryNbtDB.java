@@ -0,0 +1,17 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+/**
+ * A {@link NbtDB} that keeps its data in memory instead of using the overworld storage, so it can run without a server.
+ * <p>
+ * The data is still marked as dirty on every change just like it would be on the real world.
+ */
+public class MemoryNbtDB extends NbtDB
+{
+    private final WorldData worldData = new WorldData("universalcoins");
+
+    @Override
+    protected WorldData getWorldData()
+    {
+        return worldData;
+    }
+}
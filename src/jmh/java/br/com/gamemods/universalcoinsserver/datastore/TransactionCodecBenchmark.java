@@ -0,0 +1,257 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the binary transaction log format from {@link TransactionCodec}, encoding and decoding a batch of
+ * transactions that mixes the trades, the card deposits and withdraws and the inventory deposits of a busy server.
+ * <p>
+ * The batch is decoded and compared with the original transactions before the measurements, so a format change that
+ * loses information fails the benchmark instead of reporting a faster codec. The items are not included because the
+ * item registry is not available outside of a running server.
+ * <p>
+ * Run with {@code gradlew jmh}, the GC profiler is enabled by default so the allocation rate is reported together
+ * with the timings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionCodecBenchmark
+{
+    private static final Transaction.Operation[] TRADES = {
+            Transaction.Operation.BUY_FROM_MACHINE, Transaction.Operation.SELL_TO_MACHINE
+    };
+
+    @Param({"1000"})
+    public int transactions;
+
+    @Param({"64"})
+    public int machines;
+
+    @Param({"200"})
+    public int players;
+
+    private Transaction[] batch;
+    private byte[] encoded;
+    private ByteArrayOutputStream bytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        Random random = new Random(42);
+
+        UUID[] playerIds = new UUID[players];
+        AccountAddress[] accounts = new AccountAddress[players];
+        int[] balances = new int[players];
+        for(int i = 0; i < players; i++)
+        {
+            playerIds[i] = new UUID(random.nextLong(), random.nextLong());
+            accounts[i] = new AccountAddress(Integer.toString(100000 + i), "Player"+i, playerIds[i]);
+            balances[i] = random.nextInt(100000);
+        }
+
+        TransactionCodec.MachineRecord[] vendors = new TransactionCodec.MachineRecord[machines];
+        int[] machineBalances = new int[machines];
+        for(int i = 0; i < machines; i++)
+        {
+            UUID owner = playerIds[random.nextInt(players)];
+            vendors[i] = new TransactionCodec.MachineRecord(new UUID(random.nextLong(), random.nextLong()),
+                    random.nextInt(2000) - 1000, 4 + random.nextInt(250), random.nextInt(2000) - 1000,
+                    random.nextInt(10) == 0? -1 : 0, "universalcoins:vendor", random.nextInt(16), owner);
+            machineBalances[i] = random.nextInt(50000);
+        }
+
+        TransactionCodec.MachineRecord cardStation = new TransactionCodec.MachineRecord(
+                new UUID(random.nextLong(), random.nextLong()), 10, 64, -20, 0, "universalcoins:cardstation", 0, null);
+
+        batch = new Transaction[transactions];
+        long time = 1500000000000L;
+        for(int i = 0; i < transactions; i++)
+        {
+            int player = random.nextInt(players);
+            int amount = 1 + random.nextInt(640);
+            PlayerOperator operator = new PlayerOperator(playerIds[player]);
+            Transaction transaction;
+
+            int kind = random.nextInt(10);
+            if(kind < 6)
+            {
+                int machine = random.nextInt(machines);
+                Transaction.Operation operation = TRADES[random.nextInt(TRADES.length)];
+                int sign = operation == Transaction.Operation.BUY_FROM_MACHINE? 1 : -1;
+                Transaction.CoinSource userSource = random.nextBoolean()
+                        ? new Transaction.CardCoinSource(null, accounts[player], balances[player],
+                                balances[player] - sign * amount)
+                        : new Transaction.InventoryCoinSource(operator, balances[player], -sign * amount);
+                Transaction.CoinSource ownerSource = new Transaction.MachineCoinSource(vendors[machine],
+                        machineBalances[machine], sign * amount);
+                int quantity = 1 + random.nextInt(64);
+                transaction = new Transaction(vendors[machine], operator, null, null, operation,
+                        random.nextInt(20) == 0, quantity, amount, amount, userSource, ownerSource);
+                balances[player] -= sign * amount;
+                machineBalances[machine] += sign * amount;
+            }
+            else if(kind < 8)
+            {
+                transaction = new Transaction(cardStation, Transaction.Operation.DEPOSIT_TO_ACCOUNT_FROM_MACHINE,
+                        operator, new Transaction.MachineCoinSource(cardStation, amount, -amount),
+                        new Transaction.CardCoinSource(null, accounts[player], balances[player],
+                                balances[player] + amount), null);
+                balances[player] += amount;
+            }
+            else if(kind < 9)
+            {
+                transaction = new Transaction(operator, new Transaction.InventoryCoinSource(operator, amount, -amount),
+                        new Transaction.CardCoinSource(null, accounts[player], balances[player],
+                                balances[player] + amount), amount);
+                balances[player] += amount;
+            }
+            else
+            {
+                BlockOperator block = new BlockOperator(random.nextInt(2000) - 1000, 64, random.nextInt(2000) - 1000,
+                        0, "minecraft:command_block", 0, null);
+                transaction = new Transaction(cardStation, Transaction.Operation.DEPOSIT_TO_ACCOUNT_BY_API, block,
+                        null, new Transaction.CardCoinSource(null, accounts[player], balances[player],
+                                balances[player] + amount), null);
+                balances[player] += amount;
+            }
+
+            time += random.nextInt(2000);
+            batch[i] = new Transaction(transaction.getId(), time, transaction.getMachine(), transaction.getOperator(),
+                    null, null, transaction.getOperation(), transaction.isInfiniteMachine(), transaction.getQuantity(),
+                    transaction.getPrice(), transaction.getTotalPrice(), transaction.getUserCoinSource(),
+                    transaction.getOwnerCoinSource());
+        }
+
+        bytes = new ByteArrayOutputStream(transactions * 128);
+        encoded = encode();
+        verify(batch, decodeAll(encoded));
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException
+    {
+        bytes.reset();
+        TransactionCodec.Writer writer = new TransactionCodec.Writer(new DataOutputStream(bytes));
+        for(Transaction transaction: batch)
+            writer.write(transaction);
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public int decode() throws IOException
+    {
+        TransactionCodec.Reader reader = new TransactionCodec.Reader(
+                new DataInputStream(new ByteArrayInputStream(encoded)));
+        int count = 0;
+        while(reader.read() != null)
+            count++;
+        return count;
+    }
+
+    @Benchmark
+    public int skip() throws IOException
+    {
+        TransactionCodec.Reader reader = new TransactionCodec.Reader(
+                new DataInputStream(new ByteArrayInputStream(encoded)));
+        int count = 0;
+        while(reader.skip())
+            count++;
+        return count;
+    }
+
+    private static Transaction[] decodeAll(byte[] encoded) throws IOException
+    {
+        TransactionCodec.Reader reader = new TransactionCodec.Reader(
+                new DataInputStream(new ByteArrayInputStream(encoded)));
+        List<Transaction> result = new ArrayList<>();
+        Transaction transaction;
+        while((transaction = reader.read()) != null)
+            result.add(transaction);
+        return result.toArray(new Transaction[result.size()]);
+    }
+
+    private static void verify(Transaction[] expected, Transaction[] actual)
+    {
+        if(expected.length != actual.length)
+            throw new IllegalStateException("Decoded "+actual.length+" transactions, expected "+expected.length);
+
+        for(int i = 0; i < expected.length; i++)
+        {
+            Transaction a = expected[i], b = actual[i];
+            check(i, "id", a.getId(), b.getId());
+            check(i, "time", a.getTime(), b.getTime());
+            check(i, "operation", a.getOperation(), b.getOperation());
+            check(i, "infinite", a.isInfiniteMachine(), b.isInfiniteMachine());
+            check(i, "quantity", a.getQuantity(), b.getQuantity());
+            check(i, "price", a.getPrice(), b.getPrice());
+            check(i, "totalPrice", a.getTotalPrice(), b.getTotalPrice());
+            check(i, "machine", a.getMachine() == null? null : a.getMachine().getMachineId(),
+                    b.getMachine() == null? null : b.getMachine().getMachineId());
+            checkOperator(i, a.getOperator(), b.getOperator());
+            checkCoinSource(i, "user", a.getUserCoinSource(), b.getUserCoinSource());
+            checkCoinSource(i, "owner", a.getOwnerCoinSource(), b.getOwnerCoinSource());
+        }
+    }
+
+    private static void checkOperator(int index, Operator a, Operator b)
+    {
+        if(a instanceof PlayerOperator)
+        {
+            check(index, "operator type", PlayerOperator.class, b == null? null : b.getClass());
+            check(index, "operator", ((PlayerOperator) a).getPlayerId(), ((PlayerOperator) b).getPlayerId());
+        }
+        else if(a instanceof BlockOperator)
+        {
+            if(!(b instanceof BlockOperator))
+                throw new IllegalStateException("Transaction "+index+" lost its block operator");
+            BlockOperator x = (BlockOperator) a, y = (BlockOperator) b;
+            check(index, "operator position", x.getX()+","+x.getY()+","+x.getZ()+","+x.getDim(),
+                    y.getX()+","+y.getY()+","+y.getZ()+","+y.getDim());
+            check(index, "operator block", x.getBlockId(), y.getBlockId());
+        }
+        else
+            check(index, "operator", a, b);
+    }
+
+    private static void checkCoinSource(int index, String name, Transaction.CoinSource a, Transaction.CoinSource b)
+    {
+        if(a == null || b == null)
+        {
+            check(index, name+" coin source", a, b);
+            return;
+        }
+
+        check(index, name+" coin source type", a.getClass(), b.getClass());
+        check(index, name+" balance before", a.getBalanceBefore(), b.getBalanceBefore());
+        check(index, name+" balance after", a.getBalanceAfter(), b.getBalanceAfter());
+        if(a instanceof Transaction.CardCoinSource)
+        {
+            AccountAddress x = ((Transaction.CardCoinSource) a).getAccountAddress();
+            AccountAddress y = ((Transaction.CardCoinSource) b).getAccountAddress();
+            check(index, name+" account", x.getNumber().toString(), y.getNumber().toString());
+            check(index, name+" account name", x.getName(), y.getName());
+            check(index, name+" account owner", x.getOwner(), y.getOwner());
+        }
+        else if(a instanceof Transaction.MachineCoinSource)
+            check(index, name+" machine", ((Transaction.MachineCoinSource) a).getMachine().getMachineId(),
+                    ((Transaction.MachineCoinSource) b).getMachine().getMachineId());
+    }
+
+    private static void check(int index, String field, Object expected, Object actual)
+    {
+        if(expected == null? actual != null : !expected.equals(actual))
+            throw new IllegalStateException("Transaction "+index+" has a different "+field+" after the round trip: "
+                    +expected+" != "+actual);
+    }
+}
@@ -0,0 +1,374 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates many players trading on vendors and using card stations to find how many trades per second a datastore
+ * can sustain and how the tail latency behaves under load.
+ * <p>
+ * Just like on a real server the datastore is only accessed by a single server thread, the player threads submit the
+ * operations to it and wait for the result. The response time is measured from the moment the operation was scheduled
+ * to be sent, so the time waiting on the server queue is included even when the server falls behind the target rate.
+ * <p>
+ * Each operation does the same datastore calls as the machine that it simulates: a vendor purchase builds the pending
+ * card coin sources and processes the trade without reading the balances first, a card station deposit is a single
+ * call that checks the limit, deposits and returns the new balance.
+ * <p>
+ * Run with {@code gradlew vendorLoad -PbenchArgs="key=value ..."}, the accepted options are:
+ * <ul>
+ *     <li>{@code backends}: Comma separated list of {@code properties}, {@code nbt} and {@code sql}. Default: nbt</li>
+ *     <li>{@code players}: Amount of player accounts, they are picked uniformly. Default: 500</li>
+ *     <li>{@code shops}: Amount of vendor owner accounts. Default: 50</li>
+ *     <li>{@code shopSkew}: Zipf exponent used to pick the shops, higher values concentrate the trades on a few hot shops. Default: 1.2</li>
+ *     <li>{@code threads}: Amount of threads submitting operations. Default: 16</li>
+ *     <li>{@code rate}: Target operations per second of all threads together, 0 submits as fast as possible. Default: 0</li>
+ *     <li>{@code duration}: Measured seconds per backend. Default: 60</li>
+ *     <li>{@code warmup}: Seconds executed before measuring. Default: 10</li>
+ *     <li>{@code buy}, {@code sell}, {@code deposit}, {@code withdraw}: Weight of each operation. Default: 40, 20, 20, 20</li>
+ *     <li>{@code seed}, {@code dir}, {@code sql}, {@code sqlUser} and {@code sqlPassword}: The same as {@link DataStoreBenchmark}</li>
+ * </ul>
+ */
+public class VendorLoadGenerator
+{
+    private enum Operation
+    {
+        BUY, SELL, DEPOSIT, WITHDRAW
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final Map<String, String> options;
+    private final int players, shops, threads;
+    private final double rate;
+    private final long durationNanos, warmupNanos;
+    private final long seed;
+    private final File dir;
+    private final BenchmarkBackends.Zipf shopDistribution;
+    private final int[] weights = new int[OPERATIONS.length];
+    private final int totalWeight;
+
+    private CardDataBase db;
+    private AccountAddress[] playerAccounts, shopAccounts;
+    private Machine[] vendors;
+    private Machine cardStation;
+    private PlayerOperator[] operators;
+
+    private final EnumMap<Operation, LatencyHistogram> response = new EnumMap<>(Operation.class);
+    private final EnumMap<Operation, LatencyHistogram> service = new EnumMap<>(Operation.class);
+    private final AtomicLongArray rejected = new AtomicLongArray(OPERATIONS.length);
+    private final AtomicLong busyNanos = new AtomicLong();
+    private volatile boolean measuring;
+
+    private VendorLoadGenerator(Map<String, String> options) throws Exception
+    {
+        this.options = options;
+        players = Integer.parseInt(option("players", "500"));
+        shops = Integer.parseInt(option("shops", "50"));
+        threads = Integer.parseInt(option("threads", "16"));
+        rate = Double.parseDouble(option("rate", "0"));
+        durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration", "60")));
+        warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup", "10")));
+        seed = Long.parseLong(option("seed", "42"));
+        dir = BenchmarkBackends.workDir(options);
+        shopDistribution = new BenchmarkBackends.Zipf(shops, Double.parseDouble(option("shopSkew", "1.2")));
+
+        weights[Operation.BUY.ordinal()] = Integer.parseInt(option("buy", "40"));
+        weights[Operation.SELL.ordinal()] = Integer.parseInt(option("sell", "20"));
+        weights[Operation.DEPOSIT.ordinal()] = Integer.parseInt(option("deposit", "20"));
+        weights[Operation.WITHDRAW.ordinal()] = Integer.parseInt(option("withdraw", "20"));
+        int total = 0;
+        for(int weight: weights)
+            total += weight;
+        if(total <= 0)
+            throw new IllegalArgumentException("At least one operation must have a positive weight");
+        totalWeight = total;
+    }
+
+    private String option(String key, String def)
+    {
+        return BenchmarkBackends.option(options, key, def);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        BenchmarkBackends.parseOptions(args, options);
+
+        VendorLoadGenerator generator = new VendorLoadGenerator(options);
+        for(String backend: generator.option("backends", "nbt").split("\\s*,\\s*"))
+            generator.run(backend);
+    }
+
+    private void setup(String backend) throws Exception
+    {
+        db = BenchmarkBackends.create(backend, dir, options);
+        UniversalCoinsServer.cardDb = db;
+
+        playerAccounts = new AccountAddress[players];
+        operators = new PlayerOperator[players];
+        cardStation = new BenchmarkBackends.BenchmarkMachine();
+        for(int i = 0; i < players; i++)
+        {
+            UUID playerId = UUID.nameUUIDFromBytes((backend+"-player-"+i).getBytes(StandardCharsets.UTF_8));
+            operators[i] = new PlayerOperator(playerId);
+            playerAccounts[i] = db.createPrimaryAccount(playerId, "Player"+i);
+            deposit(i, 100000);
+        }
+
+        shopAccounts = new AccountAddress[shops];
+        vendors = new Machine[shops];
+        for(int i = 0; i < shops; i++)
+        {
+            UUID ownerId = UUID.nameUUIDFromBytes((backend+"-shop-"+i).getBytes(StandardCharsets.UTF_8));
+            shopAccounts[i] = db.createPrimaryAccount(ownerId, "Shop"+i);
+            vendors[i] = new BenchmarkBackends.BenchmarkMachine();
+            Transaction transaction = new Transaction(cardStation, Transaction.Operation.DEPOSIT_TO_ACCOUNT_BY_API, null,
+                    null, new Transaction.CardCoinSource(null, shopAccounts[i], 0, 10000000), null);
+            db.depositToAccount(shopAccounts[i], 10000000, transaction);
+        }
+
+        response.clear();
+        service.clear();
+        for(Operation operation: OPERATIONS)
+        {
+            response.put(operation, new LatencyHistogram());
+            service.put(operation, new LatencyHistogram());
+            rejected.set(operation.ordinal(), 0);
+        }
+        busyNanos.set(0);
+    }
+
+    private void run(final String backend) throws Exception
+    {
+        setup(backend);
+
+        final ExecutorService server = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                return new Thread(r, "Server thread");
+            }
+        });
+
+        final long start = System.nanoTime();
+        final long measureStart = start + warmupNanos;
+        final long end = measureStart + durationNanos;
+        final long interval = rate > 0? (long) (threads * 1e9 / rate) : 0;
+
+        List<Thread> workers = new ArrayList<>(threads);
+        for(int t = 0; t < threads; t++)
+        {
+            final Random random = new Random(seed + t);
+            final long offset = interval * t / threads;
+            Thread worker = new Thread("Player thread "+t)
+            {
+                @Override
+                public void run()
+                {
+                    long scheduled = start + offset;
+                    while (true)
+                    {
+                        long now = System.nanoTime();
+                        if(now >= end)
+                            return;
+
+                        if(interval > 0)
+                        {
+                            if(scheduled > now)
+                                LockSupport.parkNanos(scheduled - now);
+                        }
+                        else
+                            scheduled = now;
+
+                        Operation operation = nextOperation(random);
+                        Callable<Long> task = createTask(operation, random);
+                        long serviceTime;
+                        try
+                        {
+                            serviceTime = server.submit(task).get();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            return;
+                        }
+                        catch (ExecutionException e)
+                        {
+                            if(e.getCause() instanceof OutOfCoinsException)
+                            {
+                                rejected.incrementAndGet(operation.ordinal());
+                                serviceTime = -1;
+                            }
+                            else
+                                throw new RuntimeException("The "+operation+" operation failed on "+backend, e.getCause());
+                        }
+
+                        long responseTime = System.nanoTime() - scheduled;
+                        if(scheduled >= measureStart && scheduled < end)
+                        {
+                            response.get(operation).record(responseTime);
+                            if(serviceTime >= 0)
+                                service.get(operation).record(serviceTime);
+                        }
+
+                        scheduled += interval;
+                    }
+                }
+            };
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+
+        for(Thread worker: workers)
+            worker.start();
+
+        LockSupport.parkNanos(Math.max(0, measureStart - System.nanoTime()));
+        busyNanos.set(0);
+        measuring = true;
+
+        for(Thread worker: workers)
+            worker.join();
+
+        measuring = false;
+        server.shutdown();
+        server.awaitTermination(1, TimeUnit.MINUTES);
+
+        report(backend);
+    }
+
+    private void report(String backend)
+    {
+        double seconds = durationNanos / 1e9;
+        long completed = 0;
+        for(Operation operation: OPERATIONS)
+            completed += response.get(operation).getCount();
+
+        System.out.printf("%n== %s: %d players, %d shops, %d threads, target %s ==%n", backend, players, shops, threads,
+                rate > 0? String.format("%.1f ops/s", rate) : "unbounded");
+        System.out.printf("Sustained: %.1f ops/s, server thread busy %.1f%% of the time%n",
+                completed / seconds, 100.0 * busyNanos.get() / durationNanos);
+        for(Operation operation: OPERATIONS)
+        {
+            long count = response.get(operation).getCount();
+            if(count > 0)
+                System.out.printf("%-10s %10.1f ops/s, %d rejected for lack of coins%n", operation, count / seconds,
+                        rejected.get(operation.ordinal()));
+        }
+
+        System.out.println("Response time (includes the server queue):");
+        BenchmarkBackends.printHeader();
+        for(Operation operation: OPERATIONS)
+            BenchmarkBackends.print(operation.name(), response.get(operation));
+
+        System.out.println("Service time (datastore calls only):");
+        BenchmarkBackends.printHeader();
+        for(Operation operation: OPERATIONS)
+            BenchmarkBackends.print(operation.name(), service.get(operation));
+    }
+
+    private Operation nextOperation(Random random)
+    {
+        int value = random.nextInt(totalWeight);
+        for(Operation operation: OPERATIONS)
+        {
+            value -= weights[operation.ordinal()];
+            if(value < 0)
+                return operation;
+        }
+        return Operation.BUY;
+    }
+
+    private Callable<Long> createTask(final Operation operation, Random random)
+    {
+        final int player = random.nextInt(players);
+        final int shop = shopDistribution.next(random);
+        final int amount = 1 + random.nextInt(operation == Operation.DEPOSIT || operation == Operation.WITHDRAW? 5000 : 200);
+        return new Callable<Long>()
+        {
+            @Override
+            public Long call() throws Exception
+            {
+                long start = System.nanoTime();
+                try
+                {
+                    switch (operation)
+                    {
+                        case BUY:
+                            trade(Transaction.Operation.BUY_FROM_MACHINE, player, shop, amount);
+                            break;
+                        case SELL:
+                            trade(Transaction.Operation.SELL_TO_MACHINE, player, shop, -amount);
+                            break;
+                        case DEPOSIT:
+                            deposit(player, amount);
+                            break;
+                        case WITHDRAW:
+                            withdraw(player, amount);
+                            break;
+                    }
+                    return System.nanoTime() - start;
+                }
+                finally
+                {
+                    if(measuring)
+                        busyNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    /**
+     * The same calls as {@link br.com.gamemods.universalcoinsserver.tile.TileVendor#buy(boolean)} and
+     * {@link br.com.gamemods.universalcoinsserver.tile.TileVendor#sell(boolean)} with cards on both sides
+     * @param price Positive: The player pays the shop, Negative: The shop pays the player
+     */
+    private void trade(Transaction.Operation operation, int player, int shop, int price) throws DataBaseException
+    {
+        AccountAddress playerAccount = playerAccounts[player];
+        AccountAddress shopAccount = shopAccounts[shop];
+
+        Transaction.CardCoinSource userSource = new Transaction.CardCoinSource(playerAccount, -price);
+        Transaction.CardCoinSource ownerSource = new Transaction.CardCoinSource(shopAccount, price);
+        Transaction transaction = new Transaction(vendors[shop], operators[player], null, null, operation, false,
+                1, Math.abs(price), Math.abs(price), userSource, ownerSource);
+        db.processTrade(transaction);
+    }
+
+    /**
+     * The same call as {@link br.com.gamemods.universalcoinsserver.tile.TileCardStation} deposits, a single
+     * {@link CardDataBase#depositAllToAccount} that checks the limit and returns the new balance
+     */
+    private void deposit(int player, int amount) throws DataBaseException
+    {
+        AccountAddress account = playerAccounts[player];
+        Transaction transaction = new Transaction(cardStation, Transaction.Operation.DEPOSIT_TO_ACCOUNT_FROM_MACHINE,
+                operators[player], new Transaction.MachineCoinSource(cardStation, amount, -amount),
+                new Transaction.CardCoinSource(account, amount), null);
+        if(db.depositAllToAccount(account, amount, transaction) < 0)
+            throw new OutOfCoinsException(amount);
+    }
+
+    /**
+     * The same calls as a card station withdrawal
+     */
+    private void withdraw(int player, int amount) throws DataBaseException
+    {
+        AccountAddress account = playerAccounts[player];
+        if(db.getAccountBalance(account) < amount)
+            throw new OutOfCoinsException(amount);
+
+        Transaction transaction = new Transaction(cardStation, Transaction.Operation.WITHDRAW_FROM_ACCOUNT_TO_MACHINE,
+                operators[player], new Transaction.MachineCoinSource(cardStation, 0, amount),
+                new Transaction.CardCoinSource(account, -amount), null);
+        db.takeFromAccount(account, amount, transaction);
+        db.getAccountBalance(account);
+    }
+}
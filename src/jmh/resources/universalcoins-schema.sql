@@ -0,0 +1,98 @@
+-- Tables used by SqlDB, written for MySQL and for H2 running on MySQL mode
+
+CREATE TABLE IF NOT EXISTS `user_data` (
+  `player_id` CHAR(36) NOT NULL PRIMARY KEY,
+  `player_name` VARCHAR(16) NULL,
+  `primary_account` VARCHAR(20) NULL
+);
+
+CREATE TABLE IF NOT EXISTS `accounts` (
+  `number` VARCHAR(20) NOT NULL PRIMARY KEY,
+  `owner` CHAR(36) NOT NULL,
+  `name` VARCHAR(50) NOT NULL,
+  `balance` INT NOT NULL DEFAULT 0,
+  `primary` BOOLEAN NOT NULL,
+  `terminated` TIMESTAMP NULL,
+  `transferred` VARCHAR(20) NULL
+);
+
+CREATE TABLE IF NOT EXISTS `custom_accounts` (
+  `name` VARCHAR(50) NOT NULL PRIMARY KEY,
+  `account` VARCHAR(20) NOT NULL,
+  `terminated` TIMESTAMP NULL,
+  `transferred` VARCHAR(20) NULL,
+  `transferred_name` VARCHAR(50) NULL
+);
+
+CREATE TABLE IF NOT EXISTS `machines` (
+  `machine_id` CHAR(36) NOT NULL PRIMARY KEY,
+  `dim` INT NULL,
+  `x` INT NULL,
+  `y` INT NULL,
+  `z` INT NULL,
+  `block` VARCHAR(100) NULL,
+  `metadata` INT NULL,
+  `tile` VARCHAR(200) NULL,
+  `owner` CHAR(36) NULL
+);
+
+CREATE TABLE IF NOT EXISTS `block_operators` (
+  `operator_id` INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  `x` INT NOT NULL,
+  `y` INT NOT NULL,
+  `z` INT NOT NULL,
+  `dim` INT NULL,
+  `block_id` VARCHAR(100) NULL,
+  `block_meta` INT NULL,
+  `owner` CHAR(36) NULL,
+  `machine_id` CHAR(36) NULL,
+  `machine_type` VARCHAR(200) NULL
+);
+
+CREATE TABLE IF NOT EXISTS `coin_source` (
+  `id` INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  `before` INT NOT NULL,
+  `after` INT NOT NULL,
+  `type` VARCHAR(20) NULL,
+  `machine` CHAR(36) NULL,
+  `account` VARCHAR(20) NULL,
+  `card_item` VARCHAR(100) NULL,
+  `card_damage` INT NULL,
+  `card_amount` INT NULL,
+  `card_nbt` TEXT NULL,
+  `player_operator` CHAR(36) NULL,
+  `block_operator` INT NULL
+);
+
+CREATE TABLE IF NOT EXISTS `transactions` (
+  `transaction_id` CHAR(36) NOT NULL PRIMARY KEY,
+  `time` TIMESTAMP NOT NULL,
+  `machine` CHAR(36) NULL,
+  `player_operator` CHAR(36) NULL,
+  `block_operator` INT NULL,
+  `product_item` VARCHAR(100) NULL,
+  `product_damage` INT NULL,
+  `product_amount` INT NULL,
+  `product_nbt` TEXT NULL,
+  `trade_item` VARCHAR(100) NULL,
+  `trade_damage` INT NULL,
+  `trade_amount` INT NULL,
+  `trade_nbt` TEXT NULL,
+  `operation` VARCHAR(40) NOT NULL,
+  `infinite` BOOLEAN NOT NULL,
+  `quantity` INT NOT NULL,
+  `price` INT NOT NULL,
+  `total_price` INT NOT NULL,
+  `user_coinsource` INT NULL,
+  `owner_coinsource` INT NULL
+);
+
+CREATE TABLE IF NOT EXISTS `deliveries` (
+  `id` INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  `item` TEXT NOT NULL,
+  `sender` VARCHAR(50) NULL,
+  `sender_id` CHAR(36) NULL,
+  `target_id` CHAR(36) NOT NULL,
+  `sent` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `delivered` TIMESTAMP NULL
+);
@@ -66,7 +66,8 @@ public class CommonProxy
     public boolean cardCheckBalance, cardDepositFromTransaction;
     public Achievement achievementCoin, achievementThousand, achievementMillion, achievementBillion, achievementMaxed;
     public AchievementPage achievementPage;
-    String commandBalance, commandRebalance, commandGive, commandSend;
+    String commandBalance, commandRebalance, commandGive, commandSend, commandMoneySupply, commandDataBaseStats,
+            commandTransactions, commandMarket;
     public String commandReceivePackets;
 
     class ConfigLoader
@@ -80,6 +81,8 @@ public class CommonProxy
         Set<String> signNonWoodMaterials, signNonWoodDictionaries,
             vendorFrameNonWoodMaterials, vendorFrameNonWoodDictionaries;
 
+        int enderPickupInterval;
+
         int mobDropMax, mobDropChance, enderDragonMultiplier, mineshaftCoinChance, dungeonCoinChance;
         boolean coinsInMineshaft, coinsInDungeon, mobsDropCoins;
 
@@ -91,6 +94,13 @@ public class CommonProxy
         String sqlPasswd;
         int conversionFromType;
         String propertiesDir;
+        int machineRegistrationBatch;
+        int machineLogMaxSize, machineLogMaxAge, machineLogRetention, machineLogMaxSegments, machineLogOpenFiles;
+        int moneySupplyCheckpointInterval;
+        int marketSaveInterval;
+        int machineStatsFlushInterval;
+        boolean statsEnabled, statsTrackCallers;
+        int statsSummaryInterval;
 
         ConfigLoader(Configuration source){ this.source = source; }
 
@@ -112,6 +122,11 @@ public class CommonProxy
             prop.comment = "Set to true to deposit all coins from the player inventory to the ender card on right click.";
             enderDepositFromInventory = prop.getBoolean(true);
 
+            prop = source.get(category, "Pickup Deposit Interval", 1);
+            prop.comment = "Interval in ticks between the deposits of the coins picked up by players holding an ender card. " +
+                    "All coins picked up during the interval are deposited together with a single transaction. Default: 1";
+            enderPickupInterval = Math.max(1, prop.getInt(1));
+
             prop = source.get(category, "Check Balance", true);
             prop.comment = "Set to true to show the account balance on right click";
             enderCheckBalance = prop.getBoolean(true);
@@ -355,6 +370,63 @@ public class CommonProxy
             prop.comment = "Directory where the properties database will be saved";
             propertiesDir = prop.getString();
 
+            prop = source.get(category, "Machine Registration Batch Size", 100);
+            prop.comment = "Maximum amount of new machines saved to the database at the end of each tick. " +
+                    "New machines are queued when their chunks are loaded and saved together. Default: 100";
+            machineRegistrationBatch = Math.max(1, prop.getInt(100));
+
+            category = "Machine Logs";
+            prop = source.get(category, "Max Size", 4096);
+            prop.comment = "Size in KiB that makes a machine log of the properties database rotate. Set to 0 to disable. Default: 4096";
+            machineLogMaxSize = Math.max(0, prop.getInt(4096));
+
+            prop = source.get(category, "Max Age", 24);
+            prop.comment = "Age in hours that makes a machine log of the properties database rotate. Set to 0 to disable. Default: 24";
+            machineLogMaxAge = Math.max(0, prop.getInt(24));
+
+            prop = source.get(category, "Retention", 30);
+            prop.comment = "Days that the rotated and compressed machine logs are kept. Set to 0 to keep them forever. Default: 30";
+            machineLogRetention = Math.max(0, prop.getInt(30));
+
+            prop = source.get(category, "Max Segments", 50);
+            prop.comment = "Amount of rotated segments kept for each machine log. Set to 0 for no limit. Default: 50";
+            machineLogMaxSegments = Math.max(0, prop.getInt(50));
+
+            prop = source.get(category, "Open Files", 32);
+            prop.comment = "Amount of machine logs kept open, the least recently used one is closed when the limit is reached. Default: 32";
+            machineLogOpenFiles = Math.max(1, prop.getInt(32));
+
+            category = "Database Stats";
+            prop = source.get(category, "Enabled", false);
+            prop.comment = "Set to true to record the amount of calls, errors and latency of every database operation. " +
+                    "It can also be changed in game with the database stats command. Default: false";
+            statsEnabled = prop.getBoolean(false);
+
+            prop = source.get(category, "Track Callers", true);
+            prop.comment = "Set to true to also record which classes are calling the database operations. " +
+                    "This is slower than recording only the latency. Default: true";
+            statsTrackCallers = prop.getBoolean(true);
+
+            prop = source.get(category, "Summary Interval", 300);
+            prop.comment = "Interval in seconds between the database stats summaries on the server log. Set to 0 to disable the summaries. Default: 300";
+            statsSummaryInterval = Math.max(0, prop.getInt(300));
+
+            category = "Money Supply";
+            prop = source.get(category, "Checkpoint Interval", 300);
+            prop.comment = "Interval in seconds between the checkpoints of the money supply counters. Set to 0 to save them only when the server stops. Default: 300";
+            moneySupplyCheckpointInterval = Math.max(0, prop.getInt(300));
+
+            category = "Machine Stats";
+            prop = source.get(category, "Flush Interval", 300);
+            prop.comment = "Interval in seconds between the saves of the sales counters of each machine. " +
+                    "They are also saved with the worlds and when the server stops. Set to 0 to disable the periodic saves. Default: 300";
+            machineStatsFlushInterval = Math.max(0, prop.getInt(300));
+
+            category = "Market";
+            prop = source.get(category, "Save Interval", 300);
+            prop.comment = "Interval in seconds between the saves of the vendor offers index used by the market command. Set to 0 to save it only when the server stops. Default: 300";
+            marketSaveInterval = Math.max(0, prop.getInt(300));
+
             category = "Commands";
             prop = source.get(category, "balance", "");
             prop.comment = "Changes the command name. Leaves empty for the default value. Add comma for aliases";
@@ -381,6 +453,26 @@ public class CommonProxy
             commandReceivePackets = prop.getString();
             if(commandReceivePackets.isEmpty()) commandReceivePackets = "receivepackets";
 
+            prop = source.get(category, "moneysupply", "");
+            prop.comment = "Changes the command name. Leaves empty for the default value.";
+            commandMoneySupply = prop.getString();
+            if(commandMoneySupply.isEmpty()) commandMoneySupply = "moneysupply";
+
+            prop = source.get(category, "dbstats", "");
+            prop.comment = "Changes the command name. Leaves empty for the default value.";
+            commandDataBaseStats = prop.getString();
+            if(commandDataBaseStats.isEmpty()) commandDataBaseStats = "dbstats";
+
+            prop = source.get(category, "transactions", "");
+            prop.comment = "Changes the command name. Leaves empty for the default value.";
+            commandTransactions = prop.getString();
+            if(commandTransactions.isEmpty()) commandTransactions = "transactions";
+
+            prop = source.get(category, "market", "");
+            prop.comment = "Changes the command name. Leaves empty for the default value.";
+            commandMarket = prop.getString();
+            if(commandMarket.isEmpty()) commandMarket = "market";
+
 
             this.source.save();
         }
@@ -389,12 +481,25 @@ public class CommonProxy
         {
             switch (databaseType)
             {
-                case 1: UniversalCoinsServer.cardDb = new PropertiesDB(new File(propertiesDir)); break;
+                case 1: UniversalCoinsServer.cardDb = new PropertiesDB(new File(propertiesDir), new RotatingLogPool.Policy(
+                        machineLogMaxSize * 1024L, machineLogMaxAge * 3600000L, machineLogRetention * 86400000L,
+                        machineLogMaxSegments, machineLogOpenFiles)); break;
                 case 2: UniversalCoinsServer.cardDb = new SqlDB(DriverManager.getConnection(sqlUrl, sqlUser, sqlPasswd)); break;
                 case 3: UniversalCoinsServer.cardDb = new NbtDB(); break;
                 default: throw new IllegalArgumentException("Database Type: "+databaseType);
             }
 
+            UniversalCoinsServer.cardDb = new InstrumentedDataBase(UniversalCoinsServer.cardDb,
+                    statsEnabled, statsTrackCallers, statsSummaryInterval * 20);
+
+            MoneySupply.instance.init(moneySupplyCheckpointInterval * 20);
+
+            MachineStats.instance.init(machineStatsFlushInterval * 20);
+
+            MachineRegistrationQueue.instance.init(machineRegistrationBatch);
+
+            MarketIndex.instance.init(marketSaveInterval * 20);
+
             if(conversionFromType == databaseType)
                 throw new IllegalArgumentException("Attempted to import data from the same database type");
 
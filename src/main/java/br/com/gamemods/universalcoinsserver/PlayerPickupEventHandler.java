@@ -1,5 +1,6 @@
 package br.com.gamemods.universalcoinsserver;
 
+import br.com.gamemods.universalcoinsserver.api.CoinTally;
 import br.com.gamemods.universalcoinsserver.api.UniversalCoinsServerAPI;
 import br.com.gamemods.universalcoinsserver.datastore.AccountNotFoundException;
 import br.com.gamemods.universalcoinsserver.datastore.DataBaseException;
@@ -7,14 +8,102 @@ import br.com.gamemods.universalcoinsserver.datastore.PlayerOperator;
 import br.com.gamemods.universalcoinsserver.datastore.Transaction;
 import br.com.gamemods.universalcoinsserver.item.ItemCoin;
 import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.PlayerEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import net.minecraft.entity.item.EntityItem;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.ChatComponentTranslation;
 import net.minecraftforge.event.entity.player.EntityItemPickupEvent;
 
 import java.text.NumberFormat;
+import java.util.*;
 
+/**
+ * Deposits the coins picked up by players to their ender cards.
+ * <p>
+ * The picked coins are accumulated per player and per account and are deposited together every {@code flushInterval}
+ * ticks, with a single transaction and a single chat message. The coin entities stay in the world, locked for pickups,
+ * until the deposit is stored and are released if it fails. The coins that don't fit in the account are given to the
+ * player.
+ */
 public class PlayerPickupEventHandler
 {
+    /**
+     * Pickup delay of the coin entities waiting for a deposit, nobody can pick them up while it's set and the vanilla
+     * code doesn't merge them with other stacks
+     */
+    private static final int LOCKED = Short.MAX_VALUE;
+
+    private static final class PendingDeposit
+    {
+        private final ItemStack card;
+        private final List<EntityItem> items = new ArrayList<>(4);
+        private long coins;
+
+        private PendingDeposit(ItemStack card)
+        {
+            this.card = card;
+        }
+
+        /**
+         * @return The value of the coin entities that still exist
+         */
+        private long getCoins()
+        {
+            long coins = 0;
+            for(EntityItem item: items)
+            {
+                ItemStack stack = item.getEntityItem();
+                if(!item.isDead && stack != null && stack.getItem() instanceof ItemCoin)
+                    coins += (long) stack.stackSize * ((ItemCoin) stack.getItem()).getValue();
+            }
+            return coins;
+        }
+
+        /**
+         * Removes the coin entities after their value was stored
+         */
+        private void consume()
+        {
+            for(EntityItem item: items)
+                item.setDead();
+        }
+
+        /**
+         * Unlocks the coin entities so they can be picked up again
+         */
+        private void release()
+        {
+            for(EntityItem item: items)
+                if(!item.isDead)
+                    item.delayBeforeCanPickup = 0;
+        }
+    }
+
+    private static final class PendingPlayer
+    {
+        private EntityPlayer player;
+        private final Map<String, PendingDeposit> deposits = new LinkedHashMap<>(2);
+
+        private PendingPlayer(EntityPlayer player)
+        {
+            this.player = player;
+        }
+    }
+
+    private final int flushInterval;
+    private final Map<UUID, PendingPlayer> pending = new LinkedHashMap<>();
+    private int ticks;
+
+    /**
+     * @param flushInterval Ticks between the deposits
+     */
+    public PlayerPickupEventHandler(int flushInterval)
+    {
+        this.flushInterval = Math.max(1, flushInterval);
+    }
+
     @SubscribeEvent
     public void onItemPickup(EntityItemPickupEvent event)
     {
@@ -35,44 +124,135 @@ public class PlayerPickupEventHandler
                     || !UniversalCoinsServerAPI.canCardBeUsedBy(stack, event.entityPlayer))
                 continue;
 
-            int stackValue = itemStack.stackSize * coin.getValue();
-            int coins = UniversalCoinsServerAPI.scanCoins(event.entityPlayer.inventory).getCoins() + stackValue;
+            long stackValue = (long) itemStack.stackSize * coin.getValue();
+            String account = stack.stackTagCompound.getString("Account");
 
-            try
-            {
-                String account = stack.stackTagCompound.getString("Account");
+            UUID playerId = event.entityPlayer.getPersistentID();
+            PendingPlayer pendingPlayer = pending.get(playerId);
+            if(pendingPlayer == null)
+                pending.put(playerId, pendingPlayer = new PendingPlayer(event.entityPlayer));
 
-                PlayerOperator playerOperator = new PlayerOperator(event.entityPlayer);
-                Transaction transaction = new Transaction(
-                        playerOperator, new Transaction.InventoryCoinSource(playerOperator, coins, -stackValue),
-                        new Transaction.CardCoinSource(stack, stackValue),
-                        coins
-                );
+            PendingDeposit deposit = pendingPlayer.deposits.get(account);
+            if(deposit == null)
+                pendingPlayer.deposits.put(account, deposit = new PendingDeposit(stack));
+            else if(deposit.coins + stackValue > Integer.MAX_VALUE)
+                return;
 
-                if(UniversalCoinsServer.cardDb.canDeposit(account, coins) < 0)
-                    return;
+            deposit.coins += stackValue;
+            deposit.items.add(event.item);
 
-                UniversalCoinsServer.cardDb.depositToAccount(account, coins, transaction);
+            // Killed only after the deposit is stored
+            event.setCanceled(true);
+            event.item.delayBeforeCanPickup = LOCKED;
+            return;
+        }
+    }
 
-                event.entityPlayer.addChatComponentMessage(
-                        new ChatComponentTranslation("item.itemEnderCard.message.deposit")
-                            .appendText(" "+ NumberFormat.getIntegerInstance().format(stackValue)+" ")
-                            .appendSibling(new ChatComponentTranslation("item.itemCoin.name"))
-                );
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END || pending.isEmpty() || ++ticks < flushInterval)
+            return;
 
-                event.setCanceled(true);
-                event.item.setDead();
-                return;
-            }
-            catch (AccountNotFoundException e)
-            {
-                stack.stackTagCompound.setBoolean("DisablePickup", true);
-                return;
-            }
-            catch (DataBaseException e)
+        ticks = 0;
+        flushAll();
+    }
+
+    @SubscribeEvent
+    public void onPlayerRespawn(PlayerEvent.PlayerRespawnEvent event)
+    {
+        PendingPlayer pendingPlayer = pending.get(event.player.getPersistentID());
+        if(pendingPlayer != null)
+            pendingPlayer.player = event.player;
+    }
+
+    @SubscribeEvent
+    public void onPlayerLogout(PlayerEvent.PlayerLoggedOutEvent event)
+    {
+        PendingPlayer pendingPlayer = pending.remove(event.player.getPersistentID());
+        if(pendingPlayer != null)
+            flush(pendingPlayer);
+    }
+
+    /**
+     * Deposits all pending coins immediately
+     */
+    public void flushAll()
+    {
+        if(pending.isEmpty())
+            return;
+
+        List<PendingPlayer> players = new ArrayList<>(pending.values());
+        pending.clear();
+        for(PendingPlayer pendingPlayer: players)
+            flush(pendingPlayer);
+    }
+
+    private void flush(PendingPlayer pendingPlayer)
+    {
+        EntityPlayer player = pendingPlayer.player;
+        long total = 0;
+        long returned = 0;
+        for(Map.Entry<String, PendingDeposit> entry: pendingPlayer.deposits.entrySet())
+        {
+            PendingDeposit deposit = entry.getValue();
+            long coins = deposit.getCoins();
+            int deposited = deposit(player, entry.getKey(), deposit, (int) Math.min(coins, Integer.MAX_VALUE));
+            if(deposited < 0)
             {
-                e.printStackTrace();
+                deposit.release();
+                continue;
             }
+
+            deposit.consume();
+            total += deposited;
+            returned += coins - deposited;
+        }
+
+        if(returned > 0)
+            UniversalCoinsServerAPI.giveCoins(player, (int) Math.min(returned, Integer.MAX_VALUE));
+
+        if(total > 0)
+            player.addChatComponentMessage(
+                    new ChatComponentTranslation("item.itemEnderCard.message.deposit")
+                        .appendText(" "+ NumberFormat.getIntegerInstance().format(total)+" ")
+                        .appendSibling(new ChatComponentTranslation("item.itemCoin.name"))
+            );
+    }
+
+    /**
+     * @return The amount of coins that were deposited, {@code -1} if the deposit failed
+     */
+    private int deposit(EntityPlayer player, String account, PendingDeposit deposit, int coins)
+    {
+        try
+        {
+            int amount = coins;
+            int space = UniversalCoinsServer.cardDb.canDeposit(account, amount);
+            if(space < 0)
+                amount += space;
+            if(amount <= 0)
+                return 0;
+
+            int coins = CoinTally.getCoins(player) + amount;
+            PlayerOperator playerOperator = new PlayerOperator(player);
+            Transaction transaction = new Transaction(
+                    playerOperator, new Transaction.InventoryCoinSource(playerOperator, coins, -amount),
+                    new Transaction.CardCoinSource(deposit.card, amount),
+                    amount
+            );
+
+            return amount - UniversalCoinsServer.cardDb.depositToAccount(account, amount, transaction);
+        }
+        catch (AccountNotFoundException e)
+        {
+            deposit.card.stackTagCompound.setBoolean("DisablePickup", true);
+            return -1;
+        }
+        catch (DataBaseException e)
+        {
+            e.printStackTrace();
+            return -1;
         }
     }
 }
@@ -1,15 +1,27 @@
 package br.com.gamemods.universalcoinsserver;
 
+import br.com.gamemods.universalcoinsserver.api.CoinTally;
 import br.com.gamemods.universalcoinsserver.command.*;
 import br.com.gamemods.universalcoinsserver.datastore.CardDataBase;
 import br.com.gamemods.universalcoinsserver.datastore.DataBaseException;
+import br.com.gamemods.universalcoinsserver.datastore.DataStoreException;
+import br.com.gamemods.universalcoinsserver.datastore.InstrumentedDataBase;
+import br.com.gamemods.universalcoinsserver.datastore.MachineRegistrationQueue;
+import br.com.gamemods.universalcoinsserver.datastore.MachineStats;
+import br.com.gamemods.universalcoinsserver.datastore.MoneySupply;
+import br.com.gamemods.universalcoinsserver.datastore.PropertiesDB;
 import br.com.gamemods.universalcoinsserver.net.*;
+import br.com.gamemods.universalcoinsserver.tile.MarketIndex;
+import br.com.gamemods.universalcoinsserver.tile.TickScheduler;
+import br.com.gamemods.universalcoinsserver.tile.UpdateScheduler;
+import cpw.mods.fml.common.FMLCommonHandler;
 import cpw.mods.fml.common.Mod;
 import cpw.mods.fml.common.SidedProxy;
 import cpw.mods.fml.common.event.FMLInitializationEvent;
 import cpw.mods.fml.common.event.FMLPreInitializationEvent;
 import cpw.mods.fml.common.event.FMLServerStartedEvent;
 import cpw.mods.fml.common.event.FMLServerStartingEvent;
+import cpw.mods.fml.common.event.FMLServerStoppingEvent;
 import cpw.mods.fml.common.network.NetworkRegistry;
 import cpw.mods.fml.common.network.simpleimpl.SimpleNetworkWrapper;
 import cpw.mods.fml.relauncher.Side;
@@ -17,10 +29,13 @@ import cpw.mods.fml.relauncher.SideOnly;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.WeightedRandomChestContent;
 import net.minecraftforge.common.ChestGenHooks;
+import net.minecraftforge.common.DimensionManager;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.common.config.Configuration;
 import org.apache.logging.log4j.Logger;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.concurrent.Callable;
@@ -41,6 +56,7 @@ public class UniversalCoinsServer
     public CommandReceivePackets commandReceivePackets;
 
     Callable<Void> hook;
+    PlayerPickupEventHandler pickupHandler;
 
     @Mod.EventHandler
     public void preInit(FMLPreInitializationEvent event) throws IOException, SQLException
@@ -49,7 +65,15 @@ public class UniversalCoinsServer
         proxy.configs.load();
         logger = event.getModLog();
 
-        MinecraftForge.EVENT_BUS.register(new PlayerPickupEventHandler());
+        pickupHandler = new PlayerPickupEventHandler(proxy.configs.enderPickupInterval);
+        MinecraftForge.EVENT_BUS.register(pickupHandler);
+        FMLCommonHandler.instance().bus().register(pickupHandler);
+        MinecraftForge.EVENT_BUS.register(CoinTally.instance);
+        FMLCommonHandler.instance().bus().register(CoinTally.instance);
+        MinecraftForge.EVENT_BUS.register(UpdateScheduler.instance);
+        FMLCommonHandler.instance().bus().register(UpdateScheduler.instance);
+        MinecraftForge.EVENT_BUS.register(TickScheduler.instance);
+        FMLCommonHandler.instance().bus().register(TickScheduler.instance);
         if(proxy.configs.mobsDropCoins)
             MinecraftForge.EVENT_BUS.register(new MobDropEventHandler(proxy.configs.mobDropChance, proxy.configs.mobDropMax, proxy.configs.enderDragonMultiplier));
 
@@ -101,12 +125,83 @@ public class UniversalCoinsServer
         event.registerServerCommand(new CommandSend(proxy.commandSend));
         event.registerServerCommand(new CommandPackInventory());
         event.registerServerCommand(commandReceivePackets = new CommandReceivePackets(proxy.commandReceivePackets));
+        event.registerServerCommand(new CommandMoneySupply(proxy.commandMoneySupply));
+        event.registerServerCommand(new CommandDataBaseStats(proxy.commandDataBaseStats));
+        event.registerServerCommand(new CommandTransactions(proxy.commandTransactions));
+        event.registerServerCommand(new CommandMarket(proxy.commandMarket));
     }
 
     @Mod.EventHandler
     public void postServerInit(FMLServerStartedEvent event) throws Exception
     {
+        MachineStats.instance.start(new File(getSaveDir(), "machinestats.properties"));
+        CardDataBase delegate = cardDb instanceof InstrumentedDataBase?
+                ((InstrumentedDataBase) cardDb).getDelegate() : cardDb;
+        if(delegate instanceof PropertiesDB)
+            ((PropertiesDB) delegate).migrateMachineStats();
+
+        // The import changes the accounts, so it must be done before the money supply is loaded
         if(hook != null)
             hook.call();
+
+        MoneySupply.instance.start(new File(getSaveDir(), "moneysupply.properties"));
+        if(hook != null)
+        {
+            // The checkpoint was written before the import
+            MoneySupply.instance.recount();
+            hook = null;
+        }
+
+        MarketIndex.instance.start(new File(getSaveDir(), "market.dat"));
+    }
+
+    /**
+     * @return The directory inside the current world save where the mod keeps its data
+     */
+    public static File getSaveDir()
+    {
+        File dir = new File(DimensionManager.getCurrentSaveRootDirectory(), "universalcoins");
+        if(!dir.isDirectory() && !dir.mkdirs())
+            logger.warn("Failed to create the directory "+dir);
+        return dir;
+    }
+
+    @Mod.EventHandler
+    public void serverStopping(FMLServerStoppingEvent event)
+    {
+        pickupHandler.flushAll();
+        MachineRegistrationQueue.instance.flushAll();
+        MarketIndex.instance.stop();
+
+        try
+        {
+            MoneySupply.instance.checkpoint();
+        }
+        catch (DataStoreException e)
+        {
+            logger.error("Failed to checkpoint the money supply", e);
+        }
+
+        try
+        {
+            MachineStats.instance.stop();
+        }
+        catch (DataStoreException e)
+        {
+            logger.error("Failed to flush the machine stats", e);
+        }
+
+        // The queues above are the last ones to write logs
+        if(cardDb instanceof Closeable)
+        {
+            try
+            {
+                ((Closeable) cardDb).close();
+            }
+            catch (IOException e)
+            {
+                logger.error("Failed to close the datastore", e);
+            }
+        }
     }
 }
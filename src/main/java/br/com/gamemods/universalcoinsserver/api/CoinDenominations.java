@@ -0,0 +1,345 @@
+package br.com.gamemods.universalcoinsserver.api;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import br.com.gamemods.universalcoinsserver.item.ItemCoin;
+import net.minecraft.inventory.IInventory;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits amounts of coins into the coin items registered on {@code UniversalCoinsServer.proxy.coins}.
+ * <p>
+ * Each coin value is a multiple of the previous one, so dividing the amount from the highest value to the lowest one
+ * gives the fewest coins possible with integer arithmetic only.
+ */
+public final class CoinDenominations
+{
+    private static final int EMPTY = -1, OTHER = -2;
+
+    private CoinDenominations()
+    {
+    }
+
+    /**
+     * @return The amount of coins of each item, with the same indexes as {@code UniversalCoinsServer.proxy.coins}
+     * @throws IllegalArgumentException If {@code coins < 0}
+     */
+    @Nonnull
+    public static int[] decompose(int coins) throws IllegalArgumentException
+    {
+        if(coins < 0) throw new IllegalArgumentException("coins < 0: "+coins);
+
+        ItemCoin[] tiers = UniversalCoinsServer.proxy.coins;
+        int[] counts = new int[tiers.length];
+        for(int i = tiers.length - 1; i >= 0 && coins > 0; i--)
+        {
+            int value = tiers[i].getValue();
+            counts[i] = coins / value;
+            coins -= counts[i] * value;
+        }
+        return counts;
+    }
+
+    /**
+     * @return The amount of stacks returned by {@link #createStacks(int)}
+     */
+    public static int stackCount(int coins)
+    {
+        return stackCount(coins, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return The amount of stacks returned by {@link #createStacks(int, int)}
+     */
+    public static int stackCount(int coins, int stackLimit)
+    {
+        ItemCoin[] tiers = UniversalCoinsServer.proxy.coins;
+        int[] counts = decompose(coins);
+        int stacks = 0;
+        for(int i = 0; i < counts.length; i++)
+        {
+            int limit = Math.min(tiers[i].getItemStackLimit(), stackLimit);
+            stacks += (counts[i] + limit - 1) / limit;
+        }
+        return stacks;
+    }
+
+    /**
+     * Creates the fewest stacks possible holding the exact amount of coins, the highest values come first
+     */
+    @Nonnull
+    public static List<ItemStack> createStacks(int coins)
+    {
+        return createStacks(coins, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param stackLimit The maximum stack size, like {@link IInventory#getInventoryStackLimit()}
+     * @see #createStacks(int)
+     */
+    @Nonnull
+    public static List<ItemStack> createStacks(int coins, int stackLimit)
+    {
+        if(coins <= 0)
+            return new ArrayList<>(0);
+
+        ItemCoin[] tiers = UniversalCoinsServer.proxy.coins;
+        int[] counts = decompose(coins);
+        List<ItemStack> stacks = new ArrayList<>(stackCount(coins, stackLimit));
+        for(int i = counts.length - 1; i >= 0; i--)
+        {
+            int count = counts[i];
+            int limit = Math.min(tiers[i].getItemStackLimit(), stackLimit);
+            while (count > 0)
+            {
+                int stackSize = Math.min(count, limit);
+                stacks.add(new ItemStack(tiers[i], stackSize));
+                count -= stackSize;
+            }
+        }
+        return stacks;
+    }
+
+    /**
+     * Creates the single stack holding the highest amount of coins without exceeding {@code coins}, considering the
+     * stack limit of each coin, so a full stack of a lower value is preferred over a few coins of a higher value.
+     * When two coins give the same amount the lower value is used.
+     * It returns an empty stack of the lowest value when {@code coins} is lower than the lowest value.
+     */
+    @Nonnull
+    public static ItemStack createBestStack(int coins)
+    {
+        ItemCoin[] tiers = UniversalCoinsServer.proxy.coins;
+        int best = 0, bestSize = 0;
+        long bestAmount = 0;
+        for(int i = tiers.length - 1; i >= 0; i--)
+        {
+            int value = tiers[i].getValue();
+            int size = Math.max(0, Math.min(coins / value, tiers[i].getItemStackLimit()));
+            long amount = (long) size * value;
+            if(amount > 0 && amount >= bestAmount)
+            {
+                best = i;
+                bestSize = size;
+                bestAmount = amount;
+            }
+        }
+
+        return new ItemStack(tiers[best], bestSize);
+    }
+
+    /**
+     * Adds coins to a part of an inventory with a single pass over its slots.
+     * <p>
+     * The amount is placed from the highest coin value to the lowest one, the existing coin stacks of each value are
+     * filled first and then the empty slots are used, so the fewest slots are taken.
+     * @return The amount of coins that couldn't be added
+     */
+    static int addCoins(@Nonnull IInventory inventory, int coins, int startIndex, int endIndex)
+    {
+        ItemCoin[] tiers = UniversalCoinsServer.proxy.coins;
+        int inventoryStackLimit = inventory.getInventoryStackLimit();
+        int size = endIndex - startIndex;
+        int[] slotTiers = new int[size];
+        ItemStack[] stacks = new ItemStack[size];
+
+        for(int i = 0; i < size; i++)
+        {
+            int slot = startIndex + i;
+            ItemStack stack = inventory.getStackInSlot(slot);
+            if(stack == null)
+            {
+                slotTiers[i] = EMPTY;
+                continue;
+            }
+
+            slotTiers[i] = OTHER;
+            Item item = stack.getItem();
+            if(!(item instanceof ItemCoin) || stack.stackSize >= Math.min(stack.getMaxStackSize(), inventoryStackLimit)
+                    || !inventory.isItemValidForSlot(slot, stack))
+                continue;
+
+            for(int tier = 0; tier < tiers.length; tier++)
+                if(tiers[tier] == item)
+                {
+                    slotTiers[i] = tier;
+                    stacks[i] = stack;
+                    break;
+                }
+        }
+
+        for(int tier = tiers.length - 1; tier >= 0 && coins > 0; tier--)
+        {
+            ItemCoin coin = tiers[tier];
+            int value = coin.getValue();
+            int wanted = coins / value;
+            if(wanted == 0)
+                continue;
+
+            for(int i = 0; i < size && wanted > 0; i++)
+            {
+                if(slotTiers[i] != tier)
+                    continue;
+
+                ItemStack stack = stacks[i];
+                int amountToAdd = Math.min(wanted, Math.min(stack.getMaxStackSize(), inventoryStackLimit) - stack.stackSize);
+                if(amountToAdd <= 0)
+                    continue;
+
+                stack.stackSize += amountToAdd;
+                inventory.setInventorySlotContents(startIndex + i, stack);
+                wanted -= amountToAdd;
+                coins -= amountToAdd * value;
+            }
+
+            int stackLimit = Math.min(coin.getItemStackLimit(), inventoryStackLimit);
+            for(int i = 0; i < size && wanted > 0; i++)
+            {
+                if(slotTiers[i] != EMPTY)
+                    continue;
+
+                int slot = startIndex + i;
+                ItemStack stack = new ItemStack(coin, Math.min(wanted, stackLimit));
+                if(!inventory.isItemValidForSlot(slot, stack))
+                    continue;
+
+                inventory.setInventorySlotContents(slot, stack);
+                slotTiers[i] = tier;
+                stacks[i] = stack;
+                wanted -= stack.stackSize;
+                coins -= stack.stackSize * value;
+            }
+        }
+
+        return coins;
+    }
+
+    /**
+     * Replaces the coins of a part of an inventory by the fewest stacks possible with a single pass over its slots.
+     * <p>
+     * The target stacks are placed on the slots that already hold the same stack first, then on the slots that hold
+     * the same coin, then on the other coin slots and finally on the empty slots. Only the slots that change are set.
+     * @param balance Coins added to the coins found on the inventory
+     * @return The amount of coins that couldn't be placed, or the balance if it's negative or zero
+     */
+    static long rebalance(@Nonnull IInventory inventory, long balance, int startIndex, int endIndex)
+    {
+        int size = endIndex - startIndex;
+        ItemStack[] coinStacks = new ItemStack[size];
+        boolean[] empty = new boolean[size];
+        for(int i = 0; i < size; i++)
+        {
+            int slot = startIndex + i;
+            ItemStack stack = inventory.getStackInSlot(slot);
+            if(stack == null)
+            {
+                empty[i] = true;
+                continue;
+            }
+
+            Item item = stack.getItem();
+            if(item instanceof ItemCoin && inventory.isItemValidForSlot(slot, stack) && stack.stackSize > 0)
+            {
+                long sum = balance + ((ItemCoin) item).getValue() * stack.stackSize;
+                if(sum <= Integer.MAX_VALUE)
+                {
+                    coinStacks[i] = stack;
+                    balance = sum;
+                }
+            }
+        }
+
+        List<ItemStack> targets = balance > 0? createStacks((int) balance, inventory.getInventoryStackLimit())
+                                              : new ArrayList<ItemStack>(0);
+        int targetCount = targets.size();
+        int[] targetSlots = new int[targetCount];
+        Arrays.fill(targetSlots, -1);
+        boolean[] used = new boolean[size];
+
+        // Same stack, nothing to change
+        for(int t = 0; t < targetCount; t++)
+        {
+            ItemStack target = targets.get(t);
+            for(int i = 0; i < size; i++)
+            {
+                ItemStack stack = coinStacks[i];
+                if(!used[i] && stack != null && stack.getItem() == target.getItem() && stack.stackSize == target.stackSize)
+                {
+                    used[i] = true;
+                    targetSlots[t] = i;
+                    break;
+                }
+            }
+        }
+
+        // Same coin, only the stack size changes
+        for(int t = 0; t < targetCount; t++)
+        {
+            if(targetSlots[t] >= 0)
+                continue;
+
+            ItemStack target = targets.get(t);
+            for(int i = 0; i < size; i++)
+            {
+                ItemStack stack = coinStacks[i];
+                if(!used[i] && stack != null && stack.getItem() == target.getItem())
+                {
+                    used[i] = true;
+                    targetSlots[t] = i;
+                    stack.stackSize = target.stackSize;
+                    inventory.setInventorySlotContents(startIndex + i, stack);
+                    break;
+                }
+            }
+        }
+
+        // Any other coin slot or an empty slot
+        long notPlaced = 0;
+        for(int t = 0; t < targetCount; t++)
+        {
+            if(targetSlots[t] >= 0)
+                continue;
+
+            ItemStack target = targets.get(t);
+            for(int i = 0; i < size && targetSlots[t] < 0; i++)
+            {
+                if(used[i] || coinStacks[i] == null)
+                    continue;
+
+                if(inventory.isItemValidForSlot(startIndex + i, target))
+                {
+                    used[i] = true;
+                    targetSlots[t] = i;
+                }
+            }
+
+            for(int i = 0; i < size && targetSlots[t] < 0; i++)
+            {
+                if(!empty[i] || used[i])
+                    continue;
+
+                if(inventory.isItemValidForSlot(startIndex + i, target))
+                {
+                    used[i] = true;
+                    targetSlots[t] = i;
+                }
+            }
+
+            if(targetSlots[t] >= 0)
+                inventory.setInventorySlotContents(startIndex + targetSlots[t], target);
+            else
+                notPlaced += ((ItemCoin) target.getItem()).getValue() * target.stackSize;
+        }
+
+        for(int i = 0; i < size; i++)
+            if(coinStacks[i] != null && !used[i])
+                inventory.setInventorySlotContents(startIndex + i, null);
+
+        return balance > 0? notPlaced : balance;
+    }
+}
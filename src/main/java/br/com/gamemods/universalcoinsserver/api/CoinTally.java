@@ -0,0 +1,136 @@
+package br.com.gamemods.universalcoinsserver.api;
+
+import cpw.mods.fml.common.eventhandler.EventPriority;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.PlayerEvent;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.InventoryPlayer;
+import net.minecraft.inventory.IInventory;
+import net.minecraftforge.event.entity.item.ItemTossEvent;
+import net.minecraftforge.event.entity.player.EntityItemPickupEvent;
+import net.minecraftforge.event.entity.player.PlayerOpenContainerEvent;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the amount of coins that each player carries so it can be checked without scanning the inventory.
+ * <p>
+ * The coin methods from {@link UniversalCoinsServerAPI} update the totals with the exact amounts they moved. Any other
+ * change that may affect the coins, like pickups, tosses, crafting, other open containers and slot changes that mark
+ * the inventory as changed, sets a dirty flag and the inventory is scanned again on the next query.
+ * <p>
+ * Must be used only from the server thread.
+ */
+public final class CoinTally
+{
+    public static final CoinTally instance = new CoinTally();
+
+    private static final class Tally
+    {
+        private int coins;
+        private boolean dirty = true;
+    }
+
+    private final Map<InventoryPlayer, Tally> tallies = new WeakHashMap<>();
+    private final ScanResult scanResult = new ScanResult();
+
+    private CoinTally()
+    {
+    }
+
+    /**
+     * @return The value of all coins in the player inventory, the same as {@code scanCoins(player.inventory).getCoins()}
+     */
+    public static int getCoins(@Nonnull EntityPlayer player)
+    {
+        return getCoins(player.inventory);
+    }
+
+    /**
+     * @see #getCoins(EntityPlayer)
+     */
+    public static int getCoins(@Nonnull InventoryPlayer inventory)
+    {
+        Tally tally = instance.tallies.get(inventory);
+        if(tally == null)
+            instance.tallies.put(inventory, tally = new Tally());
+
+        if(tally.dirty || inventory.inventoryChanged)
+        {
+            inventory.inventoryChanged = false;
+            tally.coins = UniversalCoinsServerAPI.scanCoins(inventory, 0, inventory.getSizeInventory(), instance.scanResult)
+                    .getCoins();
+            tally.dirty = false;
+        }
+
+        return tally.coins;
+    }
+
+    /**
+     * Informs that coins were added or removed from an inventory, it does nothing if the inventory is not tracked
+     * @param delta Positive: Coins added, Negative: Coins removed
+     */
+    public static void update(@Nonnull IInventory inventory, int delta)
+    {
+        if(delta == 0 || !(inventory instanceof InventoryPlayer))
+            return;
+
+        Tally tally = instance.tallies.get(inventory);
+        if(tally != null && !tally.dirty)
+            tally.coins += delta;
+    }
+
+    /**
+     * Forces the inventory to be scanned on the next query
+     */
+    public static void invalidate(@Nonnull IInventory inventory)
+    {
+        if(!(inventory instanceof InventoryPlayer))
+            return;
+
+        Tally tally = instance.tallies.get(inventory);
+        if(tally != null)
+            tally.dirty = true;
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onItemPickup(EntityItemPickupEvent event)
+    {
+        invalidate(event.entityPlayer.inventory);
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onItemToss(ItemTossEvent event)
+    {
+        invalidate(event.player.inventory);
+    }
+
+    @SubscribeEvent
+    public void onOpenContainer(PlayerOpenContainerEvent event)
+    {
+        // Fired every tick for every player, the inventory container is open when no other container is
+        EntityPlayer player = event.entityPlayer;
+        if(player.openContainer != player.inventoryContainer)
+            invalidate(player.inventory);
+    }
+
+    @SubscribeEvent
+    public void onItemCrafted(PlayerEvent.ItemCraftedEvent event)
+    {
+        invalidate(event.player.inventory);
+    }
+
+    @SubscribeEvent
+    public void onItemSmelted(PlayerEvent.ItemSmeltedEvent event)
+    {
+        invalidate(event.player.inventory);
+    }
+
+    @SubscribeEvent
+    public void onPlayerLogout(PlayerEvent.PlayerLoggedOutEvent event)
+    {
+        tallies.remove(event.player.inventory);
+    }
+}
@@ -1,27 +1,37 @@
 package br.com.gamemods.universalcoinsserver.api;
 
+import br.com.gamemods.universalcoinsserver.item.ItemCoin;
 import net.minecraft.inventory.IInventory;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
 
 import javax.annotation.Nonnull;
 import java.util.*;
 
+/**
+ * The coins found on a part of an inventory.
+ * <p>
+ * The coin stacks are kept on primitive arrays sorted by coin value, then by stack size and then by slot, they can be
+ * read without allocations with {@link #size()}, {@link #getSlot(int)}, {@link #getStackSize(int)} and
+ * {@link #getCoinValue(int)}. The same instance can be refreshed with {@link #rescan()} or filled with the coins of
+ * another inventory by {@link UniversalCoinsServerAPI#scanCoins(IInventory, int, int, ScanResult)}, reusing its
+ * buffers, so repeated scans of inventories of the same size don't allocate.
+ */
 public class ScanResult implements Iterable<Map.Entry<Integer, Integer>>
 {
-    @Nonnull
-    private final IInventory scannedInventory;
-    @Nonnull
-    private final SortedMap<Integer, SortedMap<Integer, SortedSet<Integer>>> distribution;
-    private final int coins;
-    private final int startIndex, endIndex;
+    private static final int DEFAULT_CAPACITY = 36;
+
+    private IInventory scannedInventory;
+    private SortedMap<Integer, SortedMap<Integer, SortedSet<Integer>>> distribution;
+    private int coins;
+    private int startIndex, endIndex;
+    private int size;
+    private int[] slots, stackSizes, values;
 
     public ScanResult(@Nonnull IInventory scannedInventory, @Nonnull SortedMap<Integer, SortedMap<Integer, SortedSet<Integer>>> distribution, int coins)
     {
+        this(scannedInventory, distribution, coins, 0, scannedInventory.getSizeInventory());
         if(coins < 0) throw new IllegalArgumentException("coins < 0: "+coins);
-        this.scannedInventory = scannedInventory;
-        this.distribution = Collections.unmodifiableSortedMap(distribution);
-        this.coins = coins;
-        this.startIndex = 0;
-        this.endIndex = scannedInventory.getSizeInventory();
     }
 
     public ScanResult(@Nonnull IInventory scannedInventory, @Nonnull SortedMap<Integer, SortedMap<Integer, SortedSet<Integer>>> distribution, int coins, int startIndex, int endIndex)
@@ -31,42 +41,179 @@ public class ScanResult implements Iterable<Map.Entry<Integer, Integer>>
         this.coins = coins;
         this.startIndex = startIndex;
         this.endIndex = endIndex;
+
+        int count = 0;
+        for(SortedMap<Integer, SortedSet<Integer>> amounts: distribution.values())
+            for(SortedSet<Integer> slots: amounts.values())
+                count += slots.size();
+
+        allocate(count);
+        for(Map.Entry<Integer, SortedMap<Integer, SortedSet<Integer>>> coinEntry: distribution.entrySet())
+            for(Map.Entry<Integer, SortedSet<Integer>> amountEntry: coinEntry.getValue().entrySet())
+                for(int slot: amountEntry.getValue())
+                    add(slot, amountEntry.getKey(), coinEntry.getKey());
+    }
+
+    /**
+     * Creates an empty result with buffers for a player inventory, to be filled by
+     * {@link UniversalCoinsServerAPI#scanCoins(IInventory, int, int, ScanResult)}.
+     * {@link #getScannedInventory()} must not be called before it's filled.
+     */
+    public ScanResult()
+    {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Scans a delimited part of an inventory
+     * @see UniversalCoinsServerAPI#scanCoins(IInventory, int, int)
+     */
+    ScanResult(@Nonnull IInventory scannedInventory, int startIndex, int endIndex)
+    {
+        allocate(Math.max(DEFAULT_CAPACITY, endIndex - startIndex));
+        scan(scannedInventory, startIndex, endIndex);
+    }
+
+    /**
+     * Scans a delimited part of an inventory, the buffers are only replaced if they are too small
+     */
+    void scan(@Nonnull IInventory scannedInventory, int startIndex, int endIndex)
+    {
+        this.scannedInventory = scannedInventory;
+        this.startIndex = startIndex;
+        this.endIndex = endIndex;
+        if(slots.length < endIndex - startIndex)
+            allocate(endIndex - startIndex);
+        scan();
+    }
+
+    private void allocate(int capacity)
+    {
+        slots = new int[capacity];
+        stackSizes = new int[capacity];
+        values = new int[capacity];
+    }
+
+    private void add(int slot, int stackSize, int value)
+    {
+        slots[size] = slot;
+        stackSizes[size] = stackSize;
+        values[size] = value;
+        size++;
+    }
+
+    private void scan()
+    {
+        size = 0;
+        distribution = null;
+        int total = 0;
+        for(int i = startIndex; i < endIndex; i++)
+        {
+            ItemStack stack = scannedInventory.getStackInSlot(i);
+            if(stack == null || stack.stackSize <= 0)
+                continue;
+
+            Item item = stack.getItem();
+            if(item instanceof ItemCoin)
+            {
+                int value = ((ItemCoin) item).getValue();
+                int stackSize = stack.stackSize;
+                total += value * stackSize;
+
+                // Insertion sort, the slots are scanned in order so the slot order is kept for the same value and size
+                int index = size++;
+                while (index > 0 && (values[index-1] > value || values[index-1] == value && stackSizes[index-1] > stackSize))
+                {
+                    slots[index] = slots[index-1];
+                    stackSizes[index] = stackSizes[index-1];
+                    values[index] = values[index-1];
+                    index--;
+                }
+
+                slots[index] = i;
+                stackSizes[index] = stackSize;
+                values[index] = value;
+            }
+        }
+
+        coins = total;
+    }
+
+    /**
+     * Scans the same part of the inventory again, reusing this object
+     * @return This object
+     */
+    @Nonnull
+    public ScanResult rescan()
+    {
+        scan(scannedInventory, startIndex, endIndex);
+        return this;
+    }
+
+    /**
+     * @return The amount of coin stacks found
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param index An index between zero and {@link #size()}, the stacks are sorted by coin value, stack size and slot
+     * @return The inventory slot where the stack was found
+     */
+    public int getSlot(int index)
+    {
+        checkIndex(index);
+        return slots[index];
+    }
+
+    /**
+     * @see #getSlot(int)
+     */
+    public int getStackSize(int index)
+    {
+        checkIndex(index);
+        return stackSizes[index];
+    }
+
+    /**
+     * @return The value of a single coin from the stack
+     * @see #getSlot(int)
+     */
+    public int getCoinValue(int index)
+    {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * @return The value of all coins in the stack
+     * @see #getSlot(int)
+     */
+    public int getStackValue(int index)
+    {
+        checkIndex(index);
+        return values[index] * stackSizes[index];
+    }
+
+    private void checkIndex(int index)
+    {
+        if(index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index: "+index+" size: "+size);
     }
 
     @Override
     public Iterator<Map.Entry<Integer, Integer>> iterator()
     {
-        final Iterator<Map.Entry<Integer, SortedMap<Integer, SortedSet<Integer>>>> coinTypeIter = distribution.entrySet().iterator();
         return new Iterator<Map.Entry<Integer, Integer>>()
         {
-            Iterator<Map.Entry<Integer, SortedSet<Integer>>> stackSizeIter;
-            Iterator<Integer> slotIter;
-            int itemValue, stackSize;
+            int index;
 
             @Override
             public boolean hasNext()
             {
-                if(slotIter != null && slotIter.hasNext())
-                    return true;
-
-                do
-                {
-                    while (stackSizeIter != null && stackSizeIter.hasNext())
-                    {
-                        Map.Entry<Integer, SortedSet<Integer>> next = stackSizeIter.next();
-                        stackSize = next.getKey();
-                        slotIter = next.getValue().iterator();
-                        if (slotIter.hasNext())
-                            return true;
-                    }
-
-                    if (!coinTypeIter.hasNext())
-                        return false;
-
-                    Map.Entry<Integer, SortedMap<Integer, SortedSet<Integer>>> nextItem = coinTypeIter.next();
-                    itemValue = nextItem.getKey();
-                    stackSizeIter = nextItem.getValue().entrySet().iterator();
-                } while (true);
+                return index < size;
             }
 
             @Override
@@ -74,7 +221,8 @@ public class ScanResult implements Iterable<Map.Entry<Integer, Integer>>
             {
                 if(!hasNext())
                     throw new NoSuchElementException();
-                return new AbstractMap.SimpleImmutableEntry<>(slotIter.next(), stackSize*itemValue);
+                int current = index++;
+                return new AbstractMap.SimpleImmutableEntry<>(slots[current], stackSizes[current]*values[current]);
             }
 
             @Override
@@ -90,10 +238,27 @@ public class ScanResult implements Iterable<Map.Entry<Integer, Integer>>
         return coins;
     }
 
+    /**
+     * Coin value -&gt; Stack size -&gt; Slots. The map is built on the first call.
+     */
     @Nonnull
     public SortedMap<Integer, SortedMap<Integer, SortedSet<Integer>>> getDistribution()
     {
-        return distribution;
+        SortedMap<Integer, SortedMap<Integer, SortedSet<Integer>>> distribution = this.distribution;
+        if(distribution != null)
+            return distribution;
+
+        TreeMap<Integer, SortedMap<Integer, SortedSet<Integer>>> coinMap = new TreeMap<>();
+        for(int i = 0; i < size; i++)
+        {
+            SortedMap<Integer, SortedSet<Integer>> map = coinMap.get(values[i]);
+            if(map == null) coinMap.put(values[i], map = new TreeMap<>());
+            SortedSet<Integer> set = map.get(stackSizes[i]);
+            if(set == null) map.put(stackSizes[i], set = new TreeSet<>());
+            set.add(slots[i]);
+        }
+
+        return this.distribution = Collections.unmodifiableSortedMap(coinMap);
     }
 
     @Nonnull
@@ -119,7 +284,7 @@ public class ScanResult implements Iterable<Map.Entry<Integer, Integer>>
                 "coins=" + coins +
                 ", startIndex=" + startIndex +
                 ", endIndex=" + endIndex +
-                ", distribution=" + distribution +
+                ", distribution=" + getDistribution() +
                 ", scannedInventory=" + scannedInventory +
                 '}';
     }
@@ -135,16 +300,24 @@ public class ScanResult implements Iterable<Map.Entry<Integer, Integer>>
         if (coins != that.coins) return false;
         if (startIndex != that.startIndex) return false;
         if (endIndex != that.endIndex) return false;
+        if (size != that.size) return false;
         if (!scannedInventory.equals(that.scannedInventory)) return false;
-        return distribution.equals(that.distribution);
-
+        for (int i = 0; i < size; i++)
+            if (slots[i] != that.slots[i] || stackSizes[i] != that.stackSizes[i] || values[i] != that.values[i])
+                return false;
+        return true;
     }
 
     @Override
     public int hashCode()
     {
         int result = scannedInventory.hashCode();
-        result = 31 * result + distribution.hashCode();
+        for (int i = 0; i < size; i++)
+        {
+            result = 31 * result + slots[i];
+            result = 31 * result + stackSizes[i];
+            result = 31 * result + values[i];
+        }
         result = 31 * result + coins;
         result = 31 * result + startIndex;
         result = 31 * result + endIndex;
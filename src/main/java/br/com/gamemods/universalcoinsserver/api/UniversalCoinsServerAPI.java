@@ -24,6 +24,18 @@ public class UniversalCoinsServerAPI
 {
     public static final Random random = new Random();
 
+    /**
+     * Scan buffers used by the methods that scan and then move coins without exposing the scan result
+     */
+    private static final ThreadLocal<ScanResult> scratch = new ThreadLocal<ScanResult>()
+    {
+        @Override
+        protected ScanResult initialValue()
+        {
+            return new ScanResult();
+        }
+    };
+
     /**
      * Retrieves the account number from an object doing any necessary casting.
      * @param account An instance of {@link AccountAddress}, {@link String}, {@link ItemStack}
@@ -64,33 +76,30 @@ public class UniversalCoinsServerAPI
     @Nonnull
     public static ScanResult scanCoins(@Nonnull IInventory inventory, int startIndex, int endIndex)
             throws NullPointerException, IndexOutOfBoundsException
+    {
+        return scanCoins(inventory, startIndex, endIndex, null);
+    }
+
+    /**
+     * Scans a delimited part of an inventory filling an existing result, so its buffers are reused and the scan
+     * doesn't allocate when the result was already used for a part of the same size or bigger
+     * @param reuse The result that will be filled or {@code null} to create a new one
+     * @return The filled result
+     * @throws IndexOutOfBoundsException if {@code startIndex < 0 || startIndex > endIndex}
+     */
+    @Nonnull
+    public static ScanResult scanCoins(@Nonnull IInventory inventory, int startIndex, int endIndex,
+                                       @Nullable ScanResult reuse)
+            throws NullPointerException, IndexOutOfBoundsException
     {
         if(startIndex < 0) throw new IndexOutOfBoundsException("startIndex < 0: "+startIndex);
         else if(startIndex > endIndex) throw new IndexOutOfBoundsException("startIndex > endIndex: start:"+startIndex+" end:"+endIndex);
 
-        TreeMap<Integer, SortedMap<Integer, SortedSet<Integer>>> coinMap = new TreeMap<>();
-        int total = 0;
-        for(int i = startIndex; i < endIndex; i++)
-        {
-            ItemStack stack = inventory.getStackInSlot(i);
-            if(stack == null || stack.stackSize <= 0)
-                continue;
-
-            Item item = stack.getItem();
-            if(item instanceof ItemCoin)
-            {
-                int value = ((ItemCoin) item).getValue();
-                SortedMap<Integer, SortedSet<Integer>> map = coinMap.get(value);
-                if(map == null) coinMap.put(value, map = new TreeMap<>());
-                SortedSet<Integer> set = map.get(stack.stackSize);
-                if(set == null) set = new TreeSet<>();
-                set.add(i);
-                map.put(stack.stackSize, set);
-                total += value * stack.stackSize;
-            }
-        }
+        if(reuse == null)
+            return new ScanResult(inventory, startIndex, endIndex);
 
-        return new ScanResult(inventory, coinMap, total, startIndex, endIndex);
+        reuse.scan(inventory, startIndex, endIndex);
+        return reuse;
     }
 
     /**
@@ -119,7 +128,7 @@ public class UniversalCoinsServerAPI
     public static int takeCoins(@Nonnull IInventory inventory, int coins, int startIndex, int endIndex)
         throws IllegalArgumentException, NullPointerException, IndexOutOfBoundsException
     {
-        return takeCoins(scanCoins(inventory, startIndex, endIndex), coins);
+        return takeCoins(scanCoins(inventory, startIndex, endIndex, scratch.get()), coins);
     }
 
     /**
@@ -145,59 +154,66 @@ public class UniversalCoinsServerAPI
         if(coins == 0) return 0;
         else if(coins < 0) throw new IllegalArgumentException("coins < 0: "+coins);
 
-        for(Map.Entry<Integer, SortedMap<Integer, SortedSet<Integer>>> coinEntry: scanResult.getDistribution().entrySet())
+        int change;
+        try
+        {
+            change = takeScannedCoins(scanResult, coins);
+        }
+        catch (ConcurrentModificationException e)
+        {
+            CoinTally.invalidate(inventory);
+            throw e;
+        }
+
+        CoinTally.update(inventory, change - coins);
+        return change;
+    }
+
+    private static int takeScannedCoins(@Nonnull ScanResult scanResult, int coins)
+            throws ConcurrentModificationException
+    {
+        IInventory inventory = scanResult.getScannedInventory();
+        int size = scanResult.size();
+        for(int i = 0; i < size; i++)
         {
-            int value = coinEntry.getKey();
-            for(Map.Entry<Integer, SortedSet<Integer>> amountEntry: coinEntry.getValue().entrySet())
+            int value = scanResult.getCoinValue(i);
+            int amount = scanResult.getStackSize(i);
+            int slot = scanResult.getSlot(i);
+            ItemStack stack = inventory.getStackInSlot(slot);
+            Item item;
+            if(stack == null || !((item=stack.getItem()) instanceof ItemCoin) || ((ItemCoin)item).getValue() != value
+                || stack.stackSize != amount)
+                throw new ConcurrentModificationException();
+
+            int amountToTake = Math.min((coins / value)+1, amount);
+            if(amountToTake > 0)
             {
-                int amount = amountEntry.getKey();
-                for(int slot: amountEntry.getValue())
-                {
-                    ItemStack stack = inventory.getStackInSlot(slot);
-                    Item item;
-                    if(stack == null || !((item=stack.getItem()) instanceof ItemCoin) || ((ItemCoin)item).getValue() != value
-                        || stack.stackSize != amount)
-                        throw new ConcurrentModificationException();
-
-                    int amountToTake = Math.min((coins / value)+1, amount);
-                    if(amountToTake > 0)
-                    {
-                        stack.stackSize -= amountToTake;
-                        coins -= amountToTake * value;
-                        if(stack.stackSize == 0)
-                            stack = null;
-                        inventory.setInventorySlotContents(slot, stack);
-
-                        if(coins <= 0)
-                            return coins;
-                    }
-                }
+                stack.stackSize -= amountToTake;
+                coins -= amountToTake * value;
+                if(stack.stackSize == 0)
+                    stack = null;
+                inventory.setInventorySlotContents(slot, stack);
+
+                if(coins <= 0)
+                    return coins;
             }
         }
 
         if(coins > 0)
         {
-            for(Map.Entry<Integer, SortedMap<Integer, SortedSet<Integer>>> coinEntry: scanResult.getDistribution().entrySet())
+            for(int i = 0; i < size; i++)
             {
-                int value = coinEntry.getKey();
-                for (Map.Entry<Integer, SortedSet<Integer>> amountEntry : coinEntry.getValue().entrySet())
+                ItemStack stack = inventory.getStackInSlot(scanResult.getSlot(i));
+                if(stack != null && stack.getItem() instanceof ItemCoin)
                 {
-                    int amount = amountEntry.getKey();
-                    for (int slot : amountEntry.getValue())
+                    int value = ((ItemCoin)stack.getItem()).getValue();
+                    while (coins > 0 && stack.stackSize > 0)
                     {
-                        ItemStack stack = inventory.getStackInSlot(slot);
-                        if(stack != null && stack.getItem() instanceof ItemCoin)
-                        {
-                            value = ((ItemCoin)stack.getItem()).getValue();
-                            while (coins > 0 && stack.stackSize > 0)
-                            {
-                                stack.stackSize--;
-                                coins -= value;
-                            }
-                            if(coins <= 0)
-                                return coins;
-                        }
+                        stack.stackSize--;
+                        coins -= value;
                     }
+                    if(coins <= 0)
+                        return coins;
                 }
             }
         }
@@ -227,7 +243,7 @@ public class UniversalCoinsServerAPI
     public static int addCoins(@Nonnull IInventory inventory, int coins, int startIndex, int endIndex)
             throws IllegalArgumentException, NullPointerException, IndexOutOfBoundsException
     {
-        return addCoins(scanCoins(inventory, startIndex, endIndex), coins);
+        return addCoins(scanCoins(inventory, startIndex, endIndex, scratch.get()), coins);
     }
 
     /**
@@ -251,65 +267,59 @@ public class UniversalCoinsServerAPI
         if(coins == 0) return 0;
         else if(coins < 0) throw new IllegalArgumentException("coins < 0: "+coins);
 
-        TreeMap<Integer, SortedMap<Integer, SortedSet<Integer>>> reverseCoins = new  TreeMap<>(Collections.reverseOrder());
-        reverseCoins.putAll(scanResult.getDistribution());
+        int change = addToScannedSlots(scanResult, coins);
+        CoinTally.update(inventory, coins - change);
+
+        if(change > 0)
+            return addCoinsAnywhere(inventory, change, scanResult.getStartIndex(), scanResult.getEndIndex());
+
+        return change;
+    }
 
+    private static int addToScannedSlots(@Nonnull ScanResult scanResult, int coins)
+    {
+        IInventory inventory = scanResult.getScannedInventory();
         int inventoryStackLimit = inventory.getInventoryStackLimit();
 
-        for(Map.Entry<Integer, SortedMap<Integer, SortedSet<Integer>>> coinEntry: reverseCoins.entrySet())
+        for(int i = scanResult.size() - 1; i >= 0; i--)
         {
-            int value = coinEntry.getKey();
-            TreeMap<Integer, SortedSet<Integer>> reverseAmounts = new TreeMap<>(Collections.reverseOrder());
-            reverseAmounts.putAll(coinEntry.getValue());
-
-            for(Map.Entry<Integer, SortedSet<Integer>> amountEntry: reverseAmounts.entrySet())
+            int slot = scanResult.getSlot(i);
+            ItemStack stack = inventory.getStackInSlot(slot);
+            Item item;
+            if(stack == null || stack.stackSize <= 0)
             {
-                SortedSet<Integer> reverseSlots = new TreeSet<>(Collections.reverseOrder());
-                reverseSlots.addAll(amountEntry.getValue());
-
-                for(int slot: reverseSlots)
+                stack  = createBestStack(coins);
+                if(inventory.isItemValidForSlot(slot, stack))
                 {
-                    ItemStack stack = inventory.getStackInSlot(slot);
-                    Item item;
-                    if(stack == null || stack.stackSize <= 0)
-                    {
-                        stack  = createBestStack(coins);
-                        if(inventory.isItemValidForSlot(slot, stack))
-                        {
-                            inventory.setInventorySlotContents(slot, stack);
-                            coins -= stackValue(stack);
-                            if(coins <= 0)
-                                return coins;
-                        }
-
-                        continue;
-                    }
-                    if(!((item=stack.getItem()) instanceof ItemCoin) || !inventory.isItemValidForSlot(slot, stack))
-                        continue;
+                    inventory.setInventorySlotContents(slot, stack);
+                    coins -= stackValue(stack);
+                    if(coins <= 0)
+                        return coins;
+                }
+
+                continue;
+            }
+            if(!((item=stack.getItem()) instanceof ItemCoin) || !inventory.isItemValidForSlot(slot, stack))
+                continue;
 
-                    value = ((ItemCoin) item).getValue();
+            int value = ((ItemCoin) item).getValue();
 
-                    int amountToGive = Math.min(
-                            Math.min( coins / value, stack.getMaxStackSize() - stack.stackSize ),
-                                            inventoryStackLimit - stack.stackSize
-                    );
+            int amountToGive = Math.min(
+                    Math.min( coins / value, stack.getMaxStackSize() - stack.stackSize ),
+                                    inventoryStackLimit - stack.stackSize
+            );
 
-                    if(amountToGive > 0)
-                    {
-                        stack.stackSize += amountToGive;
-                        coins -= amountToGive * value;
-                        inventory.setInventorySlotContents(slot, stack);
+            if(amountToGive > 0)
+            {
+                stack.stackSize += amountToGive;
+                coins -= amountToGive * value;
+                inventory.setInventorySlotContents(slot, stack);
 
-                        if(coins <= 0)
-                            return coins;
-                    }
-                }
+                if(coins <= 0)
+                    return coins;
             }
         }
 
-        if(coins > 0)
-            return addCoinsAnywhere(inventory, coins, scanResult.getStartIndex(), scanResult.getEndIndex());
-
         return coins;
     }
 
@@ -366,45 +376,13 @@ public class UniversalCoinsServerAPI
         else if(startIndex < 0) throw new IndexOutOfBoundsException("startIndex < 0: "+startIndex);
         else if(startIndex > endIndex) throw new IndexOutOfBoundsException("startIndex > endIndex: start:"+startIndex+" end:"+endIndex);
 
-        int inventoryStackLimit = inventory.getInventoryStackLimit();
-
-        for(int slot = startIndex; slot < endIndex; slot++)
-        {
-            ItemStack stack = inventory.getStackInSlot(slot);
-            if(stack == null)
-            {
-                stack = createBestStack(coins);
-                if(inventory.isItemValidForSlot(slot, stack))
-                {
-                    inventory.setInventorySlotContents(slot, stack);
-                    coins -= stackValue(stack);
-                }
-            }
-            else
-            {
-                Item item = stack.getItem();
-                int maxStackSize = stack.getMaxStackSize();
-                if(!(item instanceof ItemCoin) || stack.stackSize >= maxStackSize || !inventory.isItemValidForSlot(slot, stack))
-                    continue;
-
-                int value = ((ItemCoin) item).getValue();
-                int amountToAdd = Math.min(Math.min(coins / value, maxStackSize - stack.stackSize), inventoryStackLimit - stack.stackSize);
-                if(amountToAdd > 0)
-                {
-                    stack.stackSize += amountToAdd;
-                    inventory.setInventorySlotContents(slot, stack);
-                    coins -= amountToAdd * value;
-                }
-            }
-
-            if(coins <= 0)
-                return coins;
-        }
+        int change = CoinDenominations.addCoins(inventory, coins, startIndex, endIndex);
+        CoinTally.update(inventory, coins - change);
 
-        if(coins <= 0)
-            return coins;
+        if(change <= 0)
+            return change;
 
-        return callRebalance? rebalance(inventory, coins, startIndex, endIndex) : coins;
+        return callRebalance? rebalance(inventory, change, startIndex, endIndex) : change;
     }
 
     /**
@@ -439,6 +417,9 @@ public class UniversalCoinsServerAPI
 
     /**
      * Attempts to reduce the inventory space used by the coins.
+     * <p>
+     * The inventory is read once and only the slots that change are set, see
+     * {@link CoinDenominations#rebalance(IInventory, long, int, int)}
      * @param startingBalance The amount of coins that the counter will start, this can be useful to return change on a full inventory
      */
     public static int rebalance(@Nonnull IInventory inventory, int startingBalance, int startIndex, int endIndex)
@@ -447,73 +428,9 @@ public class UniversalCoinsServerAPI
         if(startIndex < 0) throw new IndexOutOfBoundsException("startIndex < 0: "+startIndex);
         else if(startIndex > endIndex) throw new IndexOutOfBoundsException("startIndex > endIndex: start:"+startIndex+" end:"+endIndex);
 
-        long balance = startingBalance;
-        for(int slot = startIndex; slot < endIndex; slot++)
-        {
-            ItemStack stack = inventory.getStackInSlot(slot);
-            Item item = stack == null? null : stack.getItem();
-            if(item instanceof ItemCoin && inventory.isItemValidForSlot(slot, stack) && stack.stackSize > 0)
-            {
-                int stackValue = ((ItemCoin) item).getValue() * stack.stackSize;
-                long sum;
-                if((sum=balance + stackValue) <= Integer.MAX_VALUE)
-                {
-                    inventory.setInventorySlotContents(slot, null);
-                    balance = sum;
-                }
-            }
-        }
-
-        /*
-        while (balance > 0)
-        {
-            // use logarithm to find largest cointype for coins being sent
-            int logVal = Math.min((int) (Math.log(balance) / Math.log(9)), 4);
-            int stackSize = Math.min((int) (balance / Math.pow(9, logVal)), 64);
-            // add a stack to the recipients inventory
-            int firstEmptyStack = -1;
-            int size = inventory.getSizeInventory();
-            for(int i = 0; i< size; i++)
-            {
-                ItemStack stack = inventory.getStackInSlot(i);
-                if(stack == null || stack.stackSize <= 0)
-                {
-                    firstEmptyStack = i;
-                    break;
-                }
-            }
-
-            if (firstEmptyStack != -1)
-            {
-                inventory.setInventorySlotContents(firstEmptyStack,  new ItemStack(UniversalCoinsServer.proxy.coins[logVal], stackSize));
-                balance -= (stackSize * Math.pow(9, logVal));
-            }
-            else
-            {
-                for (int i = 0; i < size; i++)
-                {
-                    ItemStack stack = inventory.getStackInSlot(i);
-                    for (int j = 0; j < UniversalCoinsServer.proxy.coins.length; j++)
-                    {
-                        if (stack != null && stack.getItem() == UniversalCoinsServer.proxy.coins[j])
-                        {
-                            int amountToAdd = (int) Math.min(balance / Math.pow(9, j),
-                                    stack.getMaxStackSize() - stack.stackSize);
-                            stack.stackSize += amountToAdd;
-                            inventory.setInventorySlotContents(i, stack);
-                            balance -= (amountToAdd * Math.pow(9, j));
-                        }
-                    }
-                }
-                break;
-            }
-        }
-        */
-
-        if(balance <= 0)
-            return (int) balance;
-
-        return addCoinsAnywhere(inventory, (int) Math.min(balance, Integer.MAX_VALUE), startIndex, endIndex, false);
+        long change = CoinDenominations.rebalance(inventory, startingBalance, startIndex, endIndex);
+        CoinTally.update(inventory, (int) (startingBalance - change));
+        return (int) change;
     }
 
     /**
@@ -664,56 +581,21 @@ public class UniversalCoinsServerAPI
         return value;
     }
 
+    /**
+     * @see CoinDenominations#createStacks(int)
+     */
     public static List<ItemStack> createStacks(int coins)
     {
-        ArrayList<ItemStack> stacks = new ArrayList<>();
-        while (coins > 0)
-        {
-            ItemStack bestStack = createBestStack(coins);
-            stacks.add(bestStack);
-            coins -= stackValue(bestStack);
-        }
-        return stacks;
+        return CoinDenominations.createStacks(coins);
     }
 
+    /**
+     * @see CoinDenominations#createBestStack(int)
+     */
     @Nonnull
     public static ItemStack createBestStack(int coins)
     {
-        //TODO Use logarithm?
-        ItemCoin lastItem = UniversalCoinsServer.proxy.itemCoin;
-        /*
-        for(ItemCoin item: UniversalCoinsServer.proxy.coins)
-        {
-            lastItem = item;
-            if(coins < item.getValue()*9)
-                break;
-        }
-        */
-        ItemCoin[] coinDegree = UniversalCoinsServer.proxy.coins;
-        int length = coinDegree.length;
-        for(int i = length-1; i >= 0; i--)
-        {
-            ItemCoin coin = coinDegree[i];
-            if(coin.getValue() <= coins)
-            {
-                lastItem = coin;
-                if(lastItem != UniversalCoinsServer.proxy.itemCoin)
-                {
-                    ItemCoin nextItem = coinDegree[i-1];
-                    if(lastItem.getValue() * Math.min(coins / lastItem.getValue(), lastItem.getItemStackLimit())
-                            > nextItem.getValue() * Math.min(coins / nextItem.getValue(), nextItem.getItemStackLimit()))
-                        break;
-                    else
-                        continue;
-                }
-                break;
-            }
-        }
-
-        ItemStack stack = new ItemStack(lastItem, coins / lastItem.getValue());
-        if(stack.stackSize > stack.getMaxStackSize())
-            stack.stackSize = stack.getMaxStackSize();
-        return stack;
+        return CoinDenominations.createBestStack(coins);
     }
 
     @Nullable
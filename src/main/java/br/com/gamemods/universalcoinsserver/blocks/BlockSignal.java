@@ -65,7 +65,7 @@ public class BlockSignal extends BlockOwned
             return super.dropToStack(world, x, y, z, fortune);
         TileSignal signal = (TileSignal) tileEntity;
 
-        boolean empty = signal.coins == 0 && signal.ticks <= 0 && signal.fee == 1 && signal.duration == 1;
+        boolean empty = signal.coins == 0 && signal.getTicksLeft() <= 0 && signal.fee == 1 && signal.duration == 1;
         if(empty)
         {
             int size = signal.getSizeInventory();
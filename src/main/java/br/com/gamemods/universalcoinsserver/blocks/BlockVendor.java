@@ -3,6 +3,7 @@ package br.com.gamemods.universalcoinsserver.blocks;
 import br.com.gamemods.universalcoinsserver.GuiHandler;
 import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
 import br.com.gamemods.universalcoinsserver.api.UniversalCoinsServerAPI;
+import br.com.gamemods.universalcoinsserver.datastore.MachineStats;
 import br.com.gamemods.universalcoinsserver.tile.TileVendor;
 import net.minecraft.block.material.Material;
 import net.minecraft.creativetab.CreativeTabs;
@@ -13,10 +14,17 @@ import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.ChatComponentText;
 import net.minecraft.util.ChatComponentTranslation;
+import net.minecraft.util.ChatStyle;
+import net.minecraft.util.EnumChatFormatting;
+import net.minecraft.util.StatCollector;
 import net.minecraft.world.World;
 
+import java.text.DateFormat;
+import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Date;
 
 public class BlockVendor extends BlockOwned
 {
@@ -91,9 +99,33 @@ public class BlockVendor extends BlockOwned
             tile.scheduleUpdate();
         }
 
+        if(open == GuiHandler.GUI_VENDOR_WRENCH && player.getPersistentID().equals(tile.owner))
+            sendStats(player, tile);
+
         return true;
     }
 
+    private void sendStats(EntityPlayer player, TileVendor tile)
+    {
+        ChatStyle style = new ChatStyle().setColor(EnumChatFormatting.GRAY);
+        MachineStats.Counters stats = MachineStats.instance.get(tile.getMachineId());
+        if(stats == null)
+        {
+            player.addChatMessage(new ChatComponentText(StatCollector.translateToLocal("vendor.stats.none"))
+                    .setChatStyle(style));
+            return;
+        }
+
+        NumberFormat format = NumberFormat.getIntegerInstance();
+        player.addChatMessage(new ChatComponentText(StatCollector.translateToLocalFormatted("vendor.stats.transactions",
+                format.format(stats.getTransactions()),
+                DateFormat.getDateTimeInstance().format(new Date(stats.getLastTime())))).setChatStyle(style));
+        player.addChatMessage(new ChatComponentText(StatCollector.translateToLocalFormatted("vendor.stats.sold",
+                format.format(stats.getUnitsSold()), format.format(stats.getCoinsIn()))).setChatStyle(style));
+        player.addChatMessage(new ChatComponentText(StatCollector.translateToLocalFormatted("vendor.stats.bought",
+                format.format(stats.getUnitsBought()), format.format(stats.getCoinsOut()))).setChatStyle(style));
+    }
+
     @Override
     public float getNormalHardness()
     {
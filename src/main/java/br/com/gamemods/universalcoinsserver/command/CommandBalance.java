@@ -1,7 +1,7 @@
 package br.com.gamemods.universalcoinsserver.command;
 
 import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
-import br.com.gamemods.universalcoinsserver.api.UniversalCoinsServerAPI;
+import br.com.gamemods.universalcoinsserver.api.CoinTally;
 import br.com.gamemods.universalcoinsserver.datastore.AccountAddress;
 import br.com.gamemods.universalcoinsserver.datastore.AccountNotFoundException;
 import br.com.gamemods.universalcoinsserver.datastore.DataStoreException;
@@ -57,7 +57,7 @@ public class CommandBalance extends CommandBase
     public void processCommand(ICommandSender sender, String[] args)
     {
         EntityPlayer player = (EntityPlayer) sender;
-        int playerCoins = UniversalCoinsServerAPI.scanCoins(player.inventory).getCoins();
+        int playerCoins = CoinTally.getCoins(player);
 
         int primaryBalance = -1, secondaryBalance = -1;
 
@@ -0,0 +1,123 @@
+package br.com.gamemods.universalcoinsserver.command;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import br.com.gamemods.universalcoinsserver.datastore.CardDataBase;
+import br.com.gamemods.universalcoinsserver.datastore.InstrumentedDataBase;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.util.ChatComponentText;
+import net.minecraft.util.ChatStyle;
+import net.minecraft.util.EnumChatFormatting;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class CommandDataBaseStats extends CommandBase
+{
+    final String name;
+    final List aliases;
+
+    public CommandDataBaseStats(String commandDataBaseStats)
+    {
+        String[] split = commandDataBaseStats.split("\\s*,\\s*");
+        this.name = split[0].trim();
+        if(name.isEmpty()) throw new IllegalArgumentException();
+        aliases = Arrays.asList(Arrays.copyOfRange(split, 1, split.length));
+    }
+
+    @Override
+    public String getCommandName()
+    {
+        return name;
+    }
+
+    @Override
+    public List getCommandAliases()
+    {
+        return aliases;
+    }
+
+    @Override
+    public String getCommandUsage(ICommandSender p_71518_1_)
+    {
+        return "/"+name+" [on|off|reset|callers <method>] : Shows the database calls stats";
+    }
+
+    @Override
+    public List addTabCompletionOptions(ICommandSender sender, String[] args)
+    {
+        return args.length == 1? getListOfStringsMatchingLastWord(args, "on", "off", "reset", "callers") : null;
+    }
+
+    @Override
+    public void processCommand(ICommandSender sender, String[] args)
+    {
+        CardDataBase cardDb = UniversalCoinsServer.cardDb;
+        if(!(cardDb instanceof InstrumentedDataBase))
+        {
+            sender.addChatMessage(new ChatComponentText("The database stats are not available")
+                    .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
+            return;
+        }
+
+        InstrumentedDataBase stats = (InstrumentedDataBase) cardDb;
+        if(args.length == 1 && args[0].equalsIgnoreCase("on"))
+        {
+            stats.setEnabled(true);
+            sender.addChatMessage(new ChatComponentText("Database stats enabled"));
+            return;
+        }
+        else if(args.length == 1 && args[0].equalsIgnoreCase("off"))
+        {
+            stats.setEnabled(false);
+            sender.addChatMessage(new ChatComponentText("Database stats disabled"));
+            return;
+        }
+        else if(args.length == 1 && args[0].equalsIgnoreCase("reset"))
+        {
+            stats.reset();
+            sender.addChatMessage(new ChatComponentText("Database stats cleared"));
+            return;
+        }
+        else if(args.length == 2 && args[0].equalsIgnoreCase("callers"))
+        {
+            InstrumentedDataBase.MethodStats method = stats.getStats(args[1]);
+            if(method == null)
+            {
+                sender.addChatMessage(new ChatComponentText("Unknown method: "+args[1])
+                        .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
+                return;
+            }
+
+            List<Map.Entry<String, Long>> callers = method.getCallers();
+            sender.addChatMessage(new ChatComponentText(method.getName()+" callers:").setChatStyle(new ChatStyle().setColor(EnumChatFormatting.GOLD)));
+            if(callers.isEmpty())
+                sender.addChatMessage(new ChatComponentText(stats.isTrackingCallers()? "No calls recorded" : "Caller tracking is disabled"));
+            for(Map.Entry<String, Long> entry: callers)
+                sender.addChatMessage(new ChatComponentText(entry.getKey()+": "+entry.getValue()));
+            return;
+        }
+        else if(args.length != 0)
+        {
+            sender.addChatMessage(new ChatComponentText(getCommandUsage(sender))
+                    .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
+            return;
+        }
+
+        if(!stats.isEnabled())
+            sender.addChatMessage(new ChatComponentText("Database stats are disabled, use /"+name+" on to enable them")
+                    .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.YELLOW)));
+
+        List<InstrumentedDataBase.MethodStats> methods = stats.getStats();
+        if(methods.isEmpty())
+        {
+            sender.addChatMessage(new ChatComponentText("No calls recorded"));
+            return;
+        }
+
+        for(InstrumentedDataBase.MethodStats method: methods)
+            sender.addChatMessage(new ChatComponentText(method.toString())
+                    .setChatStyle(new ChatStyle().setColor(method.getErrors() > 0? EnumChatFormatting.RED : EnumChatFormatting.GRAY)));
+    }
+}
@@ -0,0 +1,129 @@
+package br.com.gamemods.universalcoinsserver.command;
+
+import br.com.gamemods.universalcoinsserver.tile.MarketIndex;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.util.ChatComponentText;
+import net.minecraft.util.ChatStyle;
+import net.minecraft.util.EnumChatFormatting;
+import net.minecraft.util.StatCollector;
+import net.minecraftforge.oredict.OreDictionary;
+
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Searches the vendor offers on the {@link MarketIndex}, the vendors on unloaded chunks are included and no chunk is
+ * loaded by the search.
+ */
+public class CommandMarket extends CommandBase
+{
+    private static final int RESULTS = 10;
+
+    final String name;
+    final List aliases;
+
+    public CommandMarket(String commandMarket)
+    {
+        String[] split = commandMarket.split("\\s*,\\s*");
+        this.name = split[0].trim();
+        if(name.isEmpty()) throw new IllegalArgumentException();
+        aliases = Arrays.asList(Arrays.copyOfRange(split, 1, split.length));
+    }
+
+    @Override
+    public String getCommandName()
+    {
+        return name;
+    }
+
+    @Override
+    public List getCommandAliases()
+    {
+        return aliases;
+    }
+
+    @Override
+    public boolean canCommandSenderUseCommand(ICommandSender sender)
+    {
+        return true;
+    }
+
+    @Override
+    public String getCommandUsage(ICommandSender p_71518_1_)
+    {
+        return StatCollector.translateToLocalFormatted("command.market.help", name);
+    }
+
+    @Override
+    public List addTabCompletionOptions(ICommandSender sender, String[] args)
+    {
+        if(args.length == 1)
+            return getListOfStringsFromIterableMatchingLastWord(args, MarketIndex.instance.getItems());
+        if(args.length == 2 || args.length == 3 && isDamage(args[1]))
+            return getListOfStringsMatchingLastWord(args, "buying");
+        return null;
+    }
+
+    @Override
+    public void processCommand(ICommandSender sender, String[] args)
+    {
+        int damage = args.length >= 2 && isDamage(args[1])? Integer.parseInt(args[1]) : OreDictionary.WILDCARD_VALUE;
+        int flag = damage == OreDictionary.WILDCARD_VALUE? 1 : 2;
+        if(args.length < 1 || args.length > flag + 1
+                || args.length == flag + 1 && !args[flag].equalsIgnoreCase("buying"))
+        {
+            sender.addChatMessage(new ChatComponentText(getCommandUsage(sender))
+                    .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
+            return;
+        }
+
+        String item = args[0].indexOf(':') < 0? "minecraft:"+args[0] : args[0];
+        String label = damage == OreDictionary.WILDCARD_VALUE? item : item+" ("+damage+")";
+        boolean sellToUser = args.length == flag;
+        List<MarketIndex.Offer> offers = MarketIndex.instance.find(item, damage, sellToUser, RESULTS);
+        if(offers.isEmpty())
+        {
+            sender.addChatMessage(new ChatComponentText(StatCollector.translateToLocalFormatted(
+                    sellToUser? "command.market.result.none.selling" : "command.market.result.none.buying", label))
+                    .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.YELLOW)));
+            return;
+        }
+
+        NumberFormat format = NumberFormat.getIntegerInstance();
+        sender.addChatMessage(new ChatComponentText(StatCollector.translateToLocalFormatted(
+                sellToUser? "command.market.result.selling" : "command.market.result.buying", label))
+                .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.GOLD)));
+        for(MarketIndex.Offer offer: offers)
+        {
+            StringBuilder sb = new StringBuilder().append(offer.getQuantity()).append("x");
+            if(offer.getDamage() != 0)
+                sb.append(" (").append(offer.getDamage()).append(')');
+            if(offer.hasTag())
+                sb.append(' ').append(StatCollector.translateToLocal("command.market.result.nbt"));
+            sb.append(' ').append(StatCollector.translateToLocalFormatted("command.market.result.price",
+                    format.format(offer.getPrice())));
+            if(offer.getOwnerName() != null && !offer.getOwnerName().isEmpty())
+                sb.append(' ').append(StatCollector.translateToLocalFormatted("command.market.result.owner",
+                        offer.getOwnerName()));
+            sb.append(' ').append(StatCollector.translateToLocalFormatted("command.market.result.position",
+                    offer.getX(), offer.getY(), offer.getZ(), offer.getDim()));
+            if(offer.isInfinite())
+                sb.append(' ').append(StatCollector.translateToLocal("command.market.result.infinite"));
+
+            sender.addChatMessage(new ChatComponentText(sb.toString())
+                    .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.GRAY)));
+        }
+    }
+
+    private static boolean isDamage(String arg)
+    {
+        if(arg.isEmpty() || arg.length() > 5)
+            return false;
+        for(int i = 0; i < arg.length(); i++)
+            if(!Character.isDigit(arg.charAt(i)))
+                return false;
+        return Integer.parseInt(arg) < OreDictionary.WILDCARD_VALUE;
+    }
+}
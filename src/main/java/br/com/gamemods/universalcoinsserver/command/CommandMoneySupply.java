@@ -0,0 +1,98 @@
+package br.com.gamemods.universalcoinsserver.command;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import br.com.gamemods.universalcoinsserver.datastore.DataStoreException;
+import br.com.gamemods.universalcoinsserver.datastore.MoneySupply;
+import br.com.gamemods.universalcoinsserver.datastore.Transaction;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.util.ChatComponentText;
+import net.minecraft.util.ChatStyle;
+import net.minecraft.util.EnumChatFormatting;
+
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.List;
+
+public class CommandMoneySupply extends CommandBase
+{
+    final String name;
+    final List aliases;
+
+    public CommandMoneySupply(String commandMoneySupply)
+    {
+        String[] split = commandMoneySupply.split("\\s*,\\s*");
+        this.name = split[0].trim();
+        if(name.isEmpty()) throw new IllegalArgumentException();
+        aliases = Arrays.asList(Arrays.copyOfRange(split, 1, split.length));
+    }
+
+    @Override
+    public String getCommandName()
+    {
+        return name;
+    }
+
+    @Override
+    public List getCommandAliases()
+    {
+        return aliases;
+    }
+
+    @Override
+    public String getCommandUsage(ICommandSender p_71518_1_)
+    {
+        return "/"+name+" [recount] : Shows the coins held in accounts and the coin flow of each transaction type";
+    }
+
+    @Override
+    public List addTabCompletionOptions(ICommandSender sender, String[] args)
+    {
+        return args.length == 1? getListOfStringsMatchingLastWord(args, "recount") : null;
+    }
+
+    @Override
+    public void processCommand(ICommandSender sender, String[] args)
+    {
+        MoneySupply supply = MoneySupply.instance;
+        if(args.length == 1 && args[0].equalsIgnoreCase("recount"))
+        {
+            try
+            {
+                supply.recount();
+            }
+            catch (DataStoreException e)
+            {
+                UniversalCoinsServer.logger.error("Failed to recount the money supply", e);
+                sender.addChatMessage(new ChatComponentText("Failed to recount the account balances, check the server log")
+                        .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
+                return;
+            }
+        }
+        else if(args.length != 0)
+        {
+            sender.addChatMessage(new ChatComponentText(getCommandUsage(sender))
+                    .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
+            return;
+        }
+
+        NumberFormat format = NumberFormat.getIntegerInstance();
+        sender.addChatMessage(new ChatComponentText("Coins held in accounts: "+format.format(supply.getAccountsTotal())));
+
+        for(Transaction.Operation operation: Transaction.Operation.values())
+        {
+            long transactions = supply.getTransactions(operation);
+            if(transactions == 0)
+                continue;
+
+            long net = supply.getNetFlow(operation);
+            sender.addChatMessage(new ChatComponentText(operation.name()+": "
+                    + format.format(transactions)+" transactions, "
+                    + format.format(supply.getCredited(operation))+" credited, "
+                    + format.format(supply.getDebited(operation))+" debited, net "
+                    + (net > 0? "+" : "") + format.format(net))
+                    .setChatStyle(new ChatStyle().setColor(net > 0? EnumChatFormatting.GREEN : net < 0? EnumChatFormatting.RED : EnumChatFormatting.GRAY))
+            );
+        }
+    }
+}
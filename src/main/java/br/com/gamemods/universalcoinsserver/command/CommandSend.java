@@ -1,5 +1,6 @@
 package br.com.gamemods.universalcoinsserver.command;
 
+import br.com.gamemods.universalcoinsserver.api.CoinTally;
 import br.com.gamemods.universalcoinsserver.api.ScanResult;
 import br.com.gamemods.universalcoinsserver.api.UniversalCoinsServerAPI;
 import net.minecraft.command.CommandBase;
@@ -94,13 +95,14 @@ public class CommandSend extends CommandBase
             return;
         }
 
-        ScanResult scanResult = UniversalCoinsServerAPI.scanCoins(sender.inventory);
-        if(scanResult.getCoins() < amount)
+        if(CoinTally.getCoins(sender) < amount)
         {
             sender.addChatComponentMessage(new ChatComponentTranslation("command.send.error.insufficient").setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
             return;
         }
 
+        ScanResult scanResult = UniversalCoinsServerAPI.scanCoins(sender.inventory);
+
         UniversalCoinsServerAPI.takeCoinsReturningChange(scanResult, amount, sender, 3);
         UniversalCoinsServerAPI.giveCoins(receiver, amount, 3);
 
@@ -0,0 +1,230 @@
+package br.com.gamemods.universalcoinsserver.command;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import br.com.gamemods.universalcoinsserver.datastore.*;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.item.ItemStack;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.ChatComponentText;
+import net.minecraft.util.ChatStyle;
+import net.minecraft.util.EnumChatFormatting;
+import net.minecraft.util.IChatComponent;
+import net.minecraft.util.StatCollector;
+
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Pages through the recorded transactions filtered by account, machine, player and time.
+ * <p>
+ * Only one page is loaded per command, the query of the next page is kept for each sender and is executed by the
+ * {@code next} argument.
+ */
+public class CommandTransactions extends CommandBase
+{
+    final String name;
+    final List aliases;
+    private final Map<String, TransactionQuery> nextPages = new HashMap<>();
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+
+    public CommandTransactions(String commandTransactions)
+    {
+        String[] split = commandTransactions.split("\\s*,\\s*");
+        this.name = split[0].trim();
+        if(name.isEmpty()) throw new IllegalArgumentException();
+        aliases = Arrays.asList(Arrays.copyOfRange(split, 1, split.length));
+    }
+
+    @Override
+    public String getCommandName()
+    {
+        return name;
+    }
+
+    @Override
+    public List getCommandAliases()
+    {
+        return aliases;
+    }
+
+    @Override
+    public String getCommandUsage(ICommandSender p_71518_1_)
+    {
+        return StatCollector.translateToLocalFormatted("command.transactions.help", name);
+    }
+
+    @Override
+    public List addTabCompletionOptions(ICommandSender sender, String[] args)
+    {
+        if(args.length == 1)
+            return getListOfStringsMatchingLastWord(args, "next", "account", "machine", "player", "hours", "limit");
+        if(args.length % 2 == 1)
+            return getListOfStringsMatchingLastWord(args, "account", "machine", "player", "hours", "limit");
+        if(args[args.length - 2].equalsIgnoreCase("player"))
+            return getListOfStringsMatchingLastWord(args, MinecraftServer.getServer().getAllUsernames());
+        return null;
+    }
+
+    @Override
+    public void processCommand(ICommandSender sender, String[] args)
+    {
+        String senderName = sender.getCommandSenderName();
+        TransactionQuery query;
+        if(args.length == 1 && args[0].equalsIgnoreCase("next"))
+        {
+            query = nextPages.remove(senderName);
+            if(query == null)
+            {
+                sender.addChatMessage(new ChatComponentText(
+                        StatCollector.translateToLocal("command.transactions.error.nopages"))
+                        .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
+                return;
+            }
+        }
+        else
+        {
+            query = parse(sender, args);
+            if(query == null)
+                return;
+        }
+
+        TransactionQuery.Page page;
+        try
+        {
+            page = UniversalCoinsServer.cardDb.queryTransactions(query);
+        }
+        catch (DataStoreException e)
+        {
+            UniversalCoinsServer.logger.error("Failed to query the transactions: "+query, e);
+            sender.addChatMessage(new ChatComponentText(
+                    StatCollector.translateToLocal("command.transactions.error.query"))
+                    .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
+            return;
+        }
+
+        List<Transaction> transactions = page.getTransactions();
+        if(transactions.isEmpty())
+            sender.addChatMessage(new ChatComponentText(
+                    StatCollector.translateToLocal("command.transactions.result.empty"))
+                    .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.YELLOW)));
+
+        for(Transaction transaction: transactions)
+            sender.addChatMessage(describe(transaction));
+
+        TransactionQuery next = page.getNext();
+        if(next != null)
+        {
+            nextPages.put(senderName, next);
+            sender.addChatMessage(new ChatComponentText(
+                    StatCollector.translateToLocalFormatted("command.transactions.result.next", name))
+                    .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.GOLD)));
+        }
+        else
+            nextPages.remove(senderName);
+    }
+
+    private TransactionQuery parse(ICommandSender sender, String[] args)
+    {
+        if(args.length % 2 != 0)
+        {
+            sender.addChatMessage(new ChatComponentText(getCommandUsage(sender))
+                    .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
+            return null;
+        }
+
+        TransactionQuery query = new TransactionQuery();
+        for(int i = 0; i < args.length; i += 2)
+        {
+            String key = args[i].toLowerCase(), value = args[i+1];
+            try
+            {
+                switch (key)
+                {
+                    case "account":
+                        query.account(value);
+                        break;
+                    case "machine":
+                        query.machine(UUID.fromString(value));
+                        break;
+                    case "player":
+                        query.player(findPlayer(value));
+                        break;
+                    case "hours":
+                        query.between(System.currentTimeMillis() - parseIntBounded(sender, value, 1, 24 * 366) * 3600000L, Long.MAX_VALUE);
+                        break;
+                    case "limit":
+                        query.limit(parseIntBounded(sender, value, 1, TransactionQuery.MAX_LIMIT));
+                        break;
+                    default:
+                        sender.addChatMessage(new ChatComponentText(getCommandUsage(sender))
+                                .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
+                        return null;
+                }
+            }
+            catch (IllegalArgumentException e)
+            {
+                sender.addChatMessage(new ChatComponentText(
+                        StatCollector.translateToLocalFormatted("command.transactions.error.invalid", key, value))
+                        .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
+                return null;
+            }
+            catch (DataStoreException e)
+            {
+                UniversalCoinsServer.logger.error("Failed to find the player "+value, e);
+                sender.addChatMessage(new ChatComponentText(
+                        StatCollector.translateToLocal("command.transactions.error.player"))
+                        .setChatStyle(new ChatStyle().setColor(EnumChatFormatting.RED)));
+                return null;
+            }
+        }
+        return query;
+    }
+
+    private UUID findPlayer(String nameOrId) throws DataStoreException
+    {
+        if(nameOrId.length() == 36)
+            return UUID.fromString(nameOrId);
+
+        UUID playerId = UniversalCoinsServer.cardDb.getPlayerIdByName(nameOrId);
+        if(playerId == null)
+            throw new IllegalArgumentException(nameOrId);
+        return playerId;
+    }
+
+    private IChatComponent describe(Transaction transaction)
+    {
+        NumberFormat format = NumberFormat.getIntegerInstance();
+        StringBuilder sb = new StringBuilder(dateFormat.format(new Date(transaction.getTime())))
+                .append(' ').append(transaction.getOperation());
+
+        ItemStack product = transaction.getProduct();
+        if(product != null)
+            sb.append(' ').append(StatCollector.translateToLocalFormatted("command.transactions.result.product",
+                    transaction.getQuantity(), product.getDisplayName()));
+        sb.append(' ').append(StatCollector.translateToLocalFormatted("command.transactions.result.price",
+                format.format(transaction.getTotalPrice())));
+
+        Operator operator = transaction.getOperator();
+        if(operator instanceof PlayerOperator)
+            sb.append(' ').append(StatCollector.translateToLocalFormatted("command.transactions.result.player",
+                    ((PlayerOperator) operator).getPlayerId()));
+
+        append(sb, "command.transactions.result.user", transaction.getUserCoinSource(), format);
+        append(sb, "command.transactions.result.owner", transaction.getOwnerCoinSource(), format);
+
+        return new ChatComponentText(sb.toString()).setChatStyle(new ChatStyle().setColor(EnumChatFormatting.GRAY));
+    }
+
+    private void append(StringBuilder sb, String labelKey, Transaction.CoinSource coinSource, NumberFormat format)
+    {
+        if(coinSource == null)
+            return;
+
+        sb.append(' ').append(StatCollector.translateToLocal(labelKey)).append(' ');
+        if(coinSource instanceof Transaction.CardCoinSource)
+            sb.append(((Transaction.CardCoinSource) coinSource).getAccountAddress().getNumber()).append(' ');
+        sb.append(format.format(coinSource.getBalanceBefore())).append("->").append(format.format(coinSource.getBalanceAfter()));
+    }
+}
@@ -18,7 +18,16 @@ public class ContainerCardStation extends Container
         this.tile = tile;
 
         addSlotToContainer(new SlotCard(tile, TileCardStation.SLOT_CARD, 152, 60));
-        addSlotToContainer(new SlotCoinInput(tile, TileCardStation.SLOT_COIN, 152, 40));
+        addSlotToContainer(new SlotCoinInput(tile, TileCardStation.SLOT_COIN, 152, 40)
+        {
+            @Override
+            public void onSlotChanged()
+            {
+                // Coins merged into the stack that is already in the slot don't call setInventorySlotContents
+                super.onSlotChanged();
+                ContainerCardStation.this.tile.depositCoins();
+            }
+        });
 
         for (int i = 0; i < 3; i++)
             for (int j = 0; j < 9; j++)
@@ -31,6 +31,13 @@ public class ContainerSignal extends Container
         return tileSignal.isUseableByPlayer(player);
     }
 
+    @Override
+    public void detectAndSendChanges()
+    {
+        super.detectAndSendChanges();
+        tileSignal.refreshCountdown();
+    }
+
     @Override
     public ItemStack transferStackInSlot(EntityPlayer player, int slot)
     {
@@ -111,52 +111,64 @@ public abstract class AbstractDB<Acc extends AbstractDB.Account> implements Card
     @Override
     public int depositToAccount(@Nonnull Object account, @Nullable Collection<ItemStack> coins, @Nonnull Transaction transaction) throws DataStoreException, AccountNotFoundException
     {
-        Acc acc = getAccount(account);
-        if(acc == null) throw new AccountNotFoundException(account);
-
-        if(coins == null || coins.isEmpty())
-            return 0;
-
-        long balance = acc.getBalance();
         int ret = 0;
-        int deposit = 0;
-        Object[][] decrements = new Object[coins.size()][2];
-
         int i = 0;
-        for(ItemStack stack: coins)
+        Object[][] decrements;
+        boolean update = beginUpdate();
+        boolean success = false;
+        try
         {
-            Item item;
-            if(stack == null || !((item = stack.getItem()) instanceof ItemCoin) || stack.stackSize <= 0)
+            Acc acc = getAccount(account);
+            if(acc == null) throw new AccountNotFoundException(account);
+
+            if(coins == null || coins.isEmpty())
                 return 0;
 
-            int amountToDeposit = stack.stackSize;
-            int itemValue = ((ItemCoin) item).getValue();
-            int stackValue = amountToDeposit * itemValue;
-            int stackDeposit = deposit + stackValue;
+            long balance = acc.getBalance();
+            decrements = new Object[coins.size()][2];
+            int deposit = 0;
 
-            long valueAboveInverted = maxAccountValue - (balance + stackValue + deposit);
-            if(valueAboveInverted < 0)
+            for(ItemStack stack: coins)
             {
-                amountToDeposit -= -valueAboveInverted / itemValue;
-                stackDeposit = amountToDeposit * itemValue;
-            }
+                Item item;
+                if(stack == null || !((item = stack.getItem()) instanceof ItemCoin) || stack.stackSize <= 0)
+                    return 0;
 
-            if(amountToDeposit <= 0)
-                continue;
+                int amountToDeposit = stack.stackSize;
+                int itemValue = ((ItemCoin) item).getValue();
+                int stackValue = amountToDeposit * itemValue;
+                int stackDeposit = deposit + stackValue;
 
-            deposit += stackDeposit;
-            decrements[i++] = new Object[]{stack, amountToDeposit};
+                long valueAboveInverted = maxAccountValue - (balance + stackValue + deposit);
+                if(valueAboveInverted < 0)
+                {
+                    amountToDeposit -= -valueAboveInverted / itemValue;
+                    stackDeposit = amountToDeposit * itemValue;
+                }
 
-            ret += stackValue - deposit;
-        }
+                if(amountToDeposit <= 0)
+                    continue;
+
+                deposit += stackDeposit;
+                decrements[i++] = new Object[]{stack, amountToDeposit};
+
+                ret += stackValue - deposit;
+            }
 
-        if(deposit <= 0)
-            return 0;
+            if(deposit <= 0)
+                return 0;
 
-        acc.incrementBalance(deposit, transaction);
+            transaction.resolveBalance(acc.id, acc.getBalance());
+            acc.incrementBalance(deposit, transaction);
+            success = true;
+        }
+        finally
+        {
+            endUpdate(update, success);
+        }
 
-        for(Object[] decrement: decrements)
-            ((ItemStack)decrement[0]).stackSize -= (int)decrement[1];
+        for(int j = 0; j < i; j++)
+            ((ItemStack)decrements[j][0]).stackSize -= (int)decrements[j][1];
 
         return ret;
     }
@@ -164,29 +176,43 @@ public abstract class AbstractDB<Acc extends AbstractDB.Account> implements Card
     @Override
     public int depositToAccount(@Nonnull Object account, @Nullable ItemStack stack, @Nonnull Transaction transaction) throws DataStoreException, AccountNotFoundException
     {
-        Acc acc = getAccount(account);
-        if(acc == null) throw new AccountNotFoundException(account);
+        int amountToDeposit;
+        int stackValue;
+        int deposit;
+        boolean update = beginUpdate();
+        boolean success = false;
+        try
+        {
+            Acc acc = getAccount(account);
+            if(acc == null) throw new AccountNotFoundException(account);
 
-        Item item;
-        if(stack == null || !((item = stack.getItem()) instanceof ItemCoin) || stack.stackSize <= 0)
-            return 0;
+            Item item;
+            if(stack == null || !((item = stack.getItem()) instanceof ItemCoin) || stack.stackSize <= 0)
+                return 0;
 
-        int amountToDeposit = stack.stackSize;
-        int itemValue = ((ItemCoin) item).getValue();
-        int stackValue = amountToDeposit * itemValue;
-        int deposit = stackValue;
+            amountToDeposit = stack.stackSize;
+            int itemValue = ((ItemCoin) item).getValue();
+            stackValue = amountToDeposit * itemValue;
+            deposit = stackValue;
 
-        long valueAboveInverted = maxAccountValue - (acc.getBalance() + (long)stackValue);
-        if(valueAboveInverted < 0)
-        {
-            amountToDeposit -= -valueAboveInverted / itemValue;
-            deposit = amountToDeposit * itemValue;
-        }
+            long valueAboveInverted = maxAccountValue - (acc.getBalance() + (long)stackValue);
+            if(valueAboveInverted < 0)
+            {
+                amountToDeposit -= -valueAboveInverted / itemValue;
+                deposit = amountToDeposit * itemValue;
+            }
 
-        if(amountToDeposit <= 0)
-            return 0;
+            if(amountToDeposit <= 0)
+                return 0;
 
-        acc.incrementBalance(deposit, transaction);
+            transaction.resolveBalance(acc.id, acc.getBalance());
+            acc.incrementBalance(deposit, transaction);
+            success = true;
+        }
+        finally
+        {
+            endUpdate(update, success);
+        }
 
         stack.stackSize -= amountToDeposit;
 
@@ -199,35 +225,89 @@ public abstract class AbstractDB<Acc extends AbstractDB.Account> implements Card
         if(coins < 0)
             throw new IllegalArgumentException("coins: "+coins);
 
-        Acc acc = getAccount(account);
-        if(acc == null) throw new AccountNotFoundException(account);
-        // Will be negative if the final account balance bypasses the maximum value
-        long valueAboveInverted = maxAccountValue - (acc.getBalance() + (long)coins);
+        boolean update = beginUpdate();
+        boolean success = false;
+        try
+        {
+            Acc acc = getAccount(account);
+            if(acc == null) throw new AccountNotFoundException(account);
+            // Will be negative if the final account balance bypasses the maximum value
+            long valueAboveInverted = maxAccountValue - (acc.getBalance() + (long)coins);
+
+            // The value that will be deposited
+            int deposit = valueAboveInverted >= 0? coins : (int)(coins + valueAboveInverted);
 
-        // The value that will be deposited
-        int deposit = valueAboveInverted >= 0? coins : (int)(coins + valueAboveInverted);
+            if(deposit <= 0)
+                return coins;
 
-        if(deposit <= 0)
-            return coins;
+            transaction.resolveBalance(acc.id, acc.getBalance());
+            acc.incrementBalance(deposit, transaction);
+            success = true;
 
-        acc.incrementBalance(deposit, transaction);
+            return coins - deposit;
+        }
+        finally
+        {
+            endUpdate(update, success);
+        }
+    }
+
+    @Override
+    public int depositAllToAccount(@Nonnull Object account, int coins, @Nonnull Transaction transaction) throws DataStoreException, AccountNotFoundException, IllegalArgumentException
+    {
+        if(coins < 0)
+            throw new IllegalArgumentException("coins: "+coins);
 
-        return coins - deposit;
+        boolean update = beginUpdate();
+        boolean success = false;
+        try
+        {
+            Acc acc = getAccount(account);
+            if(acc == null) throw new AccountNotFoundException(account);
+
+            long valueAboveInverted = maxAccountValue - (acc.getBalance() + (long)coins);
+            if(valueAboveInverted < 0)
+                return (int) Math.max(Integer.MIN_VALUE, valueAboveInverted);
+
+            if(coins > 0)
+            {
+                transaction.resolveBalance(acc.id, acc.getBalance());
+                acc.incrementBalance(coins, transaction);
+            }
+            success = true;
+
+            return acc.getBalance();
+        }
+        finally
+        {
+            endUpdate(update, success);
+        }
     }
 
     @Override
     public int takeFromAccount(@Nonnull Object account, int amount, @Nonnull Transaction transaction) throws DataStoreException, AccountNotFoundException, OutOfCoinsException
     {
-        Acc acc = getAccount(account);
-        if(acc == null) throw new AccountNotFoundException(account);
+        boolean update = beginUpdate();
+        boolean success = false;
+        try
+        {
+            Acc acc = getAccount(account);
+            if(acc == null) throw new AccountNotFoundException(account);
 
-        int afterIncrement = acc.balance - amount;
-        if(afterIncrement < 0)
-            throw new OutOfCoinsException(-afterIncrement);
+            int afterIncrement = acc.balance - amount;
+            if(afterIncrement < 0)
+                throw new OutOfCoinsException(-afterIncrement);
 
-        acc.incrementBalance(-amount, transaction);
+            transaction.resolveBalance(acc.id, acc.getBalance());
+            acc.incrementBalance(-amount, transaction);
+            success = true;
 
-        return acc.getBalance();
+            return acc.getBalance();
+        }
+        finally
+        {
+            endUpdate(update, success);
+        }
     }
 
     @Override
@@ -237,33 +317,70 @@ public abstract class AbstractDB<Acc extends AbstractDB.Account> implements Card
         Transaction.CoinSource userCoinSource = transaction.getUserCoinSource();
         Acc ownerAccount = null, userAccount = null;
         long ownerIncrement = 0, userIncrement = 0;
+        int ownerBalance = 0, userBalance = 0;
 
-        if(ownerCoinSource instanceof Transaction.CardCoinSource)
+        boolean update = beginUpdate();
+        boolean success = false;
+        try
         {
-            Object number = ((Transaction.CardCoinSource) ownerCoinSource).getAccountAddress().getNumber();
-            ownerAccount = getAccount(number);
-            if(ownerAccount == null) throw new AccountNotFoundException(number);
-            ownerIncrement = ownerCoinSource.getBalanceAfter() - ownerCoinSource.getBalanceBefore();
-            int balance = ownerAccount.getBalance();
-            long result = balance + ownerIncrement;
-            if(result < 0) throw new OutOfCoinsException((int)-result);
-            if(result > maxAccountValue) throw new DataStoreException("Final balance above the limit. Balance: "+balance+" Increment:"+ownerIncrement+" Limit:"+maxAccountValue);
-        }
+            if(ownerCoinSource instanceof Transaction.CardCoinSource)
+            {
+                Object number = ((Transaction.CardCoinSource) ownerCoinSource).getAccountAddress().getNumber();
+                ownerAccount = getAccount(number);
+                if(ownerAccount == null) throw new AccountNotFoundException(number);
+                ownerIncrement = ownerCoinSource.getIncrement();
+                ownerBalance = ownerAccount.getBalance();
+                long result = ownerBalance + ownerIncrement;
+                if(result < 0) throw new OutOfCoinsException((int)-result);
+                if(result > maxAccountValue) throw new DataStoreException("Final balance above the limit. Balance: "+ownerBalance+" Increment:"+ownerIncrement+" Limit:"+maxAccountValue);
+            }
 
-        if(userCoinSource instanceof Transaction.CardCoinSource)
+            if(userCoinSource instanceof Transaction.CardCoinSource)
+            {
+                Object number = ((Transaction.CardCoinSource) userCoinSource).getAccountAddress().getNumber();
+                userAccount = getAccount(number);
+                if(userAccount == null) throw new AccountNotFoundException(number);
+
+                userIncrement = userCoinSource.getIncrement();
+                userBalance = userAccount.getBalance();
+                if(ownerAccount != null && ownerAccount.id.equals(userAccount.id))
+                    userBalance += ownerIncrement;
+                long result = userBalance + userIncrement;
+                if(result < 0) throw new OutOfCoinsException((int)-result);
+                if(result > maxAccountValue) throw new DataStoreException("Final balance above the limit. Balance: "+userBalance+" Increment:"+userIncrement+" Limit:"+maxAccountValue);
+            }
+
+            // Both sides are accepted, a rejected trade never leaves a half resolved transaction
+            if(ownerAccount != null)
+                ((Transaction.CardCoinSource) ownerCoinSource).resolve(ownerAccount.id, ownerBalance);
+            if(userAccount != null)
+                ((Transaction.CardCoinSource) userCoinSource).resolve(userAccount.id, userBalance);
+
+            storeTrade(transaction, ownerAccount, (int)ownerIncrement, userAccount, (int)userIncrement);
+            success = true;
+        }
+        finally
         {
-            Object number = ((Transaction.CardCoinSource) userCoinSource).getAccountAddress().getNumber();
-            userAccount = getAccount(number);
-            if(userAccount == null) throw new AccountNotFoundException(number);
-
-            userIncrement = userCoinSource.getBalanceAfter() - userCoinSource.getBalanceBefore();
-            int balance = userAccount.getBalance();
-            long result = balance + userIncrement;
-            if(result < 0) throw new OutOfCoinsException((int)-result);
-            if(result > maxAccountValue) throw new DataStoreException("Final balance above the limit. Balance: "+balance+" Increment:"+userIncrement+" Limit:"+maxAccountValue);
+            endUpdate(update, success);
         }
+    }
 
-        storeTrade(transaction, ownerAccount, (int)ownerIncrement, userAccount, (int)userIncrement);
+    /**
+     * Starts a change of balances, the accounts loaded until {@link #endUpdate(boolean, boolean)} can't be changed by
+     * anybody else. Does nothing by default.
+     * @return If the change was started by this call and must be ended by the same caller
+     */
+    protected boolean beginUpdate() throws DataStoreException
+    {
+        return false;
+    }
+
+    /**
+     * Ends a change started by {@link #beginUpdate()}, storing it if it succeeded or discarding it otherwise
+     * @param started The value returned by {@link #beginUpdate()}
+     */
+    protected void endUpdate(boolean started, boolean success) throws DataStoreException
+    {
     }
 
     protected abstract void storeTrade(@Nonnull Transaction transaction, @Nullable Acc ownerAccount, int ownerIncrement, @Nullable Acc userAccount, int userIncrement)
@@ -4,17 +4,109 @@ import javax.annotation.Nullable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 public abstract class AbstractSQL<A extends AbstractSQL.SqlAccount> extends AbstractDB<A>
 {
     protected Connection connection;
 
+    /**
+     * Transactions saved since the last commit, the money supply and the machine stats only see them after they are
+     * committed
+     */
+    protected final List<Transaction> uncommitted = new ArrayList<>();
+
     public AbstractSQL(Connection connection)
     {
         this.connection = connection;
     }
 
+    /**
+     * Commits the SQL transaction and records the transactions that were saved on it
+     */
+    protected void commit() throws SQLException
+    {
+        connection.commit();
+        for(Transaction transaction: uncommitted)
+        {
+            MoneySupply.instance.record(transaction);
+            MachineStats.instance.record(transaction);
+        }
+        uncommitted.clear();
+    }
+
+    /**
+     * Rolls back the SQL transaction and discards the transactions that were saved on it
+     */
+    protected void rollback() throws SQLException
+    {
+        uncommitted.clear();
+        connection.rollback();
+    }
+
+    /**
+     * Opens a SQL transaction if none is open, the accounts are loaded with a row lock while it's open
+     */
+    @Override
+    protected boolean beginUpdate() throws DataStoreException
+    {
+        try
+        {
+            if(!connection.getAutoCommit())
+                return false;
+
+            connection.setAutoCommit(false);
+            return true;
+        }
+        catch (SQLException e)
+        {
+            throw new DataStoreException(e);
+        }
+    }
+
+    @Override
+    protected void endUpdate(boolean started, boolean success) throws DataStoreException
+    {
+        if(!started)
+            return;
+
+        try
+        {
+            if(success)
+                commit();
+            else
+                rollback();
+        }
+        catch (SQLException e)
+        {
+            if(success)
+                throw new DataStoreException(e);
+            e.printStackTrace();
+        }
+        finally
+        {
+            try
+            {
+                connection.setAutoCommit(true);
+            }
+            catch (SQLException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return The lock clause to append to the account selects, empty if no SQL transaction is open as the lock would
+     * be released right after the select
+     */
+    protected String lockClause() throws SQLException
+    {
+        return connection.getAutoCommit()? "" : " FOR UPDATE";
+    }
+
     class SqlAccount extends Account
     {
         final boolean primary;
@@ -53,7 +145,7 @@ public abstract class AbstractSQL<A extends AbstractSQL.SqlAccount> extends Abst
                     saveTransaction(transaction);
 
                 if(!inTransaction)
-                    connection.commit();
+                    commit();
 
                 balance += increment;
             }
@@ -62,7 +154,7 @@ public abstract class AbstractSQL<A extends AbstractSQL.SqlAccount> extends Abst
                 if(!inTransaction)
                     try
                     {
-                        connection.rollback();
+                        rollback();
                     }
                     catch (SQLException e2)
                     {
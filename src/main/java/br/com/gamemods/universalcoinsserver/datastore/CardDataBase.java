@@ -66,10 +66,31 @@ public interface CardDataBase
      */
     int depositToAccount(@Nonnull Object account, int coins, @Nonnull Transaction transaction) throws DataStoreException, AccountNotFoundException, IllegalArgumentException;
 
+    /**
+     * Deposits all coins or nothing, so the caller doesn't need to check the space and to reload the balance
+     * @return Positive or zero: The balance after the deposit<br>
+     *         Negative: The amount of coins that exceeds the account limit, nothing was deposited
+     * @throws IllegalArgumentException If @{code coins < 0}
+     */
+    int depositAllToAccount(@Nonnull Object account, int coins, @Nonnull Transaction transaction) throws DataStoreException, AccountNotFoundException, IllegalArgumentException;
+
     void saveNewMachine(@Nonnull Machine machine) throws DataStoreException;
 
+    /**
+     * Registers many machines at once, the machines that are already registered are ignored
+     * @see MachineRegistrationQueue
+     */
+    void saveNewMachines(@Nonnull Collection<? extends Machine> machines) throws DataStoreException;
+
     void saveTransaction(@Nonnull Transaction transaction) throws DataStoreException;
 
+    /**
+     * Finds a page of the recorded transactions, from the newest to the oldest one
+     * @return An empty page if the datastore doesn't record transactions
+     */
+    @Nonnull
+    TransactionQuery.Page queryTransactions(@Nonnull TransactionQuery query) throws DataStoreException;
+
     @Nonnull
     PlayerData getPlayerData(@Nonnull UUID playerUID) throws DataStoreException;
 
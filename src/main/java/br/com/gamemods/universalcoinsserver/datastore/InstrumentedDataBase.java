@@ -0,0 +1,838 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import cpw.mods.fml.common.FMLCommonHandler;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link CardDataBase} that delegates all calls to an other implementation while recording the amount of calls,
+ * errors, latency and the classes that made the calls.
+ * <p>
+ * When disabled the only overhead is a volatile read per call.
+ */
+public class InstrumentedDataBase implements CardDataBase, Closeable
+{
+    private static final String DATASTORE_PACKAGE = InstrumentedDataBase.class.getPackage().getName()+".";
+
+    private final CardDataBase delegate;
+    private final List<MethodStats> methods = new ArrayList<>();
+    private volatile boolean enabled;
+    private volatile boolean trackCallers;
+    private int summaryInterval;
+    private int ticks;
+
+    private final MethodStats getAccountOwner = stats("getAccountOwner");
+    private final MethodStats getAccountBalance = stats("getAccountBalance");
+    private final MethodStats canDepositStacks = stats("canDeposit(Collection)");
+    private final MethodStats canDepositStack = stats("canDeposit(ItemStack)");
+    private final MethodStats canDepositCoins = stats("canDeposit(int)");
+    private final MethodStats depositStacks = stats("depositToAccount(Collection)");
+    private final MethodStats depositStack = stats("depositToAccount(ItemStack)");
+    private final MethodStats depositCoins = stats("depositToAccount(int)");
+    private final MethodStats depositAllCoins = stats("depositAllToAccount");
+    private final MethodStats saveNewMachine = stats("saveNewMachine");
+    private final MethodStats saveNewMachines = stats("saveNewMachines");
+    private final MethodStats saveTransaction = stats("saveTransaction");
+    private final MethodStats queryTransactions = stats("queryTransactions");
+    private final MethodStats getPlayerData = stats("getPlayerData");
+    private final MethodStats createPrimaryAccount = stats("createPrimaryAccount");
+    private final MethodStats takeFromAccount = stats("takeFromAccount");
+    private final MethodStats getCustomAccountByName = stats("getCustomAccountByName");
+    private final MethodStats createCustomAccount = stats("createCustomAccount");
+    private final MethodStats transferAccount = stats("transferAccount");
+    private final MethodStats transferPrimaryAccount = stats("transferPrimaryAccount");
+    private final MethodStats processTrade = stats("processTrade");
+    private final MethodStats getAllPlayerData = stats("getAllPlayerData");
+    private final MethodStats getAllAccountsBalance = stats("getAllAccountsBalance");
+    private final MethodStats importData = stats("importData");
+    private final MethodStats renamePrimaryAccount = stats("renamePrimaryAccount");
+    private final MethodStats updatePlayerName = stats("updatePlayerName");
+    private final MethodStats getPlayerIdByName = stats("getPlayerIdByName");
+    private final MethodStats findPlayerByName = stats("findPlayerByName");
+    private final MethodStats storePackage = stats("storePackage");
+    private final MethodStats deliveryPackages = stats("deliveryPackages");
+    private final MethodStats getPendingDeliveries = stats("getPendingDeliveries");
+
+    /**
+     * @param delegate The datastore that will execute the calls
+     * @param enabled If the calls should be recorded
+     * @param trackCallers If the class that made each call should be recorded, this requires a stack trace per call
+     * @param summaryInterval Interval in ticks between the summaries on the server log, zero disables the summaries
+     */
+    public InstrumentedDataBase(@Nonnull CardDataBase delegate, boolean enabled, boolean trackCallers, int summaryInterval)
+    {
+        this.delegate = delegate;
+        this.enabled = enabled;
+        this.trackCallers = trackCallers;
+        this.summaryInterval = summaryInterval;
+
+        if(summaryInterval > 0)
+            FMLCommonHandler.instance().bus().register(this);
+    }
+
+    private MethodStats stats(String name)
+    {
+        MethodStats stats = new MethodStats(name);
+        methods.add(stats);
+        return stats;
+    }
+
+    @Nonnull
+    public CardDataBase getDelegate()
+    {
+        return delegate;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isTrackingCallers()
+    {
+        return trackCallers;
+    }
+
+    public void setTrackCallers(boolean trackCallers)
+    {
+        this.trackCallers = trackCallers;
+    }
+
+    /**
+     * @return The stats of all methods that were called at least once, the slowest methods in total time comes first
+     */
+    @Nonnull
+    public List<MethodStats> getStats()
+    {
+        List<MethodStats> list = new ArrayList<>(methods.size());
+        for(MethodStats stats: methods)
+            if(stats.latency.getCount() > 0)
+                list.add(stats);
+
+        Collections.sort(list, new Comparator<MethodStats>()
+        {
+            @Override
+            public int compare(MethodStats o1, MethodStats o2)
+            {
+                return Long.compare(o2.latency.getTotalNanos(), o1.latency.getTotalNanos());
+            }
+        });
+        return list;
+    }
+
+    @Nullable
+    public MethodStats getStats(@Nonnull String method)
+    {
+        for(MethodStats stats: methods)
+            if(stats.name.equalsIgnoreCase(method))
+                return stats;
+
+        for(MethodStats stats: methods)
+            if(stats.name.toLowerCase().startsWith(method.toLowerCase()))
+                return stats;
+
+        return null;
+    }
+
+    public void reset()
+    {
+        for(MethodStats stats: methods)
+            stats.reset();
+    }
+
+    @SubscribeEvent
+    public void on(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END || !enabled || ++ticks < summaryInterval)
+            return;
+
+        ticks = 0;
+        List<MethodStats> stats = getStats();
+        if(stats.isEmpty())
+            return;
+
+        StringBuilder sb = new StringBuilder("Datastore calls summary:");
+        for(MethodStats method: stats)
+            sb.append("\n  ").append(method);
+        UniversalCoinsServer.logger.info(sb.toString());
+    }
+
+    private long start(MethodStats stats)
+    {
+        if(!enabled)
+            return -1;
+
+        if(trackCallers)
+            stats.recordCaller(findCaller());
+
+        return System.nanoTime();
+    }
+
+    private void end(MethodStats stats, long start, boolean success)
+    {
+        if(start < 0)
+            return;
+
+        stats.latency.record(System.nanoTime() - start);
+        if(!success)
+            stats.errors.incrementAndGet();
+    }
+
+    private static String findCaller()
+    {
+        StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        for(StackTraceElement element: stackTrace)
+        {
+            String className = element.getClassName();
+            if(!className.startsWith(DATASTORE_PACKAGE))
+                return className.substring(className.lastIndexOf('.') + 1);
+        }
+        return "Unknown";
+    }
+
+    public static final class MethodStats
+    {
+        private final String name;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+        private final ConcurrentHashMap<String, AtomicLong> callers = new ConcurrentHashMap<>();
+
+        private MethodStats(String name)
+        {
+            this.name = name;
+        }
+
+        private void recordCaller(String caller)
+        {
+            AtomicLong counter = callers.get(caller);
+            if(counter == null)
+            {
+                AtomicLong created = new AtomicLong();
+                counter = callers.putIfAbsent(caller, created);
+                if(counter == null)
+                    counter = created;
+            }
+            counter.incrementAndGet();
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long getCalls()
+        {
+            return latency.getCount();
+        }
+
+        public long getErrors()
+        {
+            return errors.get();
+        }
+
+        @Nonnull
+        public LatencyHistogram getLatency()
+        {
+            return latency;
+        }
+
+        /**
+         * @return The amount of calls made by each caller class, the most frequent callers comes first
+         */
+        @Nonnull
+        public List<Map.Entry<String, Long>> getCallers()
+        {
+            List<Map.Entry<String, Long>> list = new ArrayList<>(callers.size());
+            for(Map.Entry<String, AtomicLong> entry: callers.entrySet())
+                list.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().get()));
+
+            Collections.sort(list, new Comparator<Map.Entry<String, Long>>()
+            {
+                @Override
+                public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2)
+                {
+                    return Long.compare(o2.getValue(), o1.getValue());
+                }
+            });
+            return list;
+        }
+
+        private void reset()
+        {
+            latency.reset();
+            errors.set(0);
+            callers.clear();
+        }
+
+        @Override
+        public String toString()
+        {
+            TimeUnit unit = TimeUnit.NANOSECONDS;
+            return name+": calls="+latency.getCount()+" errors="+errors.get()
+                    +" total="+unit.toMillis(latency.getTotalNanos())+"ms"
+                    +" mean="+unit.toMicros(latency.getMeanNanos())+"us"
+                    +" p50="+unit.toMicros(latency.getPercentileNanos(50))+"us"
+                    +" p99="+unit.toMicros(latency.getPercentileNanos(99))+"us"
+                    +" p999="+unit.toMicros(latency.getPercentileNanos(99.9))+"us"
+                    +" max="+unit.toMicros(latency.getMaxNanos())+"us";
+        }
+    }
+
+    @Nullable
+    @Override
+    public UUID getAccountOwner(@Nonnull Object account) throws DataStoreException
+    {
+        long start = start(getAccountOwner);
+        boolean success = false;
+        try
+        {
+            UUID result = delegate.getAccountOwner(account);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(getAccountOwner, start, success);
+        }
+    }
+
+    @Override
+    public int getAccountBalance(@Nonnull Object account) throws DataStoreException, AccountNotFoundException
+    {
+        long start = start(getAccountBalance);
+        boolean success = false;
+        try
+        {
+            int result = delegate.getAccountBalance(account);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(getAccountBalance, start, success);
+        }
+    }
+
+    @Override
+    public int canDeposit(@Nonnull Object account, @Nullable Collection<ItemStack> coins) throws DataStoreException, AccountNotFoundException
+    {
+        long start = start(canDepositStacks);
+        boolean success = false;
+        try
+        {
+            int result = delegate.canDeposit(account, coins);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(canDepositStacks, start, success);
+        }
+    }
+
+    @Override
+    public int canDeposit(@Nonnull Object account, @Nullable ItemStack coins) throws DataStoreException, AccountNotFoundException
+    {
+        long start = start(canDepositStack);
+        boolean success = false;
+        try
+        {
+            int result = delegate.canDeposit(account, coins);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(canDepositStack, start, success);
+        }
+    }
+
+    @Override
+    public int canDeposit(@Nonnull Object account, int coins) throws DataStoreException, AccountNotFoundException
+    {
+        long start = start(canDepositCoins);
+        boolean success = false;
+        try
+        {
+            int result = delegate.canDeposit(account, coins);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(canDepositCoins, start, success);
+        }
+    }
+
+    @Override
+    public int depositToAccount(@Nonnull Object account, @Nullable Collection<ItemStack> coins, @Nonnull Transaction transaction) throws DataStoreException, AccountNotFoundException
+    {
+        long start = start(depositStacks);
+        boolean success = false;
+        try
+        {
+            int result = delegate.depositToAccount(account, coins, transaction);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(depositStacks, start, success);
+        }
+    }
+
+    @Override
+    public int depositToAccount(@Nonnull Object account, @Nullable ItemStack coins, @Nonnull Transaction transaction) throws DataStoreException, AccountNotFoundException
+    {
+        long start = start(depositStack);
+        boolean success = false;
+        try
+        {
+            int result = delegate.depositToAccount(account, coins, transaction);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(depositStack, start, success);
+        }
+    }
+
+    @Override
+    public int depositToAccount(@Nonnull Object account, int coins, @Nonnull Transaction transaction) throws DataStoreException, AccountNotFoundException, IllegalArgumentException
+    {
+        long start = start(depositCoins);
+        boolean success = false;
+        try
+        {
+            int result = delegate.depositToAccount(account, coins, transaction);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(depositCoins, start, success);
+        }
+    }
+
+    @Override
+    public int depositAllToAccount(@Nonnull Object account, int coins, @Nonnull Transaction transaction) throws DataStoreException, AccountNotFoundException, IllegalArgumentException
+    {
+        long start = start(depositAllCoins);
+        boolean success = false;
+        try
+        {
+            int result = delegate.depositAllToAccount(account, coins, transaction);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(depositAllCoins, start, success);
+        }
+    }
+
+    @Override
+    public void saveNewMachine(@Nonnull Machine machine) throws DataStoreException
+    {
+        long start = start(saveNewMachine);
+        boolean success = false;
+        try
+        {
+            delegate.saveNewMachine(machine);
+            success = true;
+        }
+        finally
+        {
+            end(saveNewMachine, start, success);
+        }
+    }
+
+    @Override
+    public void saveNewMachines(@Nonnull Collection<? extends Machine> machines) throws DataStoreException
+    {
+        long start = start(saveNewMachines);
+        boolean success = false;
+        try
+        {
+            delegate.saveNewMachines(machines);
+            success = true;
+        }
+        finally
+        {
+            end(saveNewMachines, start, success);
+        }
+    }
+
+    @Override
+    public void saveTransaction(@Nonnull Transaction transaction) throws DataStoreException
+    {
+        long start = start(saveTransaction);
+        boolean success = false;
+        try
+        {
+            delegate.saveTransaction(transaction);
+            success = true;
+        }
+        finally
+        {
+            end(saveTransaction, start, success);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public TransactionQuery.Page queryTransactions(@Nonnull TransactionQuery query) throws DataStoreException
+    {
+        long start = start(queryTransactions);
+        boolean success = false;
+        try
+        {
+            TransactionQuery.Page result = delegate.queryTransactions(query);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(queryTransactions, start, success);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public PlayerData getPlayerData(@Nonnull UUID playerUID) throws DataStoreException
+    {
+        long start = start(getPlayerData);
+        boolean success = false;
+        try
+        {
+            PlayerData result = delegate.getPlayerData(playerUID);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(getPlayerData, start, success);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public AccountAddress createPrimaryAccount(@Nonnull UUID playerUID, @Nonnull String name) throws DataStoreException, DuplicatedKeyException
+    {
+        long start = start(createPrimaryAccount);
+        boolean success = false;
+        try
+        {
+            AccountAddress result = delegate.createPrimaryAccount(playerUID, name);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(createPrimaryAccount, start, success);
+        }
+    }
+
+    @Override
+    public int takeFromAccount(@Nonnull Object account, int amount, @Nonnull Transaction transaction) throws DataStoreException, AccountNotFoundException, OutOfCoinsException
+    {
+        long start = start(takeFromAccount);
+        boolean success = false;
+        try
+        {
+            int result = delegate.takeFromAccount(account, amount, transaction);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(takeFromAccount, start, success);
+        }
+    }
+
+    @Nullable
+    @Override
+    public AccountAddress getCustomAccountByName(@Nonnull String customAccountName) throws DataStoreException
+    {
+        long start = start(getCustomAccountByName);
+        boolean success = false;
+        try
+        {
+            AccountAddress result = delegate.getCustomAccountByName(customAccountName);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(getCustomAccountByName, start, success);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public AccountAddress createCustomAccount(@Nonnull UUID playerUID, @Nonnull String customAccountName) throws DataStoreException, DuplicatedKeyException
+    {
+        long start = start(createCustomAccount);
+        boolean success = false;
+        try
+        {
+            AccountAddress result = delegate.createCustomAccount(playerUID, customAccountName);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(createCustomAccount, start, success);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public AccountAddress transferAccount(@Nonnull AccountAddress origin, @Nonnull String destiny, @Nullable Machine machine, @Nullable Operator operator) throws DataStoreException, AccountNotFoundException, DuplicatedKeyException
+    {
+        long start = start(transferAccount);
+        boolean success = false;
+        try
+        {
+            AccountAddress result = delegate.transferAccount(origin, destiny, machine, operator);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(transferAccount, start, success);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public AccountAddress transferPrimaryAccount(@Nonnull AccountAddress primaryAccount, @Nonnull String newName, @Nullable Machine machine, @Nullable Operator operator) throws DataStoreException, AccountNotFoundException
+    {
+        long start = start(transferPrimaryAccount);
+        boolean success = false;
+        try
+        {
+            AccountAddress result = delegate.transferPrimaryAccount(primaryAccount, newName, machine, operator);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(transferPrimaryAccount, start, success);
+        }
+    }
+
+    @Override
+    public void processTrade(@Nonnull Transaction transaction) throws DataStoreException, AccountNotFoundException, OutOfCoinsException
+    {
+        long start = start(processTrade);
+        boolean success = false;
+        try
+        {
+            delegate.processTrade(transaction);
+            success = true;
+        }
+        finally
+        {
+            end(processTrade, start, success);
+        }
+    }
+
+    @Override
+    public Collection<PlayerData> getAllPlayerData() throws DataStoreException
+    {
+        long start = start(getAllPlayerData);
+        boolean success = false;
+        try
+        {
+            Collection<PlayerData> result = delegate.getAllPlayerData();
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(getAllPlayerData, start, success);
+        }
+    }
+
+    @Override
+    public Map<AccountAddress, Integer> getAllAccountsBalance() throws DataStoreException
+    {
+        long start = start(getAllAccountsBalance);
+        boolean success = false;
+        try
+        {
+            Map<AccountAddress, Integer> result = delegate.getAllAccountsBalance();
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(getAllAccountsBalance, start, success);
+        }
+    }
+
+    @Override
+    public void importData(CardDataBase original) throws DataStoreException
+    {
+        long start = start(importData);
+        boolean success = false;
+        try
+        {
+            delegate.importData(original);
+            success = true;
+        }
+        finally
+        {
+            end(importData, start, success);
+        }
+    }
+
+    @Override
+    public AccountAddress renamePrimaryAccount(AccountAddress primaryAccount, String playerName) throws DataStoreException, AccountNotFoundException
+    {
+        long start = start(renamePrimaryAccount);
+        boolean success = false;
+        try
+        {
+            AccountAddress result = delegate.renamePrimaryAccount(primaryAccount, playerName);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(renamePrimaryAccount, start, success);
+        }
+    }
+
+    @Override
+    public void updatePlayerName(@Nonnull UUID persistentID, @Nonnull String commandSenderName) throws DataStoreException
+    {
+        long start = start(updatePlayerName);
+        boolean success = false;
+        try
+        {
+            delegate.updatePlayerName(persistentID, commandSenderName);
+            success = true;
+        }
+        finally
+        {
+            end(updatePlayerName, start, success);
+        }
+    }
+
+    @Nullable
+    @Override
+    public UUID getPlayerIdByName(@Nonnull String name) throws DataStoreException
+    {
+        long start = start(getPlayerIdByName);
+        boolean success = false;
+        try
+        {
+            UUID result = delegate.getPlayerIdByName(name);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(getPlayerIdByName, start, success);
+        }
+    }
+
+    @Nullable
+    @Override
+    public Map<UUID, String> findPlayerByName(@Nonnull String searchedName) throws DataStoreException
+    {
+        long start = start(findPlayerByName);
+        boolean success = false;
+        try
+        {
+            Map<UUID, String> result = delegate.findPlayerByName(searchedName);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(findPlayerByName, start, success);
+        }
+    }
+
+    @Override
+    public boolean storePackage(@Nonnull ItemStack packageStack, ICommandSender sender, @Nonnull UUID targetId) throws DataStoreException
+    {
+        long start = start(storePackage);
+        boolean success = false;
+        try
+        {
+            boolean result = delegate.storePackage(packageStack, sender, targetId);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(storePackage, start, success);
+        }
+    }
+
+    @Override
+    public void deliveryPackages(@Nonnull EntityPlayer player) throws DataStoreException
+    {
+        long start = start(deliveryPackages);
+        boolean success = false;
+        try
+        {
+            delegate.deliveryPackages(player);
+            success = true;
+        }
+        finally
+        {
+            end(deliveryPackages, start, success);
+        }
+    }
+
+    @Override
+    public int getPendingDeliveries(@Nonnull UUID persistentID) throws DataStoreException
+    {
+        long start = start(getPendingDeliveries);
+        boolean success = false;
+        try
+        {
+            int result = delegate.getPendingDeliveries(persistentID);
+            success = true;
+            return result;
+        }
+        finally
+        {
+            end(getPendingDeliveries, start, success);
+        }
+    }
+
+    /**
+     * Closes the delegate if it holds resources
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if(delegate instanceof Closeable)
+            ((Closeable) delegate).close();
+    }
+}
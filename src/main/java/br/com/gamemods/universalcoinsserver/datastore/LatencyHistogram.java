@@ -0,0 +1,106 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with logarithmic buckets.
+ * <p>
+ * Each power of two is split in {@value #SUB_BUCKETS} linear sub-buckets, so the recorded values keep about 12% of
+ * precision from one nanosecond up to several minutes while using a fixed amount of memory.
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int bucketOf(long nanos)
+    {
+        if(nanos < SUB_BUCKETS)
+            return (int) Math.max(0, nanos);
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        int subBucket = (int) (nanos >>> exponent) & (SUB_BUCKETS - 1);
+        return (exponent + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket)
+    {
+        if(bucket < SUB_BUCKETS)
+            return bucket;
+
+        int exponent = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << exponent) - 1;
+    }
+
+    public void record(long nanos)
+    {
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+
+        long current;
+        while(nanos > (current = max.get()))
+            if(max.compareAndSet(current, nanos))
+                break;
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getTotalNanos()
+    {
+        return total.get();
+    }
+
+    public long getMaxNanos()
+    {
+        return max.get();
+    }
+
+    public long getMeanNanos()
+    {
+        long count = this.count.get();
+        return count == 0? 0 : total.get() / count;
+    }
+
+    /**
+     * @param percentile A value between 0 and 100
+     * @return The highest value that is equivalent to the value at the given percentile, never above the maximum value
+     */
+    public long getPercentileNanos(double percentile)
+    {
+        long count = this.count.get();
+        if(count == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100.0));
+        long accumulated = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            accumulated += counts.get(i);
+            if(accumulated >= target)
+                return Math.min(upperBoundOf(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    public void reset()
+    {
+        for(int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+}
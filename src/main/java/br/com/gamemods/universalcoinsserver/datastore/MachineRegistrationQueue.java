@@ -0,0 +1,107 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import cpw.mods.fml.common.FMLCommonHandler;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Registers new machines on the datastore in batches.
+ * <p>
+ * Machines get their id as soon as it's needed, which may happen while their chunk is being loaded. Instead of
+ * writing each one immediately, they are queued and saved with {@link CardDataBase#saveNewMachines} at the end of the
+ * server tick, when the tiles already have their world, at most {@code batchSize} machines per tick.
+ * A batch that fails is queued again and retried after {@link #RETRY_DELAY} ticks.
+ * <p>
+ * Must be used only from the server thread.
+ */
+public final class MachineRegistrationQueue
+{
+    public static final MachineRegistrationQueue instance = new MachineRegistrationQueue();
+
+    private static final int RETRY_DELAY = 100;
+
+    private final LinkedHashSet<Machine> pending = new LinkedHashSet<>();
+    private int batchSize = 100;
+    private int retryTicks;
+
+    private MachineRegistrationQueue()
+    {
+    }
+
+    /**
+     * Starts draining the queue on the server ticks
+     * @param batchSize The maximum amount of machines saved per tick
+     */
+    public void init(int batchSize)
+    {
+        this.batchSize = Math.max(1, batchSize);
+        FMLCommonHandler.instance().bus().register(this);
+    }
+
+    /**
+     * Queues a machine that just received its id, it does nothing if the machine is already queued
+     */
+    public void register(@Nonnull Machine machine)
+    {
+        pending.add(machine);
+    }
+
+    public int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    /**
+     * Saves all queued machines immediately, the machines are kept on the queue if the datastore fails
+     */
+    public void flushAll()
+    {
+        if(!pending.isEmpty())
+            flush(pending.size());
+    }
+
+    /**
+     * @return {@code false} if the batch failed and was queued again
+     */
+    private boolean flush(int limit)
+    {
+        List<Machine> batch = new ArrayList<>(Math.min(limit, pending.size()));
+        Iterator<Machine> iterator = pending.iterator();
+        while (iterator.hasNext() && batch.size() < limit)
+        {
+            batch.add(iterator.next());
+            iterator.remove();
+        }
+
+        try
+        {
+            UniversalCoinsServer.cardDb.saveNewMachines(batch);
+            return true;
+        }
+        catch (DataStoreException e)
+        {
+            UniversalCoinsServer.logger.error("Failed to save "+batch.size()+" new machines, they will be retried", e);
+            pending.addAll(batch);
+            return false;
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END || pending.isEmpty())
+            return;
+
+        if(retryTicks > 0)
+            retryTicks--;
+        else if(!flush(batchSize))
+            retryTicks = RETRY_DELAY;
+    }
+}
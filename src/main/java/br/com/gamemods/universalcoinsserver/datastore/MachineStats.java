@@ -0,0 +1,356 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import cpw.mods.fml.common.FMLCommonHandler;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.world.WorldEvent;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Sales counters of each machine: transactions, units sold and bought and coins received and paid.
+ * <p>
+ * The counters are updated in memory by the datastores every time a transaction is saved and are flushed to a
+ * properties file inside the world save periodically, when the worlds are saved and when the server stops, so a trade
+ * never rewrites a file.
+ */
+public final class MachineStats
+{
+    public static final MachineStats instance = new MachineStats();
+
+    /**
+     * The counters of a single machine
+     */
+    public static final class Counters
+    {
+        private long transactions, unitsSold, unitsBought, coinsIn, coinsOut;
+        private UUID lastTransaction;
+        private long lastTime;
+
+        private Counters()
+        {
+        }
+
+        private Counters(Counters other)
+        {
+            transactions = other.transactions;
+            unitsSold = other.unitsSold;
+            unitsBought = other.unitsBought;
+            coinsIn = other.coinsIn;
+            coinsOut = other.coinsOut;
+            lastTransaction = other.lastTransaction;
+            lastTime = other.lastTime;
+        }
+
+        public long getTransactions()
+        {
+            return transactions;
+        }
+
+        /**
+         * @return The amount of items that players bought from the machine
+         */
+        public long getUnitsSold()
+        {
+            return unitsSold;
+        }
+
+        /**
+         * @return The amount of items that players sold to the machine
+         */
+        public long getUnitsBought()
+        {
+            return unitsBought;
+        }
+
+        /**
+         * @return The coins that players paid for the units sold
+         */
+        public long getCoinsIn()
+        {
+            return coinsIn;
+        }
+
+        /**
+         * @return The coins that the machine paid for the units bought
+         */
+        public long getCoinsOut()
+        {
+            return coinsOut;
+        }
+
+        @Nullable
+        public UUID getLastTransaction()
+        {
+            return lastTransaction;
+        }
+
+        public long getLastTime()
+        {
+            return lastTime;
+        }
+    }
+
+    private static final String LEGACY_MIGRATED = "legacy.migrated";
+
+    private final Map<UUID, Counters> machines = new HashMap<>();
+    private boolean dirty;
+    private boolean legacyMigrated;
+    private File file;
+    private int flushInterval;
+    private int ticks;
+
+    private MachineStats()
+    {
+    }
+
+    /**
+     * Starts the periodic flushes, the counters are only loaded by {@link #start(File)}
+     * @param flushInterval The flush interval in ticks, zero disables the periodic flushes
+     */
+    public void init(int flushInterval)
+    {
+        this.flushInterval = flushInterval;
+
+        FMLCommonHandler.instance().bus().register(this);
+        MinecraftForge.EVENT_BUS.register(this);
+    }
+
+    /**
+     * Loads the counters of the world that was just loaded, the counters of the previous world are discarded
+     * @param file The file where the counters are stored
+     */
+    public synchronized void start(@Nonnull File file) throws DataStoreException
+    {
+        this.file = file;
+        machines.clear();
+        legacyMigrated = false;
+        dirty = false;
+        ticks = 0;
+
+        if(file.isFile())
+            load();
+    }
+
+    /**
+     * Flushes the counters and discards them, nothing is stored until the next {@link #start(File)}
+     */
+    public synchronized void stop() throws DataStoreException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            file = null;
+            machines.clear();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Updates the counters of the machine that processed a transaction that was just applied
+     */
+    public synchronized void record(@Nonnull Transaction transaction)
+    {
+        Machine machine = transaction.getMachine();
+        if(machine == null)
+            return;
+
+        UUID machineId = machine.getMachineId();
+        Counters counters = machines.get(machineId);
+        if(counters == null)
+            machines.put(machineId, counters = new Counters());
+
+        counters.transactions++;
+        counters.lastTransaction = transaction.getId();
+        counters.lastTime = transaction.getTime();
+
+        Transaction.Operation operation = transaction.getOperation();
+        if(operation == Transaction.Operation.BUY_FROM_MACHINE)
+        {
+            counters.unitsSold += getUnits(transaction);
+            counters.coinsIn += transaction.getTotalPrice();
+        }
+        else if(operation == Transaction.Operation.SELL_TO_MACHINE)
+        {
+            counters.unitsBought += getUnits(transaction);
+            counters.coinsOut += transaction.getTotalPrice();
+        }
+
+        dirty = true;
+    }
+
+    /**
+     * Adds the transaction counter that older versions kept on the machine files, the other counters weren't recorded
+     * @param lastTime The time of the last transaction, used only if the machine didn't record any transaction yet
+     */
+    public synchronized void seed(@Nonnull UUID machineId, long transactions, @Nullable UUID lastTransaction,
+                                  long lastTime)
+    {
+        Counters counters = machines.get(machineId);
+        if(counters == null)
+            machines.put(machineId, counters = new Counters());
+
+        counters.transactions += transactions;
+        if(counters.lastTransaction == null)
+        {
+            counters.lastTransaction = lastTransaction;
+            counters.lastTime = lastTime;
+        }
+        dirty = true;
+    }
+
+    /**
+     * @return If the counters of the older versions were already imported by {@link #seed}
+     */
+    public synchronized boolean isLegacyMigrated()
+    {
+        return legacyMigrated;
+    }
+
+    public synchronized void setLegacyMigrated()
+    {
+        legacyMigrated = true;
+        dirty = true;
+    }
+
+    private static int getUnits(Transaction transaction)
+    {
+        ItemStack product = transaction.getProduct();
+        return product != null? product.stackSize : transaction.getQuantity();
+    }
+
+    /**
+     * @return A copy of the counters of the machine, {@code null} if it never processed a transaction
+     */
+    @Nullable
+    public synchronized Counters get(@Nonnull UUID machineId)
+    {
+        Counters counters = machines.get(machineId);
+        return counters == null? null : new Counters(counters);
+    }
+
+    private void load() throws DataStoreException
+    {
+        Properties properties = new Properties();
+        try(FileReader reader = new FileReader(file))
+        {
+            properties.load(reader);
+        }
+        catch (IOException e)
+        {
+            throw new DataStoreException(e);
+        }
+
+        legacyMigrated = Boolean.parseBoolean(properties.getProperty(LEGACY_MIGRATED));
+        try
+        {
+            for(String key: properties.stringPropertyNames())
+            {
+                if(!key.endsWith(".transactions"))
+                    continue;
+
+                String id = key.substring(0, key.length() - ".transactions".length());
+                Counters counters = new Counters();
+                counters.transactions = Long.parseLong(properties.getProperty(key));
+                counters.unitsSold = Long.parseLong(properties.getProperty(id+".units.sold", "0"));
+                counters.unitsBought = Long.parseLong(properties.getProperty(id+".units.bought", "0"));
+                counters.coinsIn = Long.parseLong(properties.getProperty(id+".coins.in", "0"));
+                counters.coinsOut = Long.parseLong(properties.getProperty(id+".coins.out", "0"));
+                counters.lastTime = Long.parseLong(properties.getProperty(id+".last.time", "0"));
+                String last = properties.getProperty(id+".last.transaction", "");
+                counters.lastTransaction = last.isEmpty()? null : UUID.fromString(last);
+                machines.put(UUID.fromString(id), counters);
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new DataStoreException("Corrupted machine stats: "+file, e);
+        }
+    }
+
+    /**
+     * Stores the counters on the stats file if they changed since the last flush
+     */
+    public synchronized void flush() throws DataStoreException
+    {
+        if(!dirty || file == null)
+            return;
+
+        dirty = false;
+
+        Properties properties = new PropertiesDB.SortedProperties();
+        if(legacyMigrated)
+            properties.setProperty(LEGACY_MIGRATED, "true");
+        for(Map.Entry<UUID, Counters> entry: machines.entrySet())
+        {
+            String id = entry.getKey().toString();
+            Counters counters = entry.getValue();
+            properties.setProperty(id+".transactions", Long.toString(counters.transactions));
+            properties.setProperty(id+".units.sold", Long.toString(counters.unitsSold));
+            properties.setProperty(id+".units.bought", Long.toString(counters.unitsBought));
+            properties.setProperty(id+".coins.in", Long.toString(counters.coinsIn));
+            properties.setProperty(id+".coins.out", Long.toString(counters.coinsOut));
+            properties.setProperty(id+".last.time", Long.toString(counters.lastTime));
+            if(counters.lastTransaction != null)
+                properties.setProperty(id+".last.transaction", counters.lastTransaction.toString());
+        }
+
+        File temp = new File(file.getPath()+".tmp");
+        try
+        {
+            try(FileWriter writer = new FileWriter(temp))
+            {
+                properties.store(writer, "Machine stats");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e)
+        {
+            dirty = true;
+            throw new DataStoreException(e);
+        }
+    }
+
+    private void flushQuietly()
+    {
+        try
+        {
+            flush();
+        }
+        catch (DataStoreException e)
+        {
+            UniversalCoinsServer.logger.error("Failed to flush the machine stats", e);
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END || flushInterval <= 0 || ++ticks < flushInterval)
+            return;
+
+        ticks = 0;
+        flushQuietly();
+    }
+
+    @SubscribeEvent
+    public void onWorldSave(WorldEvent.Save event)
+    {
+        if(!event.world.isRemote)
+            flushQuietly();
+    }
+}
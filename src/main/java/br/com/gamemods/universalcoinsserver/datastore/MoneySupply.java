@@ -0,0 +1,232 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import cpw.mods.fml.common.FMLCommonHandler;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running totals of the coins held in accounts and of the coins that each {@link Transaction.Operation} moved.
+ * <p>
+ * The counters are updated in constant time by the datastores every time a transaction is saved, so the money supply
+ * can be watched without scanning the whole transaction history. They are checkpointed to a properties file inside the
+ * world save periodically and when the server stops.
+ * <p>
+ * For each operation the sum of the positive coin-source deltas is accounted as credited and the sum of the negative
+ * ones as debited. An operation with net positive flow puts coins into circulation that did not come from any recorded
+ * source, like slot machine payouts, API deposits and sales to infinite vendors.
+ */
+public final class MoneySupply
+{
+    public static final MoneySupply instance = new MoneySupply();
+
+    private static final Transaction.Operation[] OPERATIONS = Transaction.Operation.values();
+
+    private final AtomicLong accounts = new AtomicLong();
+    private final AtomicLongArray transactions = new AtomicLongArray(OPERATIONS.length);
+    private final AtomicLongArray credited = new AtomicLongArray(OPERATIONS.length);
+    private final AtomicLongArray debited = new AtomicLongArray(OPERATIONS.length);
+    private volatile boolean dirty;
+    private File checkpointFile;
+    private int checkpointInterval;
+    private int ticks;
+
+    private MoneySupply()
+    {
+    }
+
+    /**
+     * Starts the periodic checkpoints, the counters are only loaded by {@link #start(File)}
+     * @param checkpointInterval The checkpoint interval in ticks, zero disables the periodic checkpoints
+     */
+    public void init(int checkpointInterval)
+    {
+        this.checkpointInterval = checkpointInterval;
+        FMLCommonHandler.instance().bus().register(this);
+    }
+
+    /**
+     * Loads the last checkpoint of the world that was just loaded, must be called after the worlds are loaded because
+     * the datastore may need them. If there is no checkpoint the account totals will be recounted from the datastore.
+     * @param checkpointFile The file where the counters are stored
+     */
+    public void start(@Nonnull File checkpointFile) throws DataStoreException
+    {
+        this.checkpointFile = checkpointFile;
+        accounts.set(0);
+        for(int i = 0; i < OPERATIONS.length; i++)
+        {
+            transactions.set(i, 0);
+            credited.set(i, 0);
+            debited.set(i, 0);
+        }
+
+        if(checkpointFile.isFile())
+            load();
+        else
+            recount();
+    }
+
+    /**
+     * Updates the counters with the coin sources of a transaction that was just applied
+     */
+    public void record(@Nonnull Transaction transaction)
+    {
+        Transaction.Operation operation = transaction.getOperation();
+        if(operation == null)
+            return;
+
+        int index = operation.ordinal();
+        transactions.incrementAndGet(index);
+        record(index, transaction.getUserCoinSource());
+        record(index, transaction.getOwnerCoinSource());
+        dirty = true;
+    }
+
+    private void record(int index, @Nullable Transaction.CoinSource coinSource)
+    {
+        if(coinSource == null)
+            return;
+
+        long delta = coinSource.getIncrement();
+        if(delta > 0)
+            credited.addAndGet(index, delta);
+        else if(delta < 0)
+            debited.addAndGet(index, -delta);
+
+        if(coinSource instanceof Transaction.CardCoinSource)
+            accounts.addAndGet(delta);
+    }
+
+    /**
+     * Replaces the account total with the sum of all balances stored in the datastore
+     */
+    public void recount() throws DataStoreException
+    {
+        long total = 0;
+        for(Integer balance: UniversalCoinsServer.cardDb.getAllAccountsBalance().values())
+            if(balance != null)
+                total += balance;
+
+        accounts.set(total);
+        dirty = true;
+    }
+
+    public long getAccountsTotal()
+    {
+        return accounts.get();
+    }
+
+    public long getTransactions(@Nonnull Transaction.Operation operation)
+    {
+        return transactions.get(operation.ordinal());
+    }
+
+    public long getCredited(@Nonnull Transaction.Operation operation)
+    {
+        return credited.get(operation.ordinal());
+    }
+
+    public long getDebited(@Nonnull Transaction.Operation operation)
+    {
+        return debited.get(operation.ordinal());
+    }
+
+    /**
+     * @return Positive: Coins created by the operation, Negative: Coins destroyed by the operation
+     */
+    public long getNetFlow(@Nonnull Transaction.Operation operation)
+    {
+        int index = operation.ordinal();
+        return credited.get(index) - debited.get(index);
+    }
+
+    private void load() throws DataStoreException
+    {
+        Properties properties = new Properties();
+        try(FileReader reader = new FileReader(checkpointFile))
+        {
+            properties.load(reader);
+        }
+        catch (IOException e)
+        {
+            throw new DataStoreException(e);
+        }
+
+        try
+        {
+            accounts.set(Long.parseLong(properties.getProperty("accounts", "0")));
+            for(Transaction.Operation operation: OPERATIONS)
+            {
+                int index = operation.ordinal();
+                String key = operation.name().toLowerCase();
+                transactions.set(index, Long.parseLong(properties.getProperty(key+".transactions", "0")));
+                credited.set(index, Long.parseLong(properties.getProperty(key+".credited", "0")));
+                debited.set(index, Long.parseLong(properties.getProperty(key+".debited", "0")));
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new DataStoreException("Corrupted money supply checkpoint: "+checkpointFile, e);
+        }
+    }
+
+    /**
+     * Stores the counters on the checkpoint file if they changed since the last checkpoint
+     */
+    public void checkpoint() throws DataStoreException
+    {
+        if(!dirty || checkpointFile == null)
+            return;
+
+        dirty = false;
+
+        Properties properties = new PropertiesDB.SortedProperties();
+        properties.setProperty("accounts", Long.toString(accounts.get()));
+        for(Transaction.Operation operation: OPERATIONS)
+        {
+            int index = operation.ordinal();
+            String key = operation.name().toLowerCase();
+            properties.setProperty(key+".transactions", Long.toString(transactions.get(index)));
+            properties.setProperty(key+".credited", Long.toString(credited.get(index)));
+            properties.setProperty(key+".debited", Long.toString(debited.get(index)));
+        }
+
+        try(FileWriter writer = new FileWriter(checkpointFile))
+        {
+            properties.store(writer, "Money supply checkpoint");
+        }
+        catch (IOException e)
+        {
+            dirty = true;
+            throw new DataStoreException(e);
+        }
+    }
+
+    @SubscribeEvent
+    public void on(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END || checkpointInterval <= 0 || ++ticks < checkpointInterval)
+            return;
+
+        ticks = 0;
+        try
+        {
+            checkpoint();
+        }
+        catch (DataStoreException e)
+        {
+            UniversalCoinsServer.logger.error("Failed to checkpoint the money supply", e);
+        }
+    }
+}
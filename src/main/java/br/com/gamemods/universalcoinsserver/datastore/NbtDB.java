@@ -35,7 +35,7 @@ public class NbtDB extends AbstractDB<AbstractDB.Account>
         {
             super.incrementBalance(increment, transaction);
 
-            WorldData worldData = sync(getWorld());
+            WorldData worldData = getWorldData();
             worldData.setWorldData(id, balance);
         }
     }
@@ -119,11 +119,19 @@ public class NbtDB extends AbstractDB<AbstractDB.Account>
         return MinecraftServer.getServer().worldServers[0];
     }
 
+    /**
+     * The data where the accounts are stored, by default it's bound to the overworld
+     */
+    protected WorldData getWorldData()
+    {
+        return sync(getWorld());
+    }
+
     @Nullable
     @Override
     protected AbstractDB.Account getAccount(@Nonnull String number) throws DataStoreException
     {
-        WorldData data = sync(getWorld());
+        WorldData data = getWorldData();
         if(data.hasKey(number))
             return new Account(number, null, data.getWorldInt(number));
 
@@ -140,11 +148,20 @@ public class NbtDB extends AbstractDB<AbstractDB.Account>
     @Override
     protected void storeTrade(@Nonnull Transaction transaction, @Nullable AbstractDB.Account ownerAccount, int ownerIncrement, @Nullable AbstractDB.Account userAccount, int userIncrement) throws DataStoreException
     {
+        WorldData worldData = getWorldData();
         if(ownerAccount != null)
-            ownerAccount.incrementBalance(ownerIncrement, transaction);
+        {
+            ownerAccount.balance += ownerIncrement;
+            worldData.setWorldData(ownerAccount.id, ownerAccount.balance);
+        }
 
         if(userAccount != null)
-            userAccount.incrementBalance(userIncrement, transaction);
+        {
+            userAccount.balance += userIncrement;
+            worldData.setWorldData(userAccount.id, userAccount.balance);
+        }
+
+        saveTransaction(transaction);
     }
 
     @Override
@@ -154,16 +171,32 @@ public class NbtDB extends AbstractDB<AbstractDB.Account>
     }
 
     @Override
-    public void saveTransaction(@Nonnull Transaction transaction) throws DataStoreException
+    public void saveNewMachines(@Nonnull Collection<? extends Machine> machines) throws DataStoreException
     {
         // Unsupported
     }
 
+    @Override
+    public void saveTransaction(@Nonnull Transaction transaction) throws DataStoreException
+    {
+        // Transaction logs are unsupported
+        MoneySupply.instance.record(transaction);
+        MachineStats.instance.record(transaction);
+    }
+
+    @Nonnull
+    @Override
+    public TransactionQuery.Page queryTransactions(@Nonnull TransactionQuery query) throws DataStoreException
+    {
+        // Transaction logs are unsupported
+        return new TransactionQuery.Page(query, Collections.<Transaction>emptyList());
+    }
+
     @Nonnull
     @Override
     public PlayerData getPlayerData(@Nonnull UUID playerUID) throws DataStoreException
     {
-        WorldData worldData = sync(getWorld());
+        WorldData worldData = getWorldData();
         String playerId = playerUID.toString();
         String primary = worldData.getWorldString(playerId);
         String custom  = worldData.getWorldString("\uFFFD"+playerId);
@@ -177,7 +210,7 @@ public class NbtDB extends AbstractDB<AbstractDB.Account>
     @Override
     public AccountAddress createPrimaryAccount(@Nonnull UUID playerUID, @Nonnull String name) throws DataStoreException, DuplicatedKeyException
     {
-        WorldData worldData = sync(getWorld());
+        WorldData worldData = getWorldData();
         String playerId = playerUID.toString();
         String accountNumber = worldData.getWorldString(playerId);
         if (!accountNumber.isEmpty())
@@ -202,7 +235,7 @@ public class NbtDB extends AbstractDB<AbstractDB.Account>
     @Override
     public AccountAddress getCustomAccountByName(@Nonnull String customAccountName) throws DataStoreException
     {
-        WorldData worldData = sync(getWorld());
+        WorldData worldData = getWorldData();
         String accountNumber = worldData.getWorldString(customAccountName);
         if(accountNumber.isEmpty())
             return null;
@@ -214,7 +247,7 @@ public class NbtDB extends AbstractDB<AbstractDB.Account>
     @Override
     public AccountAddress createCustomAccount(@Nonnull UUID playerUID, @Nonnull String customAccountName) throws DataStoreException, DuplicatedKeyException
     {
-        WorldData worldData = sync(getWorld());
+        WorldData worldData = getWorldData();
         String playerId = playerUID.toString();
         String currentPlayerCustom = worldData.getWorldString("\uFFFD"+playerId);
         String existingCustom = worldData.getWorldString(customAccountName);
@@ -244,7 +277,7 @@ public class NbtDB extends AbstractDB<AbstractDB.Account>
     public AccountAddress transferAccount(@Nonnull AccountAddress origin, @Nonnull String destiny, @Nullable Machine machine, @Nullable Operator operator) throws DataStoreException, AccountNotFoundException, DuplicatedKeyException
     {
         char code = '\uFFFD';
-        WorldData worldData = sync(getWorld());
+        WorldData worldData = getWorldData();
 
         UUID owner = origin.getOwner();
         if(owner.equals(undefinedOwner))
@@ -292,7 +325,7 @@ public class NbtDB extends AbstractDB<AbstractDB.Account>
             throw new DataStoreException(new UnsupportedOperationException("The owner of the account is unknown: "+primaryAccount));
 
         String playerUID = owner.toString();
-        WorldData worldData = sync(getWorld());
+        WorldData worldData = getWorldData();
 
         String oldAccount = worldData.getWorldString(playerUID);
         int oldBalance = worldData.hasKey(oldAccount)? worldData.getWorldInt(oldAccount) : -1;
@@ -320,7 +353,7 @@ public class NbtDB extends AbstractDB<AbstractDB.Account>
     @Override
     public Collection<PlayerData> getAllPlayerData() throws DataStoreException
     {
-        WorldData worldData = sync(getWorld());
+        WorldData worldData = getWorldData();
         //noinspection unchecked
         Set<String> keySet = worldData.data.func_150296_c();
 
@@ -353,7 +386,7 @@ public class NbtDB extends AbstractDB<AbstractDB.Account>
     @Override
     public Map<AccountAddress, Integer> getAllAccountsBalance() throws DataStoreException
     {
-        WorldData worldData = sync(getWorld());
+        WorldData worldData = getWorldData();
         //noinspection unchecked
         Set<String> keySet = worldData.data.func_150296_c();
 
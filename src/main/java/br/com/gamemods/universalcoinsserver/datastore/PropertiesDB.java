@@ -20,24 +20,34 @@ import net.minecraft.world.World;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.regex.Pattern;
 
-public class PropertiesDB implements CardDataBase
+public class PropertiesDB implements CardDataBase, Closeable
 {
     private final File baseDir, accounts, players, logs;
+    private final RotatingLogPool machineLogs;
     private SimpleDateFormat dateTimeFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss Z: ");
     private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd-HH");
+    private File transactionLog;
+    private DataOutputStream transactionStream, transactionIndexStream;
+    private TransactionCodec.Writer transactionWriter;
 
     public PropertiesDB(File baseDir) throws IOException
+    {
+        this(baseDir, RotatingLogPool.Policy.DEFAULT);
+    }
+
+    /**
+     * @param machineLogPolicy The rotation and retention policy of the machine logs
+     */
+    public PropertiesDB(File baseDir, RotatingLogPool.Policy machineLogPolicy) throws IOException
     {
         this.baseDir = baseDir;
         if(!baseDir.isDirectory() && !baseDir.mkdirs())
@@ -46,6 +56,7 @@ public class PropertiesDB implements CardDataBase
         accounts = createDir(baseDir, "accounts");
         players = createDir(baseDir, "players");
         logs = createDir(baseDir, "logs");
+        machineLogs = new RotatingLogPool(createDir(logs, "machine"), machineLogPolicy);
     }
 
     private File createDir(File base, String name) throws IOException
@@ -604,24 +615,38 @@ public class PropertiesDB implements CardDataBase
         Transaction.CoinSource userCoinSource = transaction.getUserCoinSource();
 
         if(ownerCoinSource instanceof Transaction.CardCoinSource)
-        {
-            int difference = ownerCoinSource.getBalanceAfter() - ownerCoinSource.getBalanceBefore();
-            if(difference < 0)
-                takeCoins(((Transaction.CardCoinSource) ownerCoinSource).getAccountAddress(), -difference);
-            else
-                deposit(((Transaction.CardCoinSource) ownerCoinSource).getAccountAddress(), difference);
-        }
+            applyIncrement((Transaction.CardCoinSource) ownerCoinSource);
 
         if(userCoinSource instanceof Transaction.CardCoinSource)
+            applyIncrement((Transaction.CardCoinSource) userCoinSource);
+
+        saveTransaction(transaction);
+    }
+
+    /**
+     * Applies the increment of a card coin source and fills its balances with the values that were stored
+     */
+    private void applyIncrement(Transaction.CardCoinSource coinSource) throws DataStoreException, OutOfCoinsException
+    {
+        String account = coinSource.getAccountAddress().getNumber().toString();
+        int difference = coinSource.getIncrement();
+        if(difference < 0)
         {
-            int difference = userCoinSource.getBalanceAfter() - userCoinSource.getBalanceBefore();
-            if(difference < 0)
-                takeCoins(((Transaction.CardCoinSource) userCoinSource).getAccountAddress(), -difference);
-            else
-                deposit(((Transaction.CardCoinSource) userCoinSource).getAccountAddress(), difference);
+            int balance = (int) takeCoins(account, -difference)[1];
+            coinSource.resolve(account, balance - difference);
+            return;
         }
 
-        saveTransaction(transaction);
+        Properties properties = loadAccount(account);
+        try
+        {
+            coinSource.resolve(account, Integer.parseInt(properties.getProperty("balance")));
+        }
+        catch (Exception e)
+        {
+            throw new DataStoreException(e);
+        }
+        deposit(properties, account, difference);
     }
 
 
@@ -631,6 +656,8 @@ public class PropertiesDB implements CardDataBase
         Object[] ret = takeCoins(account, amount);
         if(Boolean.TRUE.equals(ret[0]))
         {
+            transaction.resolveBalance(account instanceof AccountAddress? ((AccountAddress) account).getNumber() : account,
+                    (int) ret[1] + amount);
             try
             {
                 saveTransaction(transaction);
@@ -690,17 +717,13 @@ public class PropertiesDB implements CardDataBase
         return deposit(properties, account.toString(), value, transaction);
     }
 
-    private int deposit(Object account, int value) throws DataStoreException
-    {
-        if(account instanceof AccountAddress) account = ((AccountAddress) account).getNumber();
-        Properties properties = loadAccount(account.toString());
-        return (int) deposit(properties, account.toString(), value)[1];
-    }
-
     private int deposit(Properties properties, String account, int value, Transaction transaction) throws DataStoreException
     {
+        String balance = properties.getProperty("balance");
         Object[] ret = deposit(properties, account, value);
         if(Boolean.TRUE.equals(ret[0]))
+        {
+            transaction.resolveBalance(account, Integer.parseInt(balance));
             try
             {
                 saveTransaction(transaction);
@@ -709,6 +732,7 @@ public class PropertiesDB implements CardDataBase
             {
                 e.printStackTrace();
             }
+        }
 
         return (int) ret[1];
     }
@@ -750,10 +774,32 @@ public class PropertiesDB implements CardDataBase
         return deposit(properties, account.toString(), value, transaction);
     }
 
-    private File getMachineLogFile(Machine machine) throws IOException
+    @Override
+    public int depositAllToAccount(@Nonnull Object account, int value, @Nonnull Transaction transaction) throws DataStoreException
     {
-        File machineDir = createDir(logs, "machine");
-        return new File(machineDir, machine.getMachineId()+".log");
+        if(value < 0)
+            throw new IllegalArgumentException("value < 0: "+value);
+
+        if(account instanceof AccountAddress) account = ((AccountAddress) account).getNumber();
+        Properties properties = loadAccount(account.toString());
+        if(properties == null)
+            throw new AccountNotFoundException(account);
+
+        int space;
+        try
+        {
+            space = canDeposit(Integer.parseInt(properties.getProperty("balance")), value);
+        }
+        catch (Exception e)
+        {
+            throw new DataStoreException(e);
+        }
+
+        if(space < 0)
+            return space;
+
+        deposit(properties, account.toString(), value, transaction);
+        return Integer.parseInt(properties.getProperty("balance"));
     }
 
     private void addData(StringBuilder sb, Machine machine)
@@ -792,36 +838,50 @@ public class PropertiesDB implements CardDataBase
         }
     }
 
-    private void incrementTransactions(Machine machine, int increment, UUID lastTransaction) throws DataBaseException
+    /**
+     * Imports the {@code transactions} and {@code transaction.last} counters that older versions kept on the machine
+     * files to the {@link MachineStats}, only once. The machine files are not changed.
+     */
+    public void migrateMachineStats() throws DataStoreException
     {
-        try
+        MachineStats stats = MachineStats.instance;
+        if(stats.isLegacyMigrated())
+            return;
+
+        File[] files = new File(baseDir, "machines").listFiles();
+        int migrated = 0;
+        if(files != null)
         {
-            File file = getMachineFile(machine);
-            Properties properties = loadMachineProperties(machine);
-            if(properties == null)
+            for(File file: files)
             {
-                saveMachine(machine);
-                properties = loadMachineProperties(machine);
-                if(properties == null)
-                    throw new DataBaseException("Failed to load machine properties: "+machine.getMachineId());
-            }
-
-            storeMachine(properties, machine);
+                String name = file.getName();
+                if(!name.endsWith(".properties"))
+                    continue;
 
-            int transactions = Integer.parseInt(properties.getProperty("transactions", "0"));
-            properties.setProperty("transactions", Integer.toString(transactions + increment));
-            properties.setProperty("transaction.last", lastTransaction.toString());
+                Properties properties = loadProperties(file);
+                String transactions = properties == null? null : properties.getProperty("transactions");
+                if(transactions == null)
+                    continue;
 
-            try(FileWriter writer = new FileWriter(file))
-            {
-                normalize(properties);
-                properties.store(writer, "Last transaction: "+lastTransaction);
+                try
+                {
+                    UUID machineId = UUID.fromString(name.substring(0, name.length() - ".properties".length()));
+                    String last = properties.getProperty("transaction.last", "");
+                    stats.seed(machineId, Long.parseLong(transactions), last.isEmpty()? null : UUID.fromString(last),
+                            file.lastModified());
+                    migrated++;
+                }
+                catch (IllegalArgumentException e)
+                {
+                    UniversalCoinsServer.logger.warn("Skipping the transaction counter of the machine file "+file, e);
+                }
             }
         }
-        catch (Exception e)
-        {
-            throw new DataBaseException(e);
-        }
+
+        stats.setLegacyMigrated();
+        stats.flush();
+        if(migrated > 0)
+            UniversalCoinsServer.logger.info("Imported the transaction counters of "+migrated+" machines");
     }
 
     private  void storeMachine(Properties properties, Machine machine)
@@ -851,7 +911,6 @@ public class PropertiesDB implements CardDataBase
             {
                 properties = new SortedProperties();
                 properties.put("creation", System.currentTimeMillis());
-                properties.put("transactions", "0");
             }
 
             storeMachine(properties, machine);
@@ -871,167 +930,245 @@ public class PropertiesDB implements CardDataBase
     @Override
     public void saveNewMachine(@Nonnull Machine machine) throws DataStoreException
     {
-        File file;
+        StringBuilder sb = new StringBuilder(dateTimeFormat.format(new Date()))
+                .append("Machine created | MachineID:").append(machine.getMachineId());
+
+        addData(sb, machine);
+
         try
         {
-            file = getMachineLogFile(machine);
+            machineLogs.append(machine.getMachineId().toString(), sb.toString());
         }
-        catch (IOException e)
+        catch (Exception e)
         {
             throw new DataStoreException(e);
         }
 
-        try(FileWriter writer = new FileWriter(file, true))
-        {
-            StringBuilder sb = new StringBuilder(dateTimeFormat.format(new Date()))
-                    .append("Machine created | MachineID:").append(machine.getMachineId());
-
-            addData(sb, machine);
+        saveMachine(machine);
+    }
 
-            sb.append("\n");
-            writer.write(sb.toString());
-        }
-        catch (Exception e)
+    @Override
+    public void saveNewMachines(@Nonnull Collection<? extends Machine> machines) throws DataStoreException
+    {
+        for(Machine machine: machines)
         {
-            throw new DataStoreException(e);
-        }
+            try
+            {
+                if(getMachineFile(machine).isFile())
+                    continue;
+            }
+            catch (IOException e)
+            {
+                throw new DataStoreException(e);
+            }
 
-        saveMachine(machine);
+            saveNewMachine(machine);
+        }
     }
 
     @Override
     public void saveTransaction(@Nonnull Transaction transaction) throws DataStoreException
     {
+        MoneySupply.instance.record(transaction);
+        MachineStats.instance.record(transaction);
+
         Machine machine = transaction.getMachine();
         if (machine == null)
             return;
 
         try
         {
-            File file = getMachineLogFile(machine);
+            StringBuilder sb = new StringBuilder(dateTimeFormat.format(new Date()))
+                    .append("Transaction processed")
+                    .append(" | TransactionID:").append(transaction.getId());
 
-            try (FileWriter writer = new FileWriter(file, true))
-            {
-                StringBuilder sb = new StringBuilder(dateTimeFormat.format(new Date()))
-                        .append("Transaction processed")
-                        .append(" | TransactionID:").append(transaction.getId());
+            addData(sb, machine);
 
-                addData(sb, machine);
+            sb.append(" | TransactionData: ").append(transaction);
+            machineLogs.append(machine.getMachineId().toString(), sb.toString());
 
-                sb.append(" | TransactionData: ")
-                        .append(transaction)
-                        .append("\n");
+            writeTransactionRecord(transaction);
+        }
+        catch (Exception e)
+        {
+            throw new DataStoreException(e);
+        }
+    }
 
+    /**
+     * Appends the transaction to the binary log of the current hour, {@code logs/transactions/<yyyy.MM.dd-HH>.bin},
+     * and to its index, {@code <yyyy.MM.dd-HH>.idx}.
+     * The files stay open until the hour changes and are flushed after each record.
+     * @see TransactionCodec
+     * @see TransactionLogIndex
+     */
+    private void writeTransactionRecord(Transaction transaction) throws IOException
+    {
+        File file = new File(createDir(logs, "transactions"), dateFormat.format(new Date(transaction.getTime()))+".bin");
+        if(!file.equals(transactionLog))
+        {
+            closeTransactionLog();
+            File index = getTransactionIndexFile(file);
+            if(file.isFile() && !index.isFile())
+                TransactionLogIndex.rebuild(file, index);
 
-                writer.write(sb.toString());
-            }
+            boolean newIndex = !index.isFile() || index.length() == 0;
+            transactionStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            transactionIndexStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index, true)));
+            transactionLog = file;
+            transactionWriter = new TransactionCodec.Writer(transactionStream);
+            if(newIndex)
+                TransactionLogIndex.writeHeader(transactionIndexStream);
+        }
 
-            File dir = createDir(logs, "transactions");
-            Date date = new Date(transaction.getTime());
-            dir = createDir(dir, dateFormat.format(date));
+        try
+        {
+            transactionWriter.write(transaction);
+            transactionStream.flush();
+            TransactionLogIndex.writeEntry(transactionIndexStream, transaction);
+            transactionIndexStream.flush();
+        }
+        catch (IOException e)
+        {
+            closeTransactionLog();
+            throw e;
+        }
+    }
 
-            file =  new File(dir, transaction.getId()+".properties");
-            Properties properties = new SortedProperties();
-            properties.put("id", transaction.getId());
-            properties.put("time", transaction.getTime());
-            properties.put("operation", transaction.getOperation());
-            properties.put("infinite", transaction.isInfiniteMachine());
-            properties.put("quantity", transaction.getQuantity());
-            properties.put("price", transaction.getPrice());
-            properties.put("price.total", transaction.getTotalPrice());
-            store(properties, "coins.user", transaction.getUserCoinSource());
-            store(properties, "coins.owner", transaction.getOwnerCoinSource());
-            store(properties, "operator", transaction.getOperator());
-            store(properties, "machine", transaction.getMachine());
-            store(properties, "product", transaction.getProduct());
-            store(properties, "trade", transaction.getTrade());
+    /**
+     * Writes and closes the machine logs and the transaction log and stops the log compression thread.
+     * Must be called after the last transaction is saved, when the server stops.
+     */
+    @Override
+    public void close()
+    {
+        machineLogs.close();
+        closeTransactionLog();
+    }
 
-            try(FileWriter writer = new FileWriter(file))
-            {
-                normalize(properties);
-                properties.store(writer, "Transaction on "+dateTimeFormat.format(date));
-            }
+    private void closeTransactionLog()
+    {
+        if(transactionStream == null)
+            return;
 
-            incrementTransactions(machine, 1, transaction.getId());
+        try
+        {
+            transactionStream.close();
+            transactionIndexStream.close();
         }
-        catch (Exception e)
+        catch (IOException e)
         {
-            throw new DataStoreException(e);
+            e.printStackTrace();
         }
+
+        transactionStream = null;
+        transactionIndexStream = null;
+        transactionWriter = null;
+        transactionLog = null;
     }
 
-    private void normalize(Properties properties)
+    private File getTransactionIndexFile(File log)
     {
-        HashSet<Object> keys = new HashSet<>(properties.keySet());
-        for(Object key: keys)
-        {
-            Object value = properties.get(key);
-            if(!(value instanceof String))
-                properties.put(key, String.valueOf(value));
-        }
+        String name = log.getName();
+        return new File(log.getParentFile(), name.substring(0, name.length() - ".bin".length())+".idx");
     }
 
-    private void store(Properties properties, String key, Transaction.CoinSource coinSource)
+    @Nonnull
+    @Override
+    public TransactionQuery.Page queryTransactions(@Nonnull TransactionQuery query) throws DataStoreException
     {
-        if(coinSource != null)
+        File[] files = new File(logs, "transactions").listFiles();
+        if(files == null)
+            return new TransactionQuery.Page(query, Collections.<Transaction>emptyList());
+
+        // The logs are named by the hour of the transactions, so the hours out of the range are never opened
+        TreeMap<Long, File> hours = new TreeMap<>(Collections.reverseOrder());
+        long last = Math.min(query.getTo() - 1, query.getAfterTime());
+        for(File file: files)
         {
-            properties.put(key+".balance.before", coinSource.getBalanceBefore());
-            properties.put(key+".balance.after", coinSource.getBalanceAfter());
-            if(coinSource instanceof Transaction.MachineCoinSource)
-            {
-                properties.put(key+".type", "machine");
-                properties.put(key+".machine.id", ((Transaction.MachineCoinSource) coinSource).getMachine().getMachineId());
-            }
-            else if(coinSource instanceof Transaction.CardCoinSource)
+            String name = file.getName();
+            if(!name.endsWith(".bin"))
+                continue;
+
+            long start;
+            try
             {
-                properties.put(key+".type", "card");
-                Transaction.CardCoinSource card = (Transaction.CardCoinSource) coinSource;
-                AccountAddress accountAddress = card.getAccountAddress();
-                properties.put(key+".account.number", accountAddress.getNumber());
-                properties.put(key+".account.owner", accountAddress.getOwner());
-                properties.put(key+".account.name", accountAddress.getName());
-                store(properties, key+".card", card.getCard());
+                start = dateFormat.parse(name.substring(0, name.length() - ".bin".length())).getTime();
             }
-            else if(coinSource instanceof Transaction.InventoryCoinSource)
+            catch (ParseException e)
             {
-                properties.put(key+".type", "inventory");
-                store(properties, key+".holder", ((Transaction.InventoryCoinSource) coinSource).getOperator());
+                continue;
             }
+
+            // Two hours are stored on the same file when the clock is set back
+            if(start <= last && start + 2 * 3600000L > query.getFrom())
+                hours.put(start, file);
         }
-    }
 
-    private void store(Properties properties, String key, Operator operator)
-    {
-        if(operator != null)
+        int wanted = query.getLimit() + 1;
+        List<Transaction> transactions = new ArrayList<>(wanted);
+        try
         {
-            if(operator instanceof PlayerOperator)
+            for(File log: hours.values())
             {
-                properties.put(key+".type", "player");
-                properties.put(key+".player", ((PlayerOperator) operator).getPlayerId());
-            }
-            else if(operator instanceof BlockOperator)
-            {
-                if(operator instanceof MachineOperator)
-                {
-                    properties.put(key+".type", "machine");
-                    properties.put(key+".machine.id", ((MachineOperator) operator).getMachine().getMachineId());
-                }
-                else
+                List<Transaction> loaded = loadTransactions(log, query, wanted - transactions.size());
+                if(loaded == null)
                 {
-                    properties.put(key+".type", "block");
+                    UniversalCoinsServer.logger.warn("The transaction index of "+log+" is outdated, rebuilding it");
+                    if(log.equals(transactionLog))
+                        closeTransactionLog();
+                    TransactionLogIndex.rebuild(log, getTransactionIndexFile(log));
+                    loaded = loadTransactions(log, query, wanted - transactions.size());
+                    if(loaded == null)
+                        throw new DataStoreException("Failed to read the transactions of "+log);
                 }
-                BlockOperator bo = (BlockOperator) operator;
-                if(bo.getOwner() != null)
-                    properties.put(key+".owner", bo.getOwner());
-
-                properties.put(key+".block.x", bo.getX());
-                properties.put(key+".block.y", bo.getY());
-                properties.put(key+".block.z", bo.getZ());
-                properties.put(key+".block.dim", bo.getDim());
-                properties.put(key+".block.meta", bo.getBlockMeta());
-                properties.put(key+".block.id", bo.getBlockId());
+
+                transactions.addAll(loaded);
+                if(transactions.size() >= wanted)
+                    break;
             }
         }
+        catch (IOException e)
+        {
+            throw new DataStoreException(e);
+        }
+
+        return new TransactionQuery.Page(query, transactions);
+    }
+
+    /**
+     * @return The newest transactions of the log that matches the query or {@code null} if the index is outdated
+     */
+    @Nullable
+    private List<Transaction> loadTransactions(File log, TransactionQuery query, int limit) throws IOException
+    {
+        File index = getTransactionIndexFile(log);
+        if(!index.isFile())
+        {
+            if(log.equals(transactionLog))
+                closeTransactionLog();
+            TransactionLogIndex.rebuild(log, index);
+        }
+
+        List<TransactionLogIndex.Entry> entries = TransactionLogIndex.find(index, query);
+        if(entries.isEmpty())
+            return Collections.emptyList();
+
+        Collections.sort(entries, TransactionLogIndex.NEWEST_FIRST);
+        if(entries.size() > limit)
+            entries = entries.subList(0, limit);
+        return TransactionLogIndex.load(log, entries);
+    }
+
+    private void normalize(Properties properties)
+    {
+        HashSet<Object> keys = new HashSet<>(properties.keySet());
+        for(Object key: keys)
+        {
+            Object value = properties.get(key);
+            if(!(value instanceof String))
+                properties.put(key, String.valueOf(value));
+        }
     }
 
     private void store(Properties properties, String key, Machine machine)
@@ -1064,19 +1201,6 @@ public class PropertiesDB implements CardDataBase
         }
     }
 
-    private void store(Properties properties, String key, ItemStack stack)
-    {
-        if(stack != null)
-        {
-            properties.put(key, String.valueOf(stack));
-            properties.put(key+".type", String.valueOf(GameData.getItemRegistry().getNameForObject(stack.getItem())));
-            properties.put(key+".meta", stack.getItemDamage());
-            properties.put(key+".amount", stack.stackSize);
-            if(stack.hasTagCompound())
-                properties.put(key+".tags", stack.stackTagCompound.toString());
-        }
-    }
-
     @Override
     public Collection<PlayerData> getAllPlayerData() throws DataStoreException
     {
@@ -0,0 +1,432 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import cpw.mods.fml.common.FMLCommonHandler;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends lines to many log files of a directory, like one log per machine, keeping the recently used files open.
+ * <p>
+ * Each log is written to {@code <name>.log} by a buffered writer that stays open until it's evicted by the least
+ * recently used policy. The buffers are flushed at the end of the server tick, so all lines written during a tick
+ * reach the disk together.
+ * <p>
+ * When the active file gets too big or too old it's renamed to {@code <name>.<yyyyMMdd-HHmmss>.log} and a background
+ * thread compresses it to {@code .log.gz} and deletes the segments of that log that are out of the retention policy.
+ * Segments that weren't compressed because the server stopped are compressed when the pool is created.
+ */
+public final class RotatingLogPool
+{
+    private static final Pattern SEGMENT = Pattern.compile("^(.+)\\.(\\d{8}-\\d{6})(?:-(\\d+))?\\.log(\\.gz)?$");
+    private static final String ACTIVE_SUFFIX = ".log";
+    private static final String START_SUFFIX = ".start";
+
+    /**
+     * Limits of the log files, zero disables the limit
+     */
+    public static final class Policy
+    {
+        public static final Policy DEFAULT = new Policy(4L * 1024 * 1024, 24L * 60 * 60 * 1000, 30L * 24 * 60 * 60 * 1000, 50, 32);
+
+        private final long maxSegmentBytes, maxSegmentAge, retention;
+        private final int maxSegments, maxOpenFiles;
+
+        /**
+         * @param maxSegmentBytes The size in bytes that makes the active file rotate
+         * @param maxSegmentAge The age in milliseconds that makes the active file rotate
+         * @param retention The time in milliseconds that the rotated segments are kept
+         * @param maxSegments The amount of rotated segments that are kept for each log
+         * @param maxOpenFiles The amount of files kept open, at least one
+         */
+        public Policy(long maxSegmentBytes, long maxSegmentAge, long retention, int maxSegments, int maxOpenFiles)
+        {
+            this.maxSegmentBytes = Math.max(0, maxSegmentBytes);
+            this.maxSegmentAge = Math.max(0, maxSegmentAge);
+            this.retention = Math.max(0, retention);
+            this.maxSegments = Math.max(0, maxSegments);
+            this.maxOpenFiles = Math.max(1, maxOpenFiles);
+        }
+    }
+
+    private final class Handle
+    {
+        private final String name;
+        private final File file;
+        private final File startFile;
+        private final Writer writer;
+        private final long created;
+        private long size;
+
+        private Handle(String name) throws IOException
+        {
+            this.name = name;
+            this.file = new File(dir, name + ACTIVE_SUFFIX);
+            this.startFile = new File(dir, name + ACTIVE_SUFFIX + START_SUFFIX);
+            if(file.isFile())
+            {
+                size = file.length();
+                created = readStart(file, startFile);
+            }
+            else
+            {
+                created = System.currentTimeMillis();
+                writeStart(startFile, created);
+            }
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        }
+
+        private boolean shouldRotate(long now, long increment)
+        {
+            return size > 0 && (policy.maxSegmentBytes > 0 && size + increment > policy.maxSegmentBytes
+                    || policy.maxSegmentAge > 0 && now - created >= policy.maxSegmentAge);
+        }
+
+        private void close()
+        {
+            try
+            {
+                writer.close();
+            }
+            catch (IOException e)
+            {
+                UniversalCoinsServer.logger.error("Failed to close the log "+file, e);
+            }
+        }
+    }
+
+    private final File dir;
+    private final Policy policy;
+    private final SimpleDateFormat segmentFormat = new SimpleDateFormat("yyyyMMdd-HHmmss");
+    private final Set<Handle> dirty = new LinkedHashSet<>();
+    private final LinkedHashMap<String, Handle> open;
+    private final ExecutorService compressor = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(@Nonnull Runnable r)
+        {
+            Thread thread = new Thread(r, "UniversalCoins Log Compressor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    public RotatingLogPool(@Nonnull File dir, @Nonnull Policy policy)
+    {
+        this.dir = dir;
+        this.policy = policy;
+        this.open = new LinkedHashMap<String, Handle>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Handle> eldest)
+            {
+                if(size() <= RotatingLogPool.this.policy.maxOpenFiles)
+                    return false;
+
+                Handle handle = eldest.getValue();
+                dirty.remove(handle);
+                handle.close();
+                return true;
+            }
+        };
+
+        compressor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                recoverSegments();
+            }
+        });
+
+        FMLCommonHandler.instance().bus().register(this);
+    }
+
+    /**
+     * Appends a line to a log, the line separator is added by this method
+     * @param name The log name, without extension
+     */
+    public synchronized void append(@Nonnull String name, @Nonnull String line) throws IOException
+    {
+        long now = System.currentTimeMillis();
+        long increment = utf8Length(line) + 1;
+        Handle handle = open.get(name);
+        if(handle != null && handle.shouldRotate(now, increment))
+        {
+            rotate(handle);
+            handle = null;
+        }
+
+        if(handle == null)
+        {
+            handle = new Handle(name);
+            if(handle.shouldRotate(now, increment))
+            {
+                rotate(handle);
+                handle = new Handle(name);
+            }
+            open.put(name, handle);
+        }
+
+        try
+        {
+            handle.writer.write(line);
+            handle.writer.write('\n');
+        }
+        catch (IOException e)
+        {
+            open.remove(name);
+            dirty.remove(handle);
+            handle.close();
+            throw e;
+        }
+
+        handle.size += increment;
+        dirty.add(handle);
+    }
+
+    /**
+     * Writes the buffered lines to the disk
+     */
+    public synchronized void flush()
+    {
+        if(dirty.isEmpty())
+            return;
+
+        for(Handle handle: dirty)
+        {
+            try
+            {
+                handle.writer.flush();
+            }
+            catch (IOException e)
+            {
+                UniversalCoinsServer.logger.error("Failed to flush the log "+handle.file, e);
+            }
+        }
+        dirty.clear();
+    }
+
+    /**
+     * Closes all open files, they are opened again if more lines are appended
+     */
+    public synchronized void closeAll()
+    {
+        dirty.clear();
+        for(Handle handle: open.values())
+            handle.close();
+        open.clear();
+    }
+
+    /**
+     * Closes all open files and stops the compression thread after it compresses the segments that were already
+     * rotated. The pool can't be used after this call.
+     */
+    public void close()
+    {
+        FMLCommonHandler.instance().bus().unregister(this);
+        closeAll();
+        compressor.shutdown();
+        try
+        {
+            if(!compressor.awaitTermination(30, TimeUnit.SECONDS))
+                UniversalCoinsServer.logger.warn("The log compressor didn't finish in time, the pending segments of "
+                        +dir+" will be compressed on the next start");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The file system creation time can't be used because it's the modification time on most Linux file systems,
+     * so the time when the active file was created is kept in a {@code <name>.log.start} file.
+     * Active files without it were created by older versions and are considered as old as their creation time.
+     */
+    private static long readStart(File file, File startFile) throws IOException
+    {
+        if(startFile.isFile())
+        {
+            try(BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(startFile), StandardCharsets.UTF_8)))
+            {
+                String line = reader.readLine();
+                if(line != null)
+                    return Long.parseLong(line.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                UniversalCoinsServer.logger.warn("Corrupted log start time "+startFile+", using the file time", e);
+            }
+        }
+
+        long created = Files.readAttributes(file.toPath(), BasicFileAttributes.class).creationTime().toMillis();
+        writeStart(startFile, created);
+        return created;
+    }
+
+    private static void writeStart(File startFile, long created) throws IOException
+    {
+        try(Writer writer = new OutputStreamWriter(new FileOutputStream(startFile), StandardCharsets.UTF_8))
+        {
+            writer.write(Long.toString(created));
+        }
+    }
+
+    /**
+     * @return The amount of bytes needed to encode the string in UTF-8, without encoding it
+     */
+    static int utf8Length(String str)
+    {
+        int length = str.length();
+        int bytes = length;
+        for(int i = 0; i < length; i++)
+        {
+            char c = str.charAt(i);
+            if(c < 0x80)
+                continue;
+
+            if(c < 0x800)
+                bytes++;
+            else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1)))
+            {
+                bytes += 2;
+                i++;
+            }
+            else
+                bytes += 2;
+        }
+        return bytes;
+    }
+
+    private void rotate(Handle handle) throws IOException
+    {
+        open.remove(handle.name);
+        dirty.remove(handle);
+        handle.close();
+
+        String stamp = segmentFormat.format(new Date());
+        File segment = new File(dir, handle.name + "." + stamp + ACTIVE_SUFFIX);
+        for(int i = 1; segment.exists() || new File(segment.getPath() + ".gz").exists(); i++)
+            segment = new File(dir, handle.name + "." + stamp + "-" + i + ACTIVE_SUFFIX);
+
+        if(!handle.file.renameTo(segment))
+            throw new IOException("Failed to rotate "+handle.file+" to "+segment);
+        if(handle.startFile.isFile() && !handle.startFile.delete())
+            UniversalCoinsServer.logger.warn("Failed to delete the start time of the rotated log "+handle.startFile);
+
+        final File rotated = segment;
+        final String name = handle.name;
+        compressor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                compress(rotated);
+                applyRetention(name);
+            }
+        });
+    }
+
+    private void compress(File segment)
+    {
+        File target = new File(segment.getPath() + ".gz");
+        File temp = new File(segment.getPath() + ".gz.tmp");
+        try
+        {
+            try(InputStream in = new FileInputStream(segment); OutputStream out = new GZIPOutputStream(new FileOutputStream(temp)))
+            {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0)
+                    out.write(buffer, 0, read);
+            }
+
+            if(!temp.renameTo(target))
+                throw new IOException("Failed to rename "+temp+" to "+target);
+            if(!segment.delete())
+                UniversalCoinsServer.logger.warn("Failed to delete the compressed log segment "+segment);
+        }
+        catch (IOException e)
+        {
+            UniversalCoinsServer.logger.error("Failed to compress the log segment "+segment, e);
+            temp.delete();
+        }
+    }
+
+    private void applyRetention(String name)
+    {
+        if(policy.retention == 0 && policy.maxSegments == 0)
+            return;
+
+        File[] files = dir.listFiles();
+        if(files == null)
+            return;
+
+        // Oldest first, by the rotation time and then by the collision counter
+        TreeMap<String, File> segments = new TreeMap<>();
+        for(File file: files)
+        {
+            Matcher matcher = SEGMENT.matcher(file.getName());
+            if(matcher.matches() && matcher.group(1).equals(name))
+            {
+                long counter = matcher.group(3) == null? 0 : Long.parseLong(matcher.group(3));
+                segments.put(String.format("%s-%010d-%s", matcher.group(2), counter, file.getName()), file);
+            }
+        }
+
+        long expiration = System.currentTimeMillis() - policy.retention;
+        int excess = policy.maxSegments > 0? segments.size() - policy.maxSegments : 0;
+        for(File segment: segments.values())
+        {
+            if((excess-- > 0 || policy.retention > 0 && segment.lastModified() < expiration) && !segment.delete())
+                UniversalCoinsServer.logger.warn("Failed to delete the expired log segment "+segment);
+        }
+    }
+
+    private void recoverSegments()
+    {
+        File[] files = dir.listFiles();
+        if(files == null)
+            return;
+
+        Set<String> names = new HashSet<>();
+        for(File file: files)
+        {
+            Matcher matcher = SEGMENT.matcher(file.getName());
+            if(!matcher.matches())
+                continue;
+
+            if(matcher.group(4) == null)
+                compress(file);
+            names.add(matcher.group(1));
+        }
+
+        for(String name: names)
+            applyRetention(name);
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase == TickEvent.Phase.END)
+            flush();
+    }
+}
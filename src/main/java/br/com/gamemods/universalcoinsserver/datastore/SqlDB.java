@@ -5,8 +5,10 @@ import br.com.gamemods.universalcoinsserver.blocks.PlayerOwned;
 import cpw.mods.fml.common.registry.GameData;
 import net.minecraft.command.ICommandSender;
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.JsonToNBT;
+import net.minecraft.nbt.NBTException;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.ChatComponentText;
@@ -22,16 +24,111 @@ import java.util.*;
 
 public class SqlDB extends AbstractSQL<AbstractSQL.SqlAccount>
 {
+    /**
+     * Indexes used by {@link #queryTransactions(TransactionQuery)}: table, index name and columns
+     */
+    private static final String[][] QUERY_INDEXES = {
+            {"transactions", "uc_transactions_time", "`time`,`transaction_id`"},
+            {"transactions", "uc_transactions_machine", "`machine`,`time`"},
+            {"transactions", "uc_transactions_player", "`player_operator`,`time`"},
+            {"transactions", "uc_transactions_user_source", "`user_coinsource`"},
+            {"transactions", "uc_transactions_owner_source", "`owner_coinsource`"},
+            {"coin_source", "uc_coin_source_account", "`account`"},
+    };
+
+    private static final String TRANSACTION_COLUMNS =
+            "t.transaction_id, t.time, t.machine, t.player_operator, " +
+            //       1            2         3              4
+            "t.product_item, t.product_damage, t.product_amount, t.product_nbt, " +
+            //       5              6                  7                8
+            "t.trade_item, t.trade_damage, t.trade_amount, t.trade_nbt, " +
+            //       9            10              11             12
+            "t.operation, t.infinite, t.quantity, t.price, t.total_price, " +
+            //     13         14          15          16         17
+            "m.dim, m.x, m.y, m.z, m.block, m.metadata, m.owner, " +
+            //  18   19   20   21     22        23        24
+            "bo.x, bo.y, bo.z, bo.dim, bo.block_id, bo.block_meta, bo.owner, bo.machine_id, " +
+            //  25    26    27     28        29            30         31          32
+            "t.user_coinsource, t.owner_coinsource, " +
+            //      33                  34
+            coinSourceColumns("us", "usbo", "ua") + ", " +
+            //  35 .. 54
+            coinSourceColumns("os", "osbo", "oa");
+            //  55 .. 74
+
+    /**
+     * Joins the user and the owner coin sources of the transaction with their block operators and accounts
+     */
+    private static final String COIN_SOURCE_JOINS =
+            "LEFT JOIN `coin_source` AS us ON us.id=t.user_coinsource " +
+            "LEFT JOIN `block_operators` AS usbo ON usbo.operator_id=us.block_operator " +
+            "LEFT JOIN `accounts` AS ua ON ua.number=us.account " +
+            "LEFT JOIN `coin_source` AS os ON os.id=t.owner_coinsource " +
+            "LEFT JOIN `block_operators` AS osbo ON osbo.operator_id=os.block_operator " +
+            "LEFT JOIN `accounts` AS oa ON oa.number=os.account ";
+
+    /**
+     * The columns of a coin source joined with its block operator and account, read by
+     * {@link #loadCoinSource(ResultSet, int, Machine)}
+     */
+    private static String coinSourceColumns(String source, String block, String account)
+    {
+        String cs = source+".", bo = block+".", a = account+".";
+        return cs+"`before`, "+cs+"`after`, "+cs+"type, "+cs+"machine, "+cs+"account, " +
+               //    +0              +1              +2           +3              +4
+               cs+"card_item, "+cs+"card_damage, "+cs+"card_amount, "+cs+"card_nbt, "+cs+"player_operator, " +
+               //      +5                +6                 +7                +8                 +9
+               bo+"x, "+bo+"y, "+bo+"z, "+bo+"dim, "+bo+"block_id, "+bo+"block_meta, "+bo+"owner, " +
+               //  +10     +11     +12      +13         +14              +15            +16
+               bo+"machine_id, "+a+"owner, "+a+"name";
+               //      +17          +18         +19
+    }
+
     public SqlDB(Connection connection)
     {
         super(connection);
+        createQueryIndexes();
+    }
+
+    /**
+     * Creates the indexes used by the transaction queries if they don't exist yet
+     */
+    private void createQueryIndexes()
+    {
+        try
+        {
+            DatabaseMetaData metaData = connection.getMetaData();
+            for(String[] index: QUERY_INDEXES)
+            {
+                boolean found = false;
+                try(ResultSet result = metaData.getIndexInfo(connection.getCatalog(), null, index[0], false, true))
+                {
+                    while (!found && result.next())
+                        found = index[1].equalsIgnoreCase(result.getString("INDEX_NAME"));
+                }
+
+                if(found)
+                    continue;
+
+                try(Statement statement = connection.createStatement())
+                {
+                    statement.execute("CREATE INDEX `"+index[1]+"` ON `"+index[0]+"`("+index[2]+")");
+                }
+            }
+        }
+        catch (SQLException e)
+        {
+            UniversalCoinsServer.logger.warn("Failed to create the transaction query indexes, the queries may be slow", e);
+        }
     }
 
     @Nullable
     @Override
     protected SqlAccount getAccount(@Nonnull String number) throws DataStoreException
     {
-        try(PreparedStatement pst = connection.prepareStatement("SELECT `number`, `owner`, `balance`, `primary` FROM `accounts` WHERE `number`=? AND `terminated` IS NULL"))
+        try(PreparedStatement pst = connection.prepareStatement(
+                "SELECT `number`, `owner`, `balance`, `primary` FROM `accounts` WHERE `number`=? AND `terminated` IS NULL"
+                        + lockClause()))
         {
             pst.setString(1, number);
             ResultSet result = pst.executeQuery();
@@ -52,6 +149,7 @@ public class SqlDB extends AbstractSQL<AbstractSQL.SqlAccount>
     {
         try(PreparedStatement pst = connection.prepareStatement(
                 "SELECT ac.number, ac.owner, ac.balance, ac.primary FROM `custom_accounts` AS ca INNER JOIN `accounts` ON `number`=`account` WHERE ca.name=? AND `terminated` IS NULL"
+                        + lockClause()
         ))
         {
             pst.setString(1, name);
@@ -71,94 +169,162 @@ public class SqlDB extends AbstractSQL<AbstractSQL.SqlAccount>
     protected void storeTrade(@Nonnull Transaction transaction, @Nullable AbstractSQL.SqlAccount ownerAccount, int ownerIncrement, @Nullable AbstractSQL.SqlAccount userAccount, int userIncrement)
             throws DataStoreException
     {
-        try
-        {
-            connection.setAutoCommit(false);
-            if(ownerAccount != null)
-                ownerAccount.incrementBalance(ownerIncrement, null);
+        // Called by processTrade() inside the SQL transaction that locked both accounts
+        if(ownerAccount != null)
+            ownerAccount.incrementBalance(ownerIncrement, null);
 
-            if(userAccount != null)
-                userAccount.incrementBalance(userIncrement, null);
+        if(userAccount != null)
+            userAccount.incrementBalance(userIncrement, null);
 
-            saveTransaction(transaction);
-            connection.commit();
-        }
-        catch (Throwable e)
-        {
-            try
-            {
-                connection.rollback();
-            } catch (SQLException e1)
-            {
-                e1.printStackTrace();
-            }
-            throw new DataStoreException(e);
-        }
-        finally
-        {
-            try
-            {
-                connection.setAutoCommit(true);
-            }
-            catch (SQLException e)
-            {
-                e.printStackTrace();
-            }
-        }
+        saveTransaction(transaction);
     }
 
     @Override
     public void saveNewMachine(@Nonnull Machine machine) throws DataStoreException
     {
-        try(PreparedStatement pst = connection.prepareStatement(
-                "INSERT INTO `machines`(`machine_id`,`dim`,`x`,`y`,`z`,`block`,`metadata`,`tile`,`owner`) " +
-                              "VALUES  (     ?      ,  ?  , ? , ? , ? ,   ?   ,    ?     ,   ?  ,   ?   )"))
-                                        //   1         2    3   4   5     6        7         8      9
+        saveNewMachines(Collections.singletonList(machine));
+    }
+
+    @Override
+    public void saveNewMachines(@Nonnull Collection<? extends Machine> machines) throws DataStoreException
+    {
+        // Machines without world are inserted without dim, block and metadata so their transactions can reference
+        // them, the missing columns are filled by updateMachine() on their next transaction
+        Map<String, Machine> pending = new LinkedHashMap<>(machines.size() * 2);
+        for(Machine machine: machines)
+            pending.put(machine.getMachineId().toString(), machine);
+
+        if(pending.isEmpty())
+            return;
+
+        boolean inTransaction;
+        try
         {
-            pst.setString(1, machine.getMachineId().toString());
-            TileEntity machineEntity = machine.getMachineEntity();
-            pst.setInt(3, machineEntity.xCoord);
-            //noinspection SuspiciousNameCombination
-            pst.setInt(4, machineEntity.yCoord);
-            pst.setInt(5, machineEntity.zCoord);
-            if(!machineEntity.hasWorldObj())
-            {
-                pst.setNull(2, Types.INTEGER);
-                pst.setNull(6, Types.VARCHAR);
-                pst.setNull(7, Types.INTEGER);
-            }
-            else
-            {
-                pst.setInt(2, machineEntity.getWorldObj().provider.dimensionId);
-                String block = GameData.getBlockRegistry().getNameForObject(machineEntity.getBlockType());
+            inTransaction = !connection.getAutoCommit();
+        } catch (SQLException e)
+        {
+            throw new DataStoreException(e);
+        }
 
-                if(block != null)
-                    pst.setString(6, block);
-                else
-                    pst.setNull(6, Types.VARCHAR);
+        try
+        {
+            removeExistingMachines(pending);
+            if(pending.isEmpty())
+                return;
 
-                pst.setInt(7, machineEntity.getBlockMetadata());
-                pst.setString(8, machineEntity.getClass().getName());
+            if(!inTransaction)
+                connection.setAutoCommit(false);
 
+            Set<UUID> owners = new HashSet<>();
+            for(Machine machine: pending.values())
+            {
+                TileEntity machineEntity = machine.getMachineEntity();
                 if(machineEntity instanceof PlayerOwned)
                 {
                     UUID ownerId = ((PlayerOwned) machineEntity).getOwnerId();
-                    registerUser(ownerId);
+                    if(ownerId != null && owners.add(ownerId))
+                        registerUser(ownerId);
+                }
+            }
+
+            try(PreparedStatement pst = connection.prepareStatement(
+                    "INSERT INTO `machines`(`machine_id`,`dim`,`x`,`y`,`z`,`block`,`metadata`,`tile`,`owner`) " +
+                                  "VALUES  (     ?      ,  ?  , ? , ? , ? ,   ?   ,    ?     ,   ?  ,   ?   )"))
+                                            //   1         2    3   4   5     6        7         8      9
+            {
+                for(Machine machine: pending.values())
+                {
+                    pst.setString(1, machine.getMachineId().toString());
+                    TileEntity machineEntity = machine.getMachineEntity();
+                    pst.setInt(3, machineEntity.xCoord);
+                    //noinspection SuspiciousNameCombination
+                    pst.setInt(4, machineEntity.yCoord);
+                    pst.setInt(5, machineEntity.zCoord);
+                    if(!machineEntity.hasWorldObj())
+                    {
+                        pst.setNull(2, Types.INTEGER);
+                        pst.setNull(6, Types.VARCHAR);
+                        pst.setNull(7, Types.INTEGER);
+                    }
+                    else
+                    {
+                        pst.setInt(2, machineEntity.getWorldObj().provider.dimensionId);
+                        String block = GameData.getBlockRegistry().getNameForObject(machineEntity.getBlockType());
+                        if(block != null)
+                            pst.setString(6, block);
+                        else
+                            pst.setNull(6, Types.VARCHAR);
+
+                        pst.setInt(7, machineEntity.getBlockMetadata());
+                    }
+                    pst.setString(8, machineEntity.getClass().getName());
+
+                    UUID ownerId = machineEntity instanceof PlayerOwned? ((PlayerOwned) machineEntity).getOwnerId() : null;
                     if(ownerId != null)
                         pst.setString(9, ownerId.toString());
                     else
                         pst.setNull(9, Types.VARCHAR);
+
+                    pst.addBatch();
                 }
-                else
-                    pst.setNull(9, Types.VARCHAR);
 
-                pst.executeUpdate();
+                pst.executeBatch();
             }
+
+            if(!inTransaction)
+                commit();
         }
-        catch (SQLException e)
+        catch (Throwable e)
         {
+            if(!inTransaction)
+                try
+                {
+                    rollback();
+                }
+                catch (Exception e1)
+                {
+                    e1.printStackTrace();
+                }
+
             throw new DataStoreException(e);
         }
+        finally
+        {
+            if(!inTransaction)
+                try
+                {
+                    connection.setAutoCommit(true);
+                } catch (SQLException e)
+                {
+                    e.printStackTrace();
+                }
+        }
+    }
+
+    /**
+     * Removes the machines that are already saved, the ids are checked in chunks to keep the statements small
+     */
+    private void removeExistingMachines(Map<String, Machine> machines) throws SQLException
+    {
+        List<String> ids = new ArrayList<>(machines.keySet());
+        for(int start = 0; start < ids.size(); start += 100)
+        {
+            List<String> chunk = ids.subList(start, Math.min(start + 100, ids.size()));
+            StringBuilder sql = new StringBuilder("SELECT `machine_id` FROM `machines` WHERE `machine_id` IN (?");
+            for(int i = 1; i < chunk.size(); i++)
+                sql.append(",?");
+            sql.append(')');
+
+            try(PreparedStatement pst = connection.prepareStatement(sql.toString()))
+            {
+                for(int i = 0; i < chunk.size(); i++)
+                    pst.setString(i + 1, chunk.get(i));
+
+                ResultSet result = pst.executeQuery();
+                while (result.next())
+                    machines.remove(result.getString(1));
+            }
+        }
     }
 
     private void updateMachine(@Nullable Machine machine) throws DataStoreException
@@ -506,18 +672,18 @@ public class SqlDB extends AbstractSQL<AbstractSQL.SqlAccount>
                     pst.setNull(20, Types.INTEGER);
 
                 pst.executeUpdate();
-
-                if(!inTransaction)
-                    connection.commit();
             }
 
+            uncommitted.add(transaction);
+            if(!inTransaction)
+                commit();
         }
         catch (Throwable e)
         {
             if(!inTransaction)
                 try
                 {
-                    connection.rollback();
+                    rollback();
                 }
                 catch (Exception e1)
                 {
@@ -539,6 +705,200 @@ public class SqlDB extends AbstractSQL<AbstractSQL.SqlAccount>
         }
     }
 
+    @Nonnull
+    @Override
+    public TransactionQuery.Page queryTransactions(@Nonnull TransactionQuery query) throws DataStoreException
+    {
+        StringBuilder sql = new StringBuilder("SELECT ").append(TRANSACTION_COLUMNS).append(" FROM `transactions` AS t " +
+                "LEFT JOIN `machines` AS m ON m.machine_id=t.machine " +
+                "LEFT JOIN `block_operators` AS bo ON bo.operator_id=t.block_operator " +
+                COIN_SOURCE_JOINS + "WHERE 1=1");
+        List<Object> params = new ArrayList<>();
+        if(query.getFrom() != Long.MIN_VALUE)
+        {
+            sql.append(" AND t.time>=?");
+            params.add(new Timestamp(query.getFrom()));
+        }
+        if(query.getTo() != Long.MAX_VALUE)
+        {
+            sql.append(" AND t.time<?");
+            params.add(new Timestamp(query.getTo()));
+        }
+        if(query.getMachine() != null)
+        {
+            sql.append(" AND t.machine=?");
+            params.add(query.getMachine().toString());
+        }
+        if(query.getPlayer() != null)
+        {
+            sql.append(" AND t.player_operator=?");
+            params.add(query.getPlayer().toString());
+        }
+        if(query.getAccount() != null)
+        {
+            sql.append(" AND (t.user_coinsource IN (SELECT `id` FROM `coin_source` WHERE `account`=?)" +
+                    " OR t.owner_coinsource IN (SELECT `id` FROM `coin_source` WHERE `account`=?))");
+            params.add(query.getAccount());
+            params.add(query.getAccount());
+        }
+        if(query.getAfterId() != null)
+        {
+            Timestamp after = new Timestamp(query.getAfterTime());
+            sql.append(" AND (t.time<? OR t.time=? AND t.transaction_id<?)");
+            params.add(after);
+            params.add(after);
+            params.add(query.getAfterId());
+        }
+        sql.append(" ORDER BY t.time DESC, t.transaction_id DESC LIMIT ?");
+        params.add(query.getLimit() + 1);
+
+        try(PreparedStatement pst = connection.prepareStatement(sql.toString()))
+        {
+            for(int i = 0; i < params.size(); i++)
+                pst.setObject(i + 1, params.get(i));
+
+            List<Transaction> transactions = new ArrayList<>(query.getLimit() + 1);
+            try(ResultSet result = pst.executeQuery())
+            {
+                while (result.next())
+                    transactions.add(loadTransaction(result));
+            }
+            return new TransactionQuery.Page(query, transactions);
+        }
+        catch (SQLException|RuntimeException e)
+        {
+            throw new DataStoreException(e);
+        }
+    }
+
+    private Transaction loadTransaction(ResultSet result) throws SQLException
+    {
+        String machineId = result.getString(3);
+        TransactionCodec.MachineRecord machine = null;
+        if(machineId != null)
+        {
+            String owner = result.getString(24);
+            machine = new TransactionCodec.MachineRecord(UUID.fromString(machineId), getInteger(result, 19),
+                    getInteger(result, 20), getInteger(result, 21), getInteger(result, 18), result.getString(22),
+                    getInteger(result, 23), owner == null? null : UUID.fromString(owner));
+        }
+
+        Operator operator = null;
+        String playerOperator = result.getString(4);
+        if(playerOperator != null)
+            operator = new PlayerOperator(UUID.fromString(playerOperator));
+        else if(getInteger(result, 25) != null)
+            operator = loadBlockOperator(result, 25);
+
+        Transaction.Operation operation;
+        try
+        {
+            operation = Transaction.Operation.valueOf(result.getString(13));
+        }
+        catch (IllegalArgumentException e)
+        {
+            operation = null;
+        }
+
+        return new Transaction(UUID.fromString(result.getString(1)), result.getTimestamp(2).getTime(), machine,
+                operator, loadStack(result, 5), loadStack(result, 9), operation, result.getBoolean(14),
+                result.getInt(15), result.getInt(16), result.getInt(17),
+                getInteger(result, 33) == null? null : loadCoinSource(result, 35, machine),
+                getInteger(result, 34) == null? null : loadCoinSource(result, 55, machine));
+    }
+
+    /**
+     * Reads the block operator columns x, y, z, dim, block_id, block_meta, owner and machine_id starting at {@code column}
+     */
+    private TransactionCodec.BlockRecord loadBlockOperator(ResultSet result, int column) throws SQLException
+    {
+        String owner = result.getString(column + 6);
+        String machineId = result.getString(column + 7);
+        return new TransactionCodec.BlockRecord(result.getInt(column), result.getInt(column + 1),
+                result.getInt(column + 2), getInteger(result, column + 3), result.getString(column + 4),
+                getInteger(result, column + 5), owner == null? null : UUID.fromString(owner),
+                machineId == null? null : UUID.fromString(machineId));
+    }
+
+    /**
+     * Reads the {@link #coinSourceColumns(String, String, String)} starting at {@code column}
+     * @return {@code null} if the type of the coin source is unknown
+     */
+    @Nullable
+    private Transaction.CoinSource loadCoinSource(ResultSet result, int column, @Nullable Machine transactionMachine)
+            throws SQLException
+    {
+        int before = result.getInt(column);
+        int after = result.getInt(column + 1);
+        String type = String.valueOf(result.getString(column + 2));
+        switch (type)
+        {
+            case "machine":
+            {
+                UUID machineId = UUID.fromString(result.getString(column + 3));
+                Machine machine = transactionMachine != null && machineId.equals(transactionMachine.getMachineId())?
+                        transactionMachine : new TransactionCodec.MachineRecord(machineId);
+                return new Transaction.MachineCoinSource(machine, before, after - before);
+            }
+            case "card":
+            {
+                String account = result.getString(column + 4);
+                String owner = result.getString(column + 18);
+                String name = result.getString(column + 19);
+                AccountAddress address = new AccountAddress(account, name == null? account : name,
+                        owner == null? new UUID(0, 0) : UUID.fromString(owner));
+                return new Transaction.CardCoinSource(loadStack(result, column + 5), address, before, after);
+            }
+            case "inventory":
+            {
+                String player = result.getString(column + 9);
+                Operator holder = player != null? new PlayerOperator(UUID.fromString(player))
+                        : getInteger(result, column + 10) != null? loadBlockOperator(result, column + 10) : null;
+                return new Transaction.InventoryCoinSource(holder, before, after - before);
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reads the item, damage, amount and nbt columns starting at {@code column}
+     * @return {@code null} if there's no stack or if the item is no longer registered
+     */
+    @Nullable
+    private ItemStack loadStack(ResultSet result, int column) throws SQLException
+    {
+        String type = result.getString(column);
+        if(type == null)
+            return null;
+
+        Item item = (Item) GameData.getItemRegistry().getObject(type);
+        if(item == null)
+            return null;
+
+        ItemStack stack = new ItemStack(item, result.getInt(column + 2), result.getInt(column + 1));
+        String nbt = result.getString(column + 3);
+        if(nbt != null)
+        {
+            try
+            {
+                stack.setTagCompound((NBTTagCompound) JsonToNBT.func_150315_a(nbt));
+            }
+            catch (NBTException e)
+            {
+                UniversalCoinsServer.logger.warn("Invalid stored NBT of "+type+": "+nbt, e);
+            }
+        }
+        return stack;
+    }
+
+    @Nullable
+    private static Integer getInteger(ResultSet result, int column) throws SQLException
+    {
+        int value = result.getInt(column);
+        return result.wasNull()? null : value;
+    }
+
     @Nonnull
     @Override
     public PlayerData getPlayerData(@Nonnull UUID playerUID) throws DataStoreException
@@ -717,14 +1077,14 @@ public class SqlDB extends AbstractSQL<AbstractSQL.SqlAccount>
             }
 
             if(!inTransaction)
-                connection.commit();
+                commit();
             return new AccountAddress(number, name, playerUID);
         }
         catch (Throwable e)
         {
             try
             {
-                connection.rollback();
+                rollback();
             }
             catch (SQLException e1)
             {
@@ -831,7 +1191,7 @@ public class SqlDB extends AbstractSQL<AbstractSQL.SqlAccount>
         {
             try
             {
-                connection.rollback();
+                rollback();
             } catch (SQLException e1)
             {
                 e1.printStackTrace();
@@ -869,14 +1229,14 @@ public class SqlDB extends AbstractSQL<AbstractSQL.SqlAccount>
                 pst.executeUpdate();
             }
 
-            connection.commit();
+            commit();
             return newAccount;
         }
         catch (Throwable e)
         {
             try
             {
-                connection.rollback();
+                rollback();
             } catch (SQLException e1)
             {
                 e1.printStackTrace();
@@ -942,7 +1302,7 @@ public class SqlDB extends AbstractSQL<AbstractSQL.SqlAccount>
             saveTransaction(transaction);
 
             if(!inTransaction)
-                connection.commit();
+                commit();
             return newAddress;
         }
         catch (Throwable e)
@@ -950,7 +1310,7 @@ public class SqlDB extends AbstractSQL<AbstractSQL.SqlAccount>
             if(!inTransaction)
                 try
                 {
-                    connection.rollback();
+                    rollback();
                 } catch (SQLException e1)
                 {
                     e1.printStackTrace();
@@ -1161,13 +1521,13 @@ public class SqlDB extends AbstractSQL<AbstractSQL.SqlAccount>
 
             logger.info("");
             logger.info("Import finished, committing");
-            connection.commit();
+            commit();
         }
         catch (Throwable e)
         {
             try
             {
-                connection.rollback();
+                rollback();
             } catch (SQLException e1)
             {
                 e1.printStackTrace();
@@ -1,6 +1,5 @@
 package br.com.gamemods.universalcoinsserver.datastore;
 
-import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
 import br.com.gamemods.universalcoinsserver.api.UniversalCoinsServerAPI;
 import br.com.gamemods.universalcoinsserver.tile.TilePackager;
 import br.com.gamemods.universalcoinsserver.tile.TileSignal;
@@ -8,6 +7,7 @@ import br.com.gamemods.universalcoinsserver.tile.TileSlots;
 import br.com.gamemods.universalcoinsserver.tile.TileVendor;
 import net.minecraft.item.ItemStack;
 
+import javax.annotation.Nonnull;
 import java.util.UUID;
 
 public final class Transaction
@@ -41,6 +41,16 @@ public final class Transaction
         this.ownerCoinSource = ownerCoinSource;
     }
 
+    /**
+     * Restores a transaction that was already recorded, keeping its original id and time
+     */
+    Transaction(UUID id, long time, Machine machine, Operator operator, ItemStack product, ItemStack trade, Operation operation, boolean infiniteMachine, int quantity, int price, int totalPrice, CoinSource userCoinSource, CoinSource ownerCoinSource)
+    {
+        this(machine, operator, product, trade, operation, infiniteMachine, quantity, price, totalPrice, userCoinSource, ownerCoinSource);
+        this.id = id;
+        this.time = time;
+    }
+
     public Transaction(TileVendor vendor, Operation operation, int quantity,
                         CoinSource userSource, CoinSource ownerSource, ItemStack product)
     {
@@ -116,7 +126,7 @@ public final class Transaction
         this.quantity = 1;
         this.userCoinSource = cardCoinSource;
         this.ownerCoinSource = ownerCoinSource;
-        this.price = cardCoinSource.getBalanceAfter() - cardCoinSource.getBalanceBefore();
+        this.price = cardCoinSource.getIncrement();
         this.totalPrice = price;
         this.product = product;
     }
@@ -132,16 +142,41 @@ public final class Transaction
         product = cardCoinSource.getCard();
     }
 
+    /**
+     * Fills the balances of the card coin sources of this transaction that belong to an account and weren't resolved yet.
+     * <p>
+     * Called by the data stores with the balance they loaded before applying the increment, so the logged balances
+     * are the ones that were really changed.
+     */
+    public void resolveBalance(@Nonnull Object account, int balanceBefore)
+    {
+        String number = account.toString();
+        if(userCoinSource instanceof CardCoinSource)
+            ((CardCoinSource) userCoinSource).resolve(number, balanceBefore);
+        if(ownerCoinSource instanceof CardCoinSource)
+            ((CardCoinSource) ownerCoinSource).resolve(number, balanceBefore);
+    }
+
     public static abstract class CoinSource
     {
         public abstract int getBalanceBefore();
         public abstract int getBalanceAfter();
+
+        /**
+         * @return The amount of coins added to this source, negative if coins were taken
+         */
+        public int getIncrement()
+        {
+            return getBalanceAfter() - getBalanceBefore();
+        }
     }
 
     public static class CardCoinSource extends CoinSource
     {
         private ItemStack card;
         private AccountAddress accountAddress;
+        private int increment;
+        private boolean resolved;
         private int balanceBefore;
         private int balanceAfter;
 
@@ -151,18 +186,25 @@ public final class Transaction
             this.accountAddress = accountAddress;
             this.balanceBefore = balanceBefore;
             this.balanceAfter = balanceAfter;
+            this.increment = balanceAfter - balanceBefore;
+            this.resolved = true;
         }
 
-        public CardCoinSource(AccountAddress accountAddress, int increment) throws AccountNotFoundException, DataStoreException
+        /**
+         * Creates a pending increment, the balances are filled by the data store while it processes the transaction
+         */
+        public CardCoinSource(AccountAddress accountAddress, int increment) throws NullPointerException
         {
             if(accountAddress == null)
                 throw new NullPointerException("accountAddress");
             this.accountAddress = accountAddress;
-            this.balanceBefore = UniversalCoinsServer.cardDb.getAccountBalance(accountAddress.getNumber());
-            this.balanceAfter = balanceBefore + increment;
+            this.increment = increment;
         }
 
-        public CardCoinSource(ItemStack card, int increment) throws NullPointerException, AccountNotFoundException, DataStoreException
+        /**
+         * @see #CardCoinSource(AccountAddress, int)
+         */
+        public CardCoinSource(ItemStack card, int increment) throws NullPointerException
         {
             if(card == null)
                 throw new NullPointerException("card");
@@ -170,8 +212,37 @@ public final class Transaction
             accountAddress = UniversalCoinsServerAPI.getAddress(card);
             if(accountAddress == null)
                 throw new NullPointerException("accountAddress");
-            balanceBefore = UniversalCoinsServer.cardDb.getAccountBalance(accountAddress.getNumber());
-            balanceAfter = balanceBefore + increment;
+            this.increment = increment;
+        }
+
+        void resolve(String account, int balanceBefore)
+        {
+            if(resolved || !account.equals(accountAddress.getNumber().toString()))
+                return;
+
+            this.balanceBefore = balanceBefore;
+            this.balanceAfter = balanceBefore + increment;
+            resolved = true;
+        }
+
+        /**
+         * @throws IllegalStateException If the balances weren't filled by a data store yet
+         */
+        private void checkResolved() throws IllegalStateException
+        {
+            if(!resolved)
+                throw new IllegalStateException("The balance of "+accountAddress+" wasn't resolved by a data store");
+        }
+
+        public boolean isResolved()
+        {
+            return resolved;
+        }
+
+        @Override
+        public int getIncrement()
+        {
+            return increment;
         }
 
         public AccountAddress getAccountAddress()
@@ -185,14 +256,16 @@ public final class Transaction
         }
 
         @Override
-        public int getBalanceAfter()
+        public int getBalanceAfter() throws IllegalStateException
         {
+            checkResolved();
             return balanceAfter;
         }
 
         @Override
-        public int getBalanceBefore()
+        public int getBalanceBefore() throws IllegalStateException
         {
+            checkResolved();
             return balanceBefore;
         }
 
@@ -202,8 +275,8 @@ public final class Transaction
             return "CardCoinSource{" +
                     "accountAddress='" + accountAddress + '\'' +
                     ", card=" + card +
-                    ", balanceBefore=" + balanceBefore +
-                    ", balanceAfter=" + balanceAfter +
+                    ", increment=" + increment +
+                    (resolved? ", balanceBefore=" + balanceBefore + ", balanceAfter=" + balanceAfter : "") +
                     '}';
         }
     }
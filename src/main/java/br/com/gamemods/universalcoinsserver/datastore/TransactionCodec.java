@@ -0,0 +1,754 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import br.com.gamemods.universalcoinsserver.blocks.PlayerOwned;
+import cpw.mods.fml.common.registry.GameData;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.World;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact binary format for {@link Transaction} records.
+ * <p>
+ * A stream is a sequence of entries, each one starting with a tag byte. A header entry holds the format version and
+ * resets the string table, so streams can be appended to an existing file by writing a new header. A record entry
+ * holds the length of the record followed by the record itself, so unknown or truncated records can be skipped.
+ * <p>
+ * Integers are written as varints, signed values use the zigzag encoding, UUIDs are written as two raw longs and
+ * the strings, like item registry names and account numbers, are written once per stream by a string entry and are
+ * referenced by index after that. Since the strings are outside of the records, a reader can skip records without
+ * decoding them. Version 1 streams, which had the strings inside the records, are still readable.
+ * <p>
+ * Decoded transactions reference {@link MachineRecord} and {@link BlockRecord} instead of the live tile entities.
+ */
+public final class TransactionCodec
+{
+    public static final int MAGIC = 0x55435458; // UCTX
+    public static final int VERSION = 2;
+
+    private static final int ENTRY_HEADER = 0;
+    private static final int ENTRY_RECORD = 1;
+    private static final int ENTRY_STRING = 2;
+
+    private static final int OPERATOR_PLAYER = 1, OPERATOR_BLOCK = 2, OPERATOR_MACHINE = 3;
+    private static final int SOURCE_MACHINE = 1, SOURCE_CARD = 2, SOURCE_INVENTORY = 3;
+
+    private static final int BLOCK_DIM = 1, BLOCK_ID = 2, BLOCK_META = 4, BLOCK_OWNER = 8, BLOCK_NO_POSITION = 16;
+
+    private static final long MAX_NBT_SIZE = 2097152L;
+
+    private static final Transaction.Operation[] OPERATIONS = Transaction.Operation.values();
+
+    private TransactionCodec()
+    {
+    }
+
+    /**
+     * Encodes a single transaction with its own header, to be used as payload
+     */
+    @Nonnull
+    public static byte[] encode(@Nonnull Transaction transaction) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        new Writer(new DataOutputStream(bytes)).write(transaction);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a payload created by {@link #encode(Transaction)}
+     */
+    @Nonnull
+    public static Transaction decode(@Nonnull byte[] payload) throws IOException
+    {
+        Transaction transaction = new Reader(new DataInputStream(new ByteArrayInputStream(payload))).read();
+        if(transaction == null)
+            throw new EOFException("The payload doesn't contain a transaction");
+        return transaction;
+    }
+
+    /**
+     * Writes transactions to a stream, the header is written when the writer is created.
+     * The strings written by this writer are interned until the writer is discarded.
+     */
+    public static final class Writer
+    {
+        private final DataOutput out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        private final DataOutputStream record = new DataOutputStream(buffer);
+
+        public Writer(@Nonnull DataOutput out) throws IOException
+        {
+            this.out = out;
+            out.writeByte(ENTRY_HEADER);
+            out.writeInt(MAGIC);
+            writeVarInt(out, VERSION);
+        }
+
+        public void write(@Nonnull Transaction transaction) throws IOException
+        {
+            buffer.reset();
+            DataOutputStream out = record;
+            writeUuid(out, transaction.getId());
+            writeVarLong(out, transaction.getTime());
+            Transaction.Operation operation = transaction.getOperation();
+            writeVarInt(out, operation == null? 0 : operation.ordinal() + 1);
+            out.writeBoolean(transaction.isInfiniteMachine());
+            writeSignedVarInt(out, transaction.getQuantity());
+            writeSignedVarInt(out, transaction.getPrice());
+            writeSignedVarInt(out, transaction.getTotalPrice());
+            writeMachine(out, transaction.getMachine());
+            writeOperator(out, transaction.getOperator());
+            writeCoinSource(out, transaction.getUserCoinSource());
+            writeCoinSource(out, transaction.getOwnerCoinSource());
+            writeStack(out, transaction.getProduct());
+            writeStack(out, transaction.getTrade());
+
+            this.out.writeByte(ENTRY_RECORD);
+            writeVarInt(this.out, buffer.size());
+            this.out.write(buffer.toByteArray(), 0, buffer.size());
+        }
+
+        private void writeString(DataOutput out, @Nullable String str) throws IOException
+        {
+            if(str == null)
+            {
+                writeVarInt(out, 0);
+                return;
+            }
+
+            Integer index = strings.get(str);
+            if(index != null)
+            {
+                writeVarInt(out, index + 2);
+                return;
+            }
+
+            index = strings.size();
+            strings.put(str, index);
+            this.out.writeByte(ENTRY_STRING);
+            this.out.writeUTF(str);
+            writeVarInt(out, index + 2);
+        }
+
+        private void writeMachine(DataOutput out, @Nullable Machine machine) throws IOException
+        {
+            if(machine == null)
+            {
+                out.writeBoolean(false);
+                return;
+            }
+
+            out.writeBoolean(true);
+            writeUuid(out, machine.getMachineId());
+
+            UUID owner = machine instanceof PlayerOwned? ((PlayerOwned) machine).getOwnerId() : null;
+            if(machine instanceof MachineRecord)
+            {
+                MachineRecord record = (MachineRecord) machine;
+                if(record.x == null)
+                    writeBlock(out, false, 0, 0, 0, record.dim, record.blockId, record.blockMeta, owner);
+                else
+                    writeBlock(out, true, record.x, record.y, record.z, record.dim, record.blockId, record.blockMeta,
+                            owner);
+                return;
+            }
+
+            TileEntity te = machine.getMachineEntity();
+            if(te == null)
+            {
+                writeBlock(out, false, 0, 0, 0, null, null, null, owner);
+                return;
+            }
+
+            World world = te.getWorldObj();
+            Integer dim = null, meta = null;
+            String blockId = null;
+            if(world != null)
+            {
+                dim = world.provider.dimensionId;
+                blockId = GameData.getBlockRegistry().getNameForObject(te.getBlockType());
+                meta = te.getBlockMetadata();
+            }
+            writeBlock(out, true, te.xCoord, te.yCoord, te.zCoord, dim, blockId, meta, owner);
+        }
+
+        private void writeBlock(DataOutput out, boolean positioned, int x, int y, int z, @Nullable Integer dim,
+                                @Nullable String blockId, @Nullable Integer blockMeta, @Nullable UUID owner)
+                throws IOException
+        {
+            int flags = (dim != null? BLOCK_DIM : 0) | (blockId != null? BLOCK_ID : 0)
+                    | (blockMeta != null? BLOCK_META : 0) | (owner != null? BLOCK_OWNER : 0)
+                    | (positioned? 0 : BLOCK_NO_POSITION);
+            out.writeByte(flags);
+            if(positioned)
+            {
+                writeSignedVarInt(out, x);
+                writeSignedVarInt(out, y);
+                writeSignedVarInt(out, z);
+            }
+            if(dim != null) writeSignedVarInt(out, dim);
+            if(blockId != null) writeString(out, blockId);
+            if(blockMeta != null) writeVarInt(out, blockMeta);
+            if(owner != null) writeUuid(out, owner);
+        }
+
+        private void writeOperator(DataOutput out, @Nullable Operator operator) throws IOException
+        {
+            if(operator instanceof PlayerOperator)
+            {
+                out.writeByte(OPERATOR_PLAYER);
+                writeUuid(out, ((PlayerOperator) operator).getPlayerId());
+            }
+            else if(operator instanceof BlockOperator)
+            {
+                UUID machineId = null;
+                if(operator instanceof MachineOperator)
+                    machineId = ((MachineOperator) operator).getMachine().getMachineId();
+                else if(operator instanceof BlockRecord)
+                    machineId = ((BlockRecord) operator).getMachineId();
+
+                out.writeByte(machineId != null? OPERATOR_MACHINE : OPERATOR_BLOCK);
+                if(machineId != null)
+                    writeUuid(out, machineId);
+
+                BlockOperator block = (BlockOperator) operator;
+                writeBlock(out, true, block.getX(), block.getY(), block.getZ(), block.getDim(), block.getBlockId(),
+                        block.getBlockMeta(), block.getOwner());
+            }
+            else
+                out.writeByte(0);
+        }
+
+        private void writeCoinSource(DataOutput out, @Nullable Transaction.CoinSource coinSource) throws IOException
+        {
+            if(coinSource instanceof Transaction.MachineCoinSource)
+            {
+                out.writeByte(SOURCE_MACHINE);
+                writeBalances(out, coinSource);
+                writeUuid(out, ((Transaction.MachineCoinSource) coinSource).getMachine().getMachineId());
+            }
+            else if(coinSource instanceof Transaction.CardCoinSource)
+            {
+                Transaction.CardCoinSource card = (Transaction.CardCoinSource) coinSource;
+                AccountAddress address = card.getAccountAddress();
+                out.writeByte(SOURCE_CARD);
+                writeBalances(out, coinSource);
+                writeString(out, address.getNumber().toString());
+                writeString(out, address.getName());
+                writeUuid(out, address.getOwner());
+                writeStack(out, card.getCard());
+            }
+            else if(coinSource instanceof Transaction.InventoryCoinSource)
+            {
+                out.writeByte(SOURCE_INVENTORY);
+                writeBalances(out, coinSource);
+                writeOperator(out, ((Transaction.InventoryCoinSource) coinSource).getOperator());
+            }
+            else
+                out.writeByte(0);
+        }
+
+        private void writeBalances(DataOutput out, Transaction.CoinSource coinSource) throws IOException
+        {
+            int before = coinSource.getBalanceBefore();
+            writeSignedVarInt(out, before);
+            writeSignedVarInt(out, coinSource.getBalanceAfter() - before);
+        }
+
+        private void writeStack(DataOutput out, @Nullable ItemStack stack) throws IOException
+        {
+            String name = stack == null? null : GameData.getItemRegistry().getNameForObject(stack.getItem());
+            writeString(out, name);
+            if(name == null)
+                return;
+
+            writeSignedVarInt(out, stack.getItemDamage());
+            writeSignedVarInt(out, stack.stackSize);
+            NBTTagCompound tag = stack.getTagCompound();
+            out.writeBoolean(tag != null);
+            if(tag != null)
+                CompressedStreamTools.write(tag, out);
+        }
+    }
+
+    /**
+     * Reads the transactions written by a {@link Writer}, including streams that were appended to the same file
+     */
+    public static final class Reader
+    {
+        private final DataInput in;
+        private final List<String> strings = new ArrayList<>();
+        private int version;
+
+        public Reader(@Nonnull DataInput in)
+        {
+            this.in = in;
+        }
+
+        /**
+         * @return The next transaction or {@code null} if the stream ended
+         * @throws IOException If the data is corrupted or the stream ended in the middle of a record
+         */
+        @Nullable
+        public Transaction read() throws IOException
+        {
+            int length = nextRecord();
+            if(length < 0)
+                return null;
+
+            byte[] record = new byte[length];
+            in.readFully(record);
+            return readRecord(new DataInputStream(new ByteArrayInputStream(record)));
+        }
+
+        /**
+         * Skips the next transaction without decoding it
+         * @return {@code false} if the stream ended
+         * @throws IOException If the data is corrupted or the stream ended in the middle of a record
+         */
+        public boolean skip() throws IOException
+        {
+            int length = nextRecord();
+            if(length < 0)
+                return false;
+
+            if(version < 2)
+            {
+                // The strings are inside the records
+                byte[] record = new byte[length];
+                in.readFully(record);
+                readRecord(new DataInputStream(new ByteArrayInputStream(record)));
+                return true;
+            }
+
+            while (length > 0)
+            {
+                int skipped = in.skipBytes(length);
+                if(skipped <= 0)
+                    throw new EOFException();
+                length -= skipped;
+            }
+            return true;
+        }
+
+        /**
+         * Reads the entries until the start of the next record
+         * @return The length of the record or {@code -1} if the stream ended
+         */
+        private int nextRecord() throws IOException
+        {
+            while (true)
+            {
+                int entry;
+                try
+                {
+                    entry = in.readUnsignedByte();
+                }
+                catch (EOFException e)
+                {
+                    return -1;
+                }
+
+                if(entry == ENTRY_HEADER)
+                {
+                    if(in.readInt() != MAGIC)
+                        throw new IOException("Invalid transaction stream header");
+                    version = readVarInt(in);
+                    if(version > VERSION)
+                        throw new IOException("Unsupported transaction stream version: "+version);
+                    strings.clear();
+                    continue;
+                }
+
+                if(version == 0)
+                    throw new IOException("Unexpected entry before the header: "+entry);
+
+                if(entry == ENTRY_STRING)
+                {
+                    strings.add(in.readUTF());
+                    continue;
+                }
+
+                if(entry != ENTRY_RECORD)
+                    throw new IOException("Unexpected entry: "+entry);
+
+                return readVarInt(in);
+            }
+        }
+
+        private Transaction readRecord(DataInput in) throws IOException
+        {
+            UUID id = readUuid(in);
+            long time = readVarLong(in);
+            int operation = readVarInt(in);
+            boolean infinite = in.readBoolean();
+            int quantity = readSignedVarInt(in);
+            int price = readSignedVarInt(in);
+            int totalPrice = readSignedVarInt(in);
+            MachineRecord machine = readMachine(in);
+            Operator operator = readOperator(in);
+            Transaction.CoinSource userSource = readCoinSource(in);
+            Transaction.CoinSource ownerSource = readCoinSource(in);
+            ItemStack product = readStack(in);
+            ItemStack trade = readStack(in);
+
+            return new Transaction(id, time, machine, operator, product, trade,
+                    operation > 0 && operation <= OPERATIONS.length? OPERATIONS[operation - 1] : null,
+                    infinite, quantity, price, totalPrice, userSource, ownerSource);
+        }
+
+        @Nullable
+        private String readString(DataInput in) throws IOException
+        {
+            int index = readVarInt(in);
+            if(index == 0)
+                return null;
+            if(index == 1)
+            {
+                // Version 1 literal
+                String str = in.readUTF();
+                strings.add(str);
+                return str;
+            }
+
+            index -= 2;
+            if(index >= strings.size())
+                throw new IOException("Invalid string reference: "+index);
+            return strings.get(index);
+        }
+
+        @Nullable
+        private MachineRecord readMachine(DataInput in) throws IOException
+        {
+            if(!in.readBoolean())
+                return null;
+
+            UUID id = readUuid(in);
+            return readBlock(in, new MachineRecord(id));
+        }
+
+        private MachineRecord readBlock(DataInput in, MachineRecord record) throws IOException
+        {
+            int flags = in.readUnsignedByte();
+            if((flags & BLOCK_NO_POSITION) == 0)
+            {
+                record.x = readSignedVarInt(in);
+                record.y = readSignedVarInt(in);
+                record.z = readSignedVarInt(in);
+            }
+            if((flags & BLOCK_DIM) != 0) record.dim = readSignedVarInt(in);
+            if((flags & BLOCK_ID) != 0) record.blockId = readString(in);
+            if((flags & BLOCK_META) != 0) record.blockMeta = readVarInt(in);
+            if((flags & BLOCK_OWNER) != 0) record.owner = readUuid(in);
+            return record;
+        }
+
+        @Nullable
+        private Operator readOperator(DataInput in) throws IOException
+        {
+            int type = in.readUnsignedByte();
+            switch (type)
+            {
+                case 0:
+                    return null;
+                case OPERATOR_PLAYER:
+                    return new PlayerOperator(readUuid(in));
+                case OPERATOR_BLOCK:
+                case OPERATOR_MACHINE:
+                {
+                    UUID machineId = type == OPERATOR_MACHINE? readUuid(in) : null;
+                    MachineRecord block = readBlock(in, new MachineRecord(machineId));
+                    if(block.x == null)
+                        throw new IOException("Block operator without position");
+                    return new BlockRecord(block.x, block.y, block.z, block.dim, block.blockId, block.blockMeta,
+                            block.owner, machineId);
+                }
+                default:
+                    throw new IOException("Unknown operator type: "+type);
+            }
+        }
+
+        @Nullable
+        private Transaction.CoinSource readCoinSource(DataInput in) throws IOException
+        {
+            int type = in.readUnsignedByte();
+            if(type == 0)
+                return null;
+
+            int before = readSignedVarInt(in);
+            int increment = readSignedVarInt(in);
+            switch (type)
+            {
+                case SOURCE_MACHINE:
+                    return new Transaction.MachineCoinSource(new MachineRecord(readUuid(in)), before, increment);
+                case SOURCE_CARD:
+                {
+                    String number = readString(in);
+                    String name = readString(in);
+                    UUID owner = readUuid(in);
+                    ItemStack card = readStack(in);
+                    if(number == null || name == null)
+                        throw new IOException("Incomplete account address");
+                    return new Transaction.CardCoinSource(card, new AccountAddress(number, name, owner), before, before + increment);
+                }
+                case SOURCE_INVENTORY:
+                    return new Transaction.InventoryCoinSource(readOperator(in), before, increment);
+                default:
+                    throw new IOException("Unknown coin source type: "+type);
+            }
+        }
+
+        /**
+         * @return {@code null} if no stack was written or if the item is no longer registered
+         */
+        @Nullable
+        private ItemStack readStack(DataInput in) throws IOException
+        {
+            String name = readString(in);
+            if(name == null)
+                return null;
+
+            int damage = readSignedVarInt(in);
+            int size = readSignedVarInt(in);
+            NBTTagCompound tag = in.readBoolean()? CompressedStreamTools.func_152456_a(in, new NBTSizeTracker(MAX_NBT_SIZE)) : null;
+
+            Item item = (Item) GameData.getItemRegistry().getObject(name);
+            if(item == null)
+                return null;
+
+            ItemStack stack = new ItemStack(item, size, damage);
+            stack.setTagCompound(tag);
+            return stack;
+        }
+    }
+
+    /**
+     * A machine that was read from a transaction record
+     */
+    public static final class MachineRecord implements Machine, PlayerOwned
+    {
+        private final UUID machineId;
+        private Integer x, y, z;
+        private Integer dim, blockMeta;
+        private String blockId;
+        private UUID owner;
+
+        MachineRecord(UUID machineId)
+        {
+            this.machineId = machineId;
+        }
+
+        /**
+         * The position is only kept if {@code x}, {@code y} and {@code z} are all known
+         */
+        MachineRecord(UUID machineId, @Nullable Integer x, @Nullable Integer y, @Nullable Integer z,
+                      @Nullable Integer dim, @Nullable String blockId, @Nullable Integer blockMeta,
+                      @Nullable UUID owner)
+        {
+            this.machineId = machineId;
+            if(x != null && y != null && z != null)
+            {
+                this.x = x;
+                this.y = y;
+                this.z = z;
+            }
+            this.dim = dim;
+            this.blockId = blockId;
+            this.blockMeta = blockMeta;
+            this.owner = owner;
+        }
+
+        @Override
+        public UUID getMachineId()
+        {
+            return machineId;
+        }
+
+        /**
+         * @return Always {@code null}, the record is not linked to a loaded tile
+         */
+        @Override
+        public TileEntity getMachineEntity()
+        {
+            return null;
+        }
+
+        @Override
+        public UUID getOwnerId()
+        {
+            return owner;
+        }
+
+        /**
+         * @return {@code null} if the position of the machine is unknown
+         */
+        @Nullable
+        public Integer getX()
+        {
+            return x;
+        }
+
+        /**
+         * @return {@code null} if the position of the machine is unknown
+         */
+        @Nullable
+        public Integer getY()
+        {
+            return y;
+        }
+
+        /**
+         * @return {@code null} if the position of the machine is unknown
+         */
+        @Nullable
+        public Integer getZ()
+        {
+            return z;
+        }
+
+        @Nullable
+        public Integer getDim()
+        {
+            return dim;
+        }
+
+        @Nullable
+        public String getBlockId()
+        {
+            return blockId;
+        }
+
+        @Nullable
+        public Integer getBlockMeta()
+        {
+            return blockMeta;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "MachineRecord{" +
+                    "machineId=" + machineId +
+                    ", blockId='" + blockId + '\'' +
+                    ", x=" + x +
+                    ", y=" + y +
+                    ", z=" + z +
+                    ", dim=" + dim +
+                    ", blockMeta=" + blockMeta +
+                    ", owner=" + owner +
+                    '}';
+        }
+    }
+
+    /**
+     * A block or machine operator that was read from a transaction record
+     */
+    public static final class BlockRecord extends BlockOperator
+    {
+        @Nullable
+        private final UUID machineId;
+
+        BlockRecord(int x, int y, int z, @Nullable Integer dim, @Nullable String blockId,
+                            @Nullable Integer blockMeta, @Nullable UUID owner, @Nullable UUID machineId)
+        {
+            super(x, y, z, dim, blockId, blockMeta, owner);
+            this.machineId = machineId;
+        }
+
+        /**
+         * @return The machine that operated the transaction or {@code null} if it was a plain block
+         */
+        @Nullable
+        public UUID getMachineId()
+        {
+            return machineId;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "BlockRecord{machineId="+machineId+", super=" + super.toString()+"}";
+        }
+    }
+
+    static void writeUuid(DataOutput out, UUID uuid) throws IOException
+    {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    static UUID readUuid(DataInput in) throws IOException
+    {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException
+    {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("VarInt is too long");
+    }
+
+    static void writeSignedVarInt(DataOutput out, int value) throws IOException
+    {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int readSignedVarInt(DataInput in) throws IOException
+    {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException
+    {
+        long value = 0;
+        for(int shift = 0; shift < 70; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("VarLong is too long");
+    }
+}
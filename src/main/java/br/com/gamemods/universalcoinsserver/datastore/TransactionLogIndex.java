@@ -0,0 +1,222 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Sidecar index of a binary transaction log written by {@link TransactionCodec}.
+ * <p>
+ * The index has one small fixed-order entry for each record of the log with the values used by
+ * {@link TransactionQuery}: time, id, machine, player operator and card accounts. A query reads only the index of each
+ * log and decodes only the records that matched, the other records are skipped without being decoded.
+ * <p>
+ * The entries are identified by the position of the record on the log. If the log and the index disagree, detected by
+ * the transaction id, the index is rebuilt from the log.
+ */
+final class TransactionLogIndex
+{
+    private static final int MAGIC = 0x55435449; // UCTI
+    private static final int VERSION = 1;
+
+    private static final int HAS_MACHINE = 1, HAS_PLAYER = 2, HAS_USER_ACCOUNT = 4, HAS_OWNER_ACCOUNT = 8;
+
+    /**
+     * An index entry that matched a query
+     */
+    static final class Entry
+    {
+        final int ordinal;
+        final long time;
+        final String id;
+
+        private Entry(int ordinal, long time, String id)
+        {
+            this.ordinal = ordinal;
+            this.time = time;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Sorts from the newest entry to the oldest one, like the query results
+     */
+    static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>()
+    {
+        @Override
+        public int compare(Entry a, Entry b)
+        {
+            int result = Long.compare(b.time, a.time);
+            return result != 0? result : b.id.compareTo(a.id);
+        }
+    };
+
+    private TransactionLogIndex()
+    {
+    }
+
+    /**
+     * Writes the index header, must be called only on empty files
+     */
+    static void writeHeader(@Nonnull DataOutput out) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    static void writeEntry(@Nonnull DataOutput out, @Nonnull Transaction transaction) throws IOException
+    {
+        Machine machine = transaction.getMachine();
+        Operator operator = transaction.getOperator();
+        UUID player = operator instanceof PlayerOperator? ((PlayerOperator) operator).getPlayerId() : null;
+        String userAccount = getAccount(transaction.getUserCoinSource());
+        String ownerAccount = getAccount(transaction.getOwnerCoinSource());
+
+        out.writeLong(transaction.getTime());
+        TransactionCodec.writeUuid(out, transaction.getId());
+        out.writeByte((machine != null? HAS_MACHINE : 0) | (player != null? HAS_PLAYER : 0)
+                | (userAccount != null? HAS_USER_ACCOUNT : 0) | (ownerAccount != null? HAS_OWNER_ACCOUNT : 0));
+        if(machine != null) TransactionCodec.writeUuid(out, machine.getMachineId());
+        if(player != null) TransactionCodec.writeUuid(out, player);
+        if(userAccount != null) out.writeUTF(userAccount);
+        if(ownerAccount != null) out.writeUTF(ownerAccount);
+    }
+
+    @Nullable
+    private static String getAccount(@Nullable Transaction.CoinSource coinSource)
+    {
+        if(coinSource instanceof Transaction.CardCoinSource)
+            return ((Transaction.CardCoinSource) coinSource).getAccountAddress().getNumber().toString();
+        return null;
+    }
+
+    /**
+     * Reads the index and returns the entries that matches the query
+     * @return Empty if the index doesn't exist
+     */
+    @Nonnull
+    static List<Entry> find(@Nonnull File index, @Nonnull TransactionQuery query) throws IOException
+    {
+        if(!index.isFile())
+            return Collections.emptyList();
+
+        List<Entry> entries = new ArrayList<>();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index))))
+        {
+            if(in.readInt() != MAGIC)
+                throw new IOException("Invalid transaction index: "+index);
+            int version = in.readUnsignedByte();
+            if(version > VERSION)
+                throw new IOException("Unsupported transaction index version "+version+": "+index);
+
+            for(int ordinal = 0; ; ordinal++)
+            {
+                long time;
+                try
+                {
+                    time = in.readLong();
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+
+                try
+                {
+                    String id = TransactionCodec.readUuid(in).toString();
+                    int flags = in.readUnsignedByte();
+                    UUID machine = (flags & HAS_MACHINE) != 0? TransactionCodec.readUuid(in) : null;
+                    UUID player = (flags & HAS_PLAYER) != 0? TransactionCodec.readUuid(in) : null;
+                    String userAccount = (flags & HAS_USER_ACCOUNT) != 0? in.readUTF() : null;
+                    String ownerAccount = (flags & HAS_OWNER_ACCOUNT) != 0? in.readUTF() : null;
+                    if(query.matches(time, id, machine, player, userAccount, ownerAccount))
+                        entries.add(new Entry(ordinal, time, id));
+                }
+                catch (EOFException e)
+                {
+                    // The last entry was not completely written
+                    break;
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Decodes the records of the entries from the log
+     * @return The transactions in the same order as the entries or {@code null} if the log doesn't match the index
+     */
+    @Nullable
+    static List<Transaction> load(@Nonnull File log, @Nonnull List<Entry> entries) throws IOException
+    {
+        Map<Integer, Entry> wanted = new HashMap<>(entries.size() * 2);
+        int last = -1;
+        for(Entry entry: entries)
+        {
+            wanted.put(entry.ordinal, entry);
+            last = Math.max(last, entry.ordinal);
+        }
+
+        Map<Entry, Transaction> loaded = new HashMap<>(entries.size() * 2);
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log))))
+        {
+            TransactionCodec.Reader reader = new TransactionCodec.Reader(in);
+            for(int ordinal = 0; ordinal <= last; ordinal++)
+            {
+                Entry entry = wanted.get(ordinal);
+                if(entry == null)
+                {
+                    if(!reader.skip())
+                        return null;
+                    continue;
+                }
+
+                Transaction transaction = reader.read();
+                if(transaction == null || !transaction.getId().toString().equals(entry.id))
+                    return null;
+                loaded.put(entry, transaction);
+            }
+        }
+
+        List<Transaction> transactions = new ArrayList<>(entries.size());
+        for(Entry entry: entries)
+            transactions.add(loaded.get(entry));
+        return transactions;
+    }
+
+    /**
+     * Creates the index again from all records of the log
+     */
+    static void rebuild(@Nonnull File log, @Nonnull File index) throws IOException
+    {
+        File temp = new File(index.getPath()+".tmp");
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+        {
+            writeHeader(out);
+            TransactionCodec.Reader reader = new TransactionCodec.Reader(in);
+            Transaction transaction;
+            while (true)
+            {
+                try
+                {
+                    transaction = reader.read();
+                }
+                catch (EOFException e)
+                {
+                    // The last record was not completely written
+                    break;
+                }
+
+                if(transaction == null)
+                    break;
+                writeEntry(out, transaction);
+            }
+        }
+
+        Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
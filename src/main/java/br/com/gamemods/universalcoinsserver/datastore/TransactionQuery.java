@@ -0,0 +1,220 @@
+package br.com.gamemods.universalcoinsserver.datastore;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Filters used to page through the recorded transactions with {@link CardDataBase#queryTransactions(TransactionQuery)}.
+ * <p>
+ * All filters must match. The results are sorted from the newest transaction to the oldest one, ties are ordered by
+ * the transaction id string. Each page continues after the last transaction of the previous page, so the pages stay
+ * consistent while new transactions are recorded and the history is never loaded at once.
+ */
+public final class TransactionQuery
+{
+    public static final int MAX_LIMIT = 100;
+
+    private String account;
+    private UUID machine;
+    private UUID player;
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+    private int limit = 10;
+    private long afterTime = Long.MAX_VALUE;
+    private String afterId;
+
+    /**
+     * A page of results
+     */
+    public static final class Page
+    {
+        private final List<Transaction> transactions;
+        private final TransactionQuery next;
+
+        /**
+         * @param query The query that created this page
+         * @param transactions Up to {@code query.getLimit() + 1} transactions, the extra one only indicates that there's
+         *                     a next page
+         */
+        public Page(@Nonnull TransactionQuery query, @Nonnull List<Transaction> transactions)
+        {
+            if(transactions.size() > query.limit)
+            {
+                this.transactions = Collections.unmodifiableList(transactions.subList(0, query.limit));
+                this.next = query.after(transactions.get(query.limit - 1));
+            }
+            else
+            {
+                this.transactions = Collections.unmodifiableList(transactions);
+                this.next = null;
+            }
+        }
+
+        @Nonnull
+        public List<Transaction> getTransactions()
+        {
+            return transactions;
+        }
+
+        /**
+         * @return The query of the next page, {@code null} if this is the last page
+         */
+        @Nullable
+        public TransactionQuery getNext()
+        {
+            return next;
+        }
+    }
+
+    /**
+     * Only transactions where the user or the owner coin source is a card of this account
+     */
+    public TransactionQuery account(@Nullable Object account)
+    {
+        this.account = account == null? null : account.toString();
+        return this;
+    }
+
+    /**
+     * Only transactions processed by this machine
+     */
+    public TransactionQuery machine(@Nullable UUID machine)
+    {
+        this.machine = machine;
+        return this;
+    }
+
+    /**
+     * Only transactions operated by this player
+     */
+    public TransactionQuery player(@Nullable UUID player)
+    {
+        this.player = player;
+        return this;
+    }
+
+    /**
+     * Only transactions recorded in a time range
+     * @param from Inclusive time in milliseconds
+     * @param to Exclusive time in milliseconds
+     */
+    public TransactionQuery between(long from, long to)
+    {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    /**
+     * @param limit The page size, between 1 and {@link #MAX_LIMIT}
+     */
+    public TransactionQuery limit(int limit)
+    {
+        this.limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+        return this;
+    }
+
+    /**
+     * @return A copy of this query that returns the transactions older than {@code last}
+     */
+    @Nonnull
+    public TransactionQuery after(@Nonnull Transaction last)
+    {
+        TransactionQuery query = new TransactionQuery();
+        query.account = account;
+        query.machine = machine;
+        query.player = player;
+        query.from = from;
+        query.to = to;
+        query.limit = limit;
+        query.afterTime = last.getTime();
+        query.afterId = last.getId().toString();
+        return query;
+    }
+
+    /**
+     * Checks the filters and the page position against the indexed values of a transaction
+     * @param operator The player that operated the transaction, {@code null} if it wasn't a player
+     */
+    public boolean matches(long time, @Nonnull String id, @Nullable UUID machine, @Nullable UUID operator,
+                           @Nullable String userAccount, @Nullable String ownerAccount)
+    {
+        return time >= from && time < to && isAfterCursor(time, id)
+                && (this.machine == null || this.machine.equals(machine))
+                && (player == null || player.equals(operator))
+                && (account == null || account.equals(userAccount) || account.equals(ownerAccount));
+    }
+
+    private boolean isAfterCursor(long time, String id)
+    {
+        return afterId == null || time < afterTime || time == afterTime && id.compareTo(afterId) < 0;
+    }
+
+    @Nullable
+    public String getAccount()
+    {
+        return account;
+    }
+
+    @Nullable
+    public UUID getMachine()
+    {
+        return machine;
+    }
+
+    @Nullable
+    public UUID getPlayer()
+    {
+        return player;
+    }
+
+    public long getFrom()
+    {
+        return from;
+    }
+
+    public long getTo()
+    {
+        return to;
+    }
+
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * @return The time of the last transaction of the previous page, {@link Long#MAX_VALUE} on the first page
+     */
+    public long getAfterTime()
+    {
+        return afterTime;
+    }
+
+    /**
+     * @return The id of the last transaction of the previous page, {@code null} on the first page
+     */
+    @Nullable
+    public String getAfterId()
+    {
+        return afterId;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TransactionQuery{" +
+                "account='" + account + '\'' +
+                ", machine=" + machine +
+                ", player=" + player +
+                ", from=" + from +
+                ", to=" + to +
+                ", limit=" + limit +
+                ", afterTime=" + afterTime +
+                ", afterId='" + afterId + '\'' +
+                '}';
+    }
+}
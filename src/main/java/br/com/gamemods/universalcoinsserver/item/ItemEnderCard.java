@@ -1,6 +1,7 @@
 package br.com.gamemods.universalcoinsserver.item;
 
 import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import br.com.gamemods.universalcoinsserver.api.CoinTally;
 import br.com.gamemods.universalcoinsserver.api.ScanResult;
 import br.com.gamemods.universalcoinsserver.api.UniversalCoinsServerAPI;
 import br.com.gamemods.universalcoinsserver.datastore.DataBaseException;
@@ -26,10 +27,11 @@ public class ItemEnderCard extends ItemCard
 
     private void deposit(ItemStack stack, EntityPlayer player)
     {
+        if(CoinTally.getCoins(player) <= 0)
+            return;
+
         ScanResult scanResult = UniversalCoinsServerAPI.scanCoins(player.inventory);
         int coins = scanResult.getCoins();
-        if(coins <= 0)
-            return;
 
         try
         {
@@ -47,6 +49,7 @@ public class ItemEnderCard extends ItemCard
             UniversalCoinsServer.cardDb.depositToAccount(account, coins, transaction);
             for(Map.Entry<Integer, Integer> entry: scanResult)
                 player.inventory.setInventorySlotContents(entry.getKey(), null);
+            CoinTally.update(player.inventory, -coins);
             player.inventoryContainer.detectAndSendChanges();
 
             player.addChatComponentMessage(new ChatComponentTranslation("item.itemEnderCard.message.deposit")
@@ -0,0 +1,567 @@
+package br.com.gamemods.universalcoinsserver.tile;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import cpw.mods.fml.common.FMLCommonHandler;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import cpw.mods.fml.common.registry.GameData;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.World;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.oredict.OreDictionary;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Server-wide index of the offers of all vendors, keyed by the traded item: its registry name, damage and a hash of its
+ * NBT tag.
+ * <p>
+ * The vendors update their own offer every time their trade item, price, mode or stock state changes, the offers of
+ * vendors in unloaded chunks are kept, so the market can be searched without loading any chunk. The offers are only
+ * removed when the vendor is removed or stops trading. Each vendor keeps a reference to its own offer, so checking if
+ * the offer changed doesn't allocate nor look up any map.
+ * <p>
+ * The index is stored in the world save, it's loaded when the server starts, saved periodically and saved and
+ * discarded when the server stops.
+ * <p>
+ * Must be used only from the server thread.
+ */
+public final class MarketIndex
+{
+    public static final MarketIndex instance = new MarketIndex();
+
+    private static final int VERSION = 2;
+
+    /**
+     * Sorts from the lowest price per item to the highest one
+     */
+    private static final Comparator<Offer> UNIT_PRICE = new Comparator<Offer>()
+    {
+        @Override
+        public int compare(Offer a, Offer b)
+        {
+            int result = Long.compare((long) a.price * b.quantity, (long) b.price * a.quantity);
+            if(result == 0)
+                result = Integer.compare(a.dim, b.dim);
+            return result != 0? result : Long.compare(a.position, b.position);
+        }
+    };
+
+    /**
+     * Identifies a traded item by its registry name, damage and the hash of its NBT tag, immutable
+     */
+    private static final class ItemKey
+    {
+        private final String item;
+        private final int damage, nbtHash;
+
+        private ItemKey(String item, int damage, int nbtHash)
+        {
+            this.item = item;
+            this.damage = damage;
+            this.nbtHash = nbtHash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if(this == o) return true;
+            if(o == null || getClass() != o.getClass()) return false;
+            ItemKey that = (ItemKey) o;
+            return damage == that.damage && nbtHash == that.nbtHash && item.equals(that.item);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = item.hashCode();
+            result = 31 * result + damage;
+            result = 31 * result + nbtHash;
+            return result;
+        }
+    }
+
+    /**
+     * A trade offered by a vendor, immutable
+     */
+    public static final class Offer
+    {
+        private final long position;
+        private final int dim, x, y, z;
+        private final ItemKey key;
+        private final String item;
+        private final int damage, nbtHash, quantity, price;
+        private final boolean sellToUser, infinite, available;
+        private final UUID owner;
+        private final String ownerName;
+        private boolean indexed;
+
+        private Offer(TileVendor vendor, ItemStack trade, String item, int nbtHash, boolean available)
+        {
+            dim = vendor.getWorldObj().provider.dimensionId;
+            x = vendor.xCoord;
+            y = vendor.yCoord;
+            z = vendor.zCoord;
+            position = position(x, y, z);
+            this.item = item;
+            damage = trade.getItemDamage();
+            this.nbtHash = nbtHash;
+            key = new ItemKey(item, damage, nbtHash);
+            quantity = Math.max(1, trade.stackSize);
+            price = vendor.price;
+            sellToUser = vendor.sellToUser;
+            infinite = vendor.infinite;
+            this.available = available;
+            owner = vendor.owner;
+            ownerName = vendor.ownerName;
+        }
+
+        private Offer(NBTTagCompound tag)
+        {
+            dim = tag.getInteger("Dim");
+            x = tag.getInteger("X");
+            y = tag.getInteger("Y");
+            z = tag.getInteger("Z");
+            position = position(x, y, z);
+            item = tag.getString("Item");
+            damage = tag.getInteger("Damage");
+            nbtHash = tag.getInteger("NbtHash");
+            key = new ItemKey(item, damage, nbtHash);
+            quantity = Math.max(1, tag.getInteger("Quantity"));
+            price = tag.getInteger("Price");
+            sellToUser = tag.getBoolean("Sell");
+            infinite = tag.getBoolean("Infinite");
+            available = tag.getBoolean("Available");
+            String str = tag.getString("Owner");
+            owner = str.isEmpty()? null : UUID.fromString(str);
+            ownerName = tag.getString("OwnerName");
+        }
+
+        private NBTTagCompound writeToNBT()
+        {
+            NBTTagCompound tag = new NBTTagCompound();
+            tag.setInteger("Dim", dim);
+            tag.setInteger("X", x);
+            tag.setInteger("Y", y);
+            tag.setInteger("Z", z);
+            tag.setString("Item", item);
+            tag.setInteger("Damage", damage);
+            tag.setInteger("NbtHash", nbtHash);
+            tag.setInteger("Quantity", quantity);
+            tag.setInteger("Price", price);
+            tag.setBoolean("Sell", sellToUser);
+            tag.setBoolean("Infinite", infinite);
+            tag.setBoolean("Available", available);
+            if(owner != null)
+                tag.setString("Owner", owner.toString());
+            if(ownerName != null)
+                tag.setString("OwnerName", ownerName);
+            return tag;
+        }
+
+        private boolean describes(TileVendor vendor, ItemStack trade, String item, int nbtHash, boolean available)
+        {
+            return price == vendor.price && quantity == Math.max(1, trade.stackSize) && damage == trade.getItemDamage()
+                    && this.nbtHash == nbtHash && sellToUser == vendor.sellToUser && infinite == vendor.infinite
+                    && this.available == available && this.item.equals(item) && Objects.equals(owner, vendor.owner)
+                    && Objects.equals(ownerName, vendor.ownerName);
+        }
+
+        public int getDim()
+        {
+            return dim;
+        }
+
+        public int getX()
+        {
+            return x;
+        }
+
+        public int getY()
+        {
+            return y;
+        }
+
+        public int getZ()
+        {
+            return z;
+        }
+
+        /**
+         * @return The registry name of the traded item
+         */
+        @Nonnull
+        public String getItem()
+        {
+            return item;
+        }
+
+        public int getDamage()
+        {
+            return damage;
+        }
+
+        /**
+         * @return If the traded item has a NBT tag, like enchantments or a custom name
+         */
+        public boolean hasTag()
+        {
+            return nbtHash != 0;
+        }
+
+        /**
+         * @return The amount of items traded for the price
+         */
+        public int getQuantity()
+        {
+            return quantity;
+        }
+
+        public int getPrice()
+        {
+            return price;
+        }
+
+        /**
+         * @return {@code true} if the vendor sells the item to the players, {@code false} if it buys from them
+         */
+        public boolean isSellToUser()
+        {
+            return sellToUser;
+        }
+
+        public boolean isInfinite()
+        {
+            return infinite;
+        }
+
+        /**
+         * @return {@code false} if the vendor is out of stock when selling or out of coins or space when buying
+         */
+        public boolean isAvailable()
+        {
+            return available;
+        }
+
+        @Nullable
+        public UUID getOwner()
+        {
+            return owner;
+        }
+
+        @Nullable
+        public String getOwnerName()
+        {
+            return ownerName;
+        }
+    }
+
+    private final Map<Integer, Map<Long, Offer>> byPosition = new HashMap<>();
+    private final Map<ItemKey, TreeSet<Offer>> byItem = new HashMap<>();
+    private final Map<String, Set<ItemKey>> variants = new HashMap<>();
+    private int offerCount;
+    private File file;
+    private int saveInterval;
+    private int ticks;
+    private boolean dirty;
+
+    private MarketIndex()
+    {
+    }
+
+    /**
+     * Starts the periodic saves
+     * @param saveInterval The save interval in ticks, zero disables the periodic saves
+     */
+    public void init(int saveInterval)
+    {
+        this.saveInterval = saveInterval;
+        FMLCommonHandler.instance().bus().register(this);
+    }
+
+    /**
+     * Loads the offers saved on the current world.
+     * If the file can't be loaded the vendors are indexed again as their chunks are loaded.
+     * The offers of vendors that were updated before this call are kept.
+     * @param file The file where the offers are stored
+     */
+    public void start(@Nonnull File file)
+    {
+        this.file = file;
+        if(!file.isFile())
+            return;
+
+        try
+        {
+            load();
+        }
+        catch (Exception e)
+        {
+            UniversalCoinsServer.logger.error("Failed to load the market index "+file, e);
+        }
+    }
+
+    /**
+     * Saves the offers and discards them, so the index of a world is not mixed with the next one
+     */
+    public void stop()
+    {
+        save();
+        for(Map<Long, Offer> offers: byPosition.values())
+            for(Offer offer: offers.values())
+                offer.indexed = false;
+        byPosition.clear();
+        byItem.clear();
+        variants.clear();
+        offerCount = 0;
+        file = null;
+        dirty = false;
+    }
+
+    /**
+     * Updates the offer of a vendor, it does nothing if the offer didn't change
+     * @param available If the vendor can currently trade
+     */
+    public void update(@Nonnull TileVendor vendor, boolean available)
+    {
+        World world = vendor.getWorldObj();
+        if(world == null || world.isRemote || vendor.isInvalid())
+            return;
+
+        Offer current = vendor.marketOffer;
+        if(current == null || !current.indexed)
+            current = get(world.provider.dimensionId, vendor.xCoord, vendor.yCoord, vendor.zCoord);
+
+        ItemStack trade = vendor.getStackInSlot(TileVendor.SLOT_TRADE);
+        String item = trade == null || vendor.price <= 0? null : GameData.getItemRegistry().getNameForObject(trade.getItem());
+        if(item == null)
+        {
+            if(current != null)
+                remove(current);
+            vendor.marketOffer = null;
+            return;
+        }
+
+        NBTTagCompound tag = trade.getTagCompound();
+        int nbtHash = tag == null || tag.hasNoTags()? 0 : tag.hashCode();
+        if(current != null)
+        {
+            if(current.describes(vendor, trade, item, nbtHash, available))
+            {
+                vendor.marketOffer = current;
+                return;
+            }
+            remove(current);
+        }
+
+        Offer offer = new Offer(vendor, trade, item, nbtHash, available);
+        add(offer);
+        vendor.marketOffer = offer;
+    }
+
+    /**
+     * Removes the offer of a vendor that was removed from the world
+     */
+    public void remove(@Nonnull TileVendor vendor)
+    {
+        World world = vendor.getWorldObj();
+        if(world == null || world.isRemote)
+            return;
+
+        Offer current = vendor.marketOffer;
+        if(current == null || !current.indexed)
+            current = get(world.provider.dimensionId, vendor.xCoord, vendor.yCoord, vendor.zCoord);
+        if(current != null)
+            remove(current);
+        vendor.marketOffer = null;
+    }
+
+    /**
+     * Finds the best available offers of an item, including the variants with NBT tags
+     * @param item The registry name of the item
+     * @param damage The damage of the item or {@link OreDictionary#WILDCARD_VALUE} for any damage
+     * @param sellToUser {@code true} for the vendors that sells the item from the cheapest to the most expensive,
+     *                   {@code false} for the vendors that buys the item from the best paying to the lowest paying
+     * @param limit The maximum amount of offers returned
+     */
+    @Nonnull
+    public List<Offer> find(@Nonnull String item, int damage, boolean sellToUser, int limit)
+    {
+        Set<ItemKey> keys = variants.get(item);
+        if(keys == null)
+            return Collections.emptyList();
+
+        List<Offer> result = new ArrayList<>();
+        for(ItemKey key: keys)
+        {
+            if(damage != OreDictionary.WILDCARD_VALUE && key.damage != damage)
+                continue;
+
+            TreeSet<Offer> offers = byItem.get(key);
+            int found = 0;
+            for(Offer offer: sellToUser? offers : offers.descendingSet())
+            {
+                if(found >= limit)
+                    break;
+                if(offer.sellToUser == sellToUser && offer.available)
+                {
+                    result.add(offer);
+                    found++;
+                }
+            }
+        }
+
+        Collections.sort(result, sellToUser? UNIT_PRICE : Collections.reverseOrder(UNIT_PRICE));
+        return result.size() > limit? result.subList(0, limit) : result;
+    }
+
+    /**
+     * @return The registry names of all items that have at least one offer
+     */
+    @Nonnull
+    public Set<String> getItems()
+    {
+        return Collections.unmodifiableSet(variants.keySet());
+    }
+
+    public int getOfferCount()
+    {
+        return offerCount;
+    }
+
+    @Nullable
+    private Offer get(int dim, int x, int y, int z)
+    {
+        Map<Long, Offer> offers = byPosition.get(dim);
+        return offers == null? null : offers.get(position(x, y, z));
+    }
+
+    private void add(Offer offer)
+    {
+        Map<Long, Offer> positions = byPosition.get(offer.dim);
+        if(positions == null)
+            byPosition.put(offer.dim, positions = new HashMap<>());
+        positions.put(offer.position, offer);
+
+        TreeSet<Offer> offers = byItem.get(offer.key);
+        if(offers == null)
+        {
+            byItem.put(offer.key, offers = new TreeSet<>(UNIT_PRICE));
+            Set<ItemKey> keys = variants.get(offer.item);
+            if(keys == null)
+                variants.put(offer.item, keys = new HashSet<>());
+            keys.add(offer.key);
+        }
+        offers.add(offer);
+
+        offer.indexed = true;
+        offerCount++;
+        dirty = true;
+    }
+
+    private void remove(Offer offer)
+    {
+        Map<Long, Offer> positions = byPosition.get(offer.dim);
+        if(positions != null)
+            positions.remove(offer.position);
+
+        TreeSet<Offer> offers = byItem.get(offer.key);
+        if(offers != null)
+        {
+            offers.remove(offer);
+            if(offers.isEmpty())
+            {
+                byItem.remove(offer.key);
+                Set<ItemKey> keys = variants.get(offer.item);
+                if(keys != null && keys.remove(offer.key) && keys.isEmpty())
+                    variants.remove(offer.item);
+            }
+        }
+
+        offer.indexed = false;
+        offerCount--;
+        dirty = true;
+    }
+
+    /**
+     * Packs a block position in a long, like {@code BlockPos} does on newer versions
+     */
+    private static long position(int x, int y, int z)
+    {
+        return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | (long) y & 0xFFF;
+    }
+
+    private void load() throws IOException
+    {
+        boolean merged = offerCount > 0;
+        NBTTagCompound root;
+        try(InputStream in = new FileInputStream(file))
+        {
+            root = CompressedStreamTools.readCompressed(in);
+        }
+
+        int version = root.getInteger("Version");
+        if(version > VERSION)
+            throw new IOException("Unsupported market index version "+version);
+
+        NBTTagList list = root.getTagList("Offers", Constants.NBT.TAG_COMPOUND);
+        for(int i = 0; i < list.tagCount(); i++)
+        {
+            Offer offer = new Offer(list.getCompoundTagAt(i));
+            if(!offer.item.isEmpty() && get(offer.dim, offer.x, offer.y, offer.z) == null)
+                add(offer);
+        }
+        dirty = merged;
+    }
+
+    /**
+     * Stores the offers on the index file if they changed since the last save
+     */
+    public void save()
+    {
+        if(!dirty || file == null)
+            return;
+
+        NBTTagList list = new NBTTagList();
+        for(Map<Long, Offer> offers: byPosition.values())
+            for(Offer offer: offers.values())
+                list.appendTag(offer.writeToNBT());
+
+        NBTTagCompound root = new NBTTagCompound();
+        root.setInteger("Version", VERSION);
+        root.setTag("Offers", list);
+
+        File temp = new File(file.getPath()+".tmp");
+        try
+        {
+            try(OutputStream out = new FileOutputStream(temp))
+            {
+                CompressedStreamTools.writeCompressed(root, out);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+        }
+        catch (IOException e)
+        {
+            UniversalCoinsServer.logger.error("Failed to save the market index "+file, e);
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END || saveInterval <= 0 || ++ticks < saveInterval)
+            return;
+
+        ticks = 0;
+        save();
+    }
+}
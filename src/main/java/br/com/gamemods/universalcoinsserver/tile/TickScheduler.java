@@ -0,0 +1,243 @@
+package br.com.gamemods.universalcoinsserver.tile;
+
+import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraftforge.event.world.WorldEvent;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Runs delayed tasks on the server thread using a hierarchical timing wheel.
+ * <p>
+ * Scheduling and cancelling are O(1) and a tick without expiring tasks only advances a counter, so idle tasks don't
+ * cost anything per tick. Each level has 64 buckets, tasks far in the future stay on the higher levels and are moved
+ * to the lower ones as their deadline gets closer.
+ * <p>
+ * Tasks can belong to a tile entity, a tile may have many pending tasks and they are cancelled together by
+ * {@link #cancelAll(TileEntity)}. Tasks of invalid tiles are never executed and the tasks of the tiles of a world are
+ * cancelled when the world unloads.
+ * <p>
+ * Must be used only from the server thread.
+ */
+public final class TickScheduler
+{
+    public static final TickScheduler instance = new TickScheduler();
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    /**
+     * A scheduled task, it can be used to cancel the execution or to check how many ticks are left
+     */
+    public static final class Task
+    {
+        private final TileEntity owner;
+        private final Runnable runnable;
+        private final long deadline;
+        private boolean cancelled, done;
+
+        private Task(TileEntity owner, Runnable runnable, long deadline)
+        {
+            this.owner = owner;
+            this.runnable = runnable;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return {@code false} if the task was already executed or cancelled
+         */
+        public boolean cancel()
+        {
+            if(cancelled || done)
+                return false;
+            cancelled = true;
+            instance.release(this);
+            return true;
+        }
+
+        public boolean isPending()
+        {
+            return !cancelled && !done;
+        }
+
+        /**
+         * @return The ticks until the execution, zero if it's not pending
+         */
+        public long getRemainingTicks()
+        {
+            return isPending()? Math.max(0, deadline - instance.currentTick) : 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private final List<Task>[][] wheel = new List[LEVELS][SLOTS];
+    private final Map<TileEntity, List<Task>> owned = new HashMap<>();
+    private long currentTick;
+
+    private TickScheduler()
+    {
+        for(int level = 0; level < LEVELS; level++)
+            for(int slot = 0; slot < SLOTS; slot++)
+                wheel[level][slot] = new ArrayList<>(0);
+    }
+
+    /**
+     * Executes a task after a delay
+     * @param delay Ticks to wait, values lower than 1 execute on the end of the current tick
+     */
+    @Nonnull
+    public static Task schedule(long delay, @Nonnull Runnable runnable)
+    {
+        return schedule(null, delay, runnable);
+    }
+
+    /**
+     * Executes a task that belongs to a tile entity after a delay, the task is skipped if the tile becomes invalid
+     * @param owner The tile that owns the task, {@code null} if the task doesn't belong to a tile
+     * @param delay Ticks to wait, values lower than 1 execute on the end of the current tick
+     */
+    @Nonnull
+    public static Task schedule(@Nullable TileEntity owner, long delay, @Nonnull Runnable runnable)
+    {
+        Task task = new Task(owner, runnable, instance.currentTick + Math.max(1, delay));
+        instance.insert(task);
+        if(owner != null)
+        {
+            List<Task> tasks = instance.owned.get(owner);
+            if(tasks == null)
+                instance.owned.put(owner, tasks = new ArrayList<>(2));
+            tasks.add(task);
+        }
+        return task;
+    }
+
+    /**
+     * @return If the tile has tasks waiting to be executed
+     */
+    public static boolean hasTasks(@Nonnull TileEntity owner)
+    {
+        return instance.owned.containsKey(owner);
+    }
+
+    /**
+     * Cancels all pending tasks that belong to a tile entity
+     * @return The amount of tasks that were cancelled
+     */
+    public static int cancelAll(@Nonnull TileEntity owner)
+    {
+        List<Task> tasks = instance.owned.remove(owner);
+        if(tasks == null)
+            return 0;
+
+        for(Task task: tasks)
+            task.cancelled = true;
+        return tasks.size();
+    }
+
+    private void release(Task task)
+    {
+        if(task.owner == null)
+            return;
+
+        List<Task> tasks = owned.get(task.owner);
+        if(tasks != null && tasks.remove(task) && tasks.isEmpty())
+            owned.remove(task.owner);
+    }
+
+    public static long getCurrentTick()
+    {
+        return instance.currentTick;
+    }
+
+    private void insert(Task task)
+    {
+        long delta = task.deadline - currentTick;
+        long deadline = task.deadline;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1)))
+            level++;
+
+        // Beyond the wheel range, it will be inserted again when the last level bucket cascades
+        long range = 1L << (BITS * LEVELS);
+        if(delta >= range)
+            deadline = currentTick + range - 1;
+
+        wheel[level][(int) ((deadline >>> (BITS * level)) & MASK)].add(task);
+    }
+
+    private void cascade(int level)
+    {
+        List<Task> bucket = wheel[level][(int) ((currentTick >>> (BITS * level)) & MASK)];
+        if(bucket.isEmpty())
+            return;
+
+        Task[] tasks = bucket.toArray(new Task[bucket.size()]);
+        bucket.clear();
+        for(Task task: tasks)
+            if(!task.cancelled)
+                insert(task);
+    }
+
+    private void advance()
+    {
+        currentTick++;
+        for(int level = 1; level < LEVELS && (currentTick & ((1L << (BITS * level)) - 1)) == 0; level++)
+            cascade(level);
+
+        List<Task> bucket = wheel[0][(int) (currentTick & MASK)];
+        if(bucket.isEmpty())
+            return;
+
+        Task[] tasks = bucket.toArray(new Task[bucket.size()]);
+        bucket.clear();
+        for(Task task: tasks)
+        {
+            if(task.cancelled)
+                continue;
+
+            if(task.deadline > currentTick)
+            {
+                insert(task);
+                continue;
+            }
+
+            task.done = true;
+            release(task);
+            if(task.owner != null && task.owner.isInvalid())
+                continue;
+
+            try
+            {
+                task.runnable.run();
+            }
+            catch (RuntimeException e)
+            {
+                UniversalCoinsServer.logger.error("Scheduled task failed", e);
+            }
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase == TickEvent.Phase.END)
+            advance();
+    }
+
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event)
+    {
+        if(owned.isEmpty())
+            return;
+
+        for(TileEntity owner: new ArrayList<>(owned.keySet()))
+            if(owner.getWorldObj() == event.world)
+                cancelAll(owner);
+    }
+}
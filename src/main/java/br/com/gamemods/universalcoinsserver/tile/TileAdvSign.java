@@ -5,12 +5,13 @@ import br.com.gamemods.universalcoinsserver.blocks.PlayerOwned;
 import br.com.gamemods.universalcoinsserver.net.SignMessage;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.network.Packet;
+import net.minecraft.tileentity.TileEntity;
 import net.minecraft.tileentity.TileEntitySign;
 import net.minecraft.util.IChatComponent;
 
 import java.util.UUID;
 
-public class TileAdvSign extends TileEntitySign implements PlayerOwned
+public class TileAdvSign extends TileEntitySign implements PlayerOwned, UpdateScheduler.Target
 {
     public UUID owner;
     public String ownerName;
@@ -71,19 +72,96 @@ public class TileAdvSign extends TileEntitySign implements PlayerOwned
         );
     }
 
+    /**
+     * Schedules a block update to the end of the tick
+     */
     public void scheduleUpdate()
+    {
+        UpdateScheduler.schedule(this);
+    }
+
+    @Override
+    public void flushUpdate()
     {
         super.worldObj.markBlockForUpdate(xCoord, yCoord, zCoord);
     }
 
+    @Override
+    public void validate()
+    {
+        super.validate();
+        notifyVendors();
+    }
+
+    @Override
+    public void invalidate()
+    {
+        super.invalidate();
+        notifyVendors();
+    }
+
+    @Override
+    public void onChunkUnload()
+    {
+        super.onChunkUnload();
+        notifyVendors();
+    }
+
+    /**
+     * Makes the vendors around this sign look for their signs again. Only loaded chunks are checked, the vendors on
+     * chunks that are still loading look for their signs when they are updated for the first time.
+     */
+    private void notifyVendors()
+    {
+        if(worldObj == null)
+            return;
+
+        for(int x = xCoord - 1; x <= xCoord + 1; x++)
+            for(int y = yCoord - 1; y <= yCoord + 1; y++)
+                for(int z = zCoord - 1; z <= zCoord + 1; z++)
+                {
+                    if(!worldObj.blockExists(x, y, z))
+                        continue;
+
+                    TileEntity tile = worldObj.getTileEntity(x, y, z);
+                    if(tile instanceof TileVendor)
+                        ((TileVendor) tile).invalidateSigns();
+                }
+    }
+
     public void setLines(IChatComponent[] lines)
     {
+        setLines(serializeLines(lines));
+    }
+
+    /**
+     * @param lines The lines returned by {@link #serializeLines(IChatComponent[])}
+     * @return If the text was changed
+     */
+    public boolean setLines(String[] lines)
+    {
+        boolean changed = false;
+        for(int i = 0; i < 4; i++)
+        {
+            if(!signText[i].equals(lines[i]))
+            {
+                signText[i] = lines[i];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    public static String[] serializeLines(IChatComponent[] lines)
+    {
+        String[] text = new String[4];
         for(int i = 0; i < 4; i++)
         {
-            if(lines.length < i || lines[i] == null)
-                signText[i] = "";
+            if(lines.length <= i || lines[i] == null)
+                text[i] = "";
             else
-                signText[i] = IChatComponent.Serializer.func_150696_a(lines[i]);
+                text[i] = IChatComponent.Serializer.func_150696_a(lines[i]);
         }
+        return text;
     }
 }
@@ -65,9 +65,8 @@ public class TileCardStation extends TileTransactionMachine
     public TileCardStationMessage state = new TileCardStationMessage();
     private int coins;
     private List<Integer> validOperations = Ints.asList(FUNCTION_ACCOUNT_INFO, FUNCTION_DESTROY_CARD);
-    private Runnable schedule;
-    private int scheduleTicks = -1;
-    private ItemStack depositFailure = null;
+    private TickScheduler.Task coinFill;
+    private TickScheduler.Task menuTask;
     private Runnable cardRemovalHook;
     public Runnable[] customButtonOperation;
     public String customAccountName;
@@ -85,70 +84,95 @@ public class TileCardStation extends TileTransactionMachine
     }
 
     @Override
-    public void updateEntity()
+    public boolean canUpdate()
     {
-        super.updateEntity();
-        if(scheduleTicks == 0)
-        {
-            Runnable last = schedule;
-            schedule.run();
-            if(schedule == last)
-                cancelSchedule();
-        }
-        else if(scheduleTicks > 0)
-            scheduleTicks--;
+        return false;
+    }
 
-        if(state.depositCoins && state.cardAccount != null)
-        {
-            ItemStack stack = inventory[SLOT_COIN];
-            if(stack != null && stack.getItem() instanceof ItemCoin && !ItemStack.areItemStacksEqual(depositFailure, stack))
-            {
-                int value = UniversalCoinsServerAPI.stackValue(stack);
-                if(value <= 0)
-                    return;
+    /**
+     * Deposits the coins from the coin slot to the card account if the station is in deposit mode.
+     * <p>
+     * Called when coins are placed on the slot. The coins stay on the slot if the account can't hold all of them.
+     */
+    public void depositCoins()
+    {
+        if(!state.depositCoins || state.cardAccount == null || opener == null || fillingCoins)
+            return;
 
-                try
-                {
-                    if(UniversalCoinsServer.cardDb.canDeposit(state.cardAccount.getNumber(), value) < 0)
-                        return;
+        ItemStack stack = inventory[SLOT_COIN];
+        if(stack == null || !(stack.getItem() instanceof ItemCoin))
+            return;
 
-                    Transaction transaction = new Transaction(
-                            this,
-                            Transaction.Operation.DEPOSIT_TO_ACCOUNT_FROM_MACHINE,
-                            new PlayerOperator(opener),
-                            null,
-                            createCardCoinSource(value),
-                            stack
-                    );
+        int value = UniversalCoinsServerAPI.stackValue(stack);
+        if(value <= 0)
+            return;
 
-                    UniversalCoinsServer.cardDb.depositToAccount(state.cardAccount.getNumber(), value, transaction);
-                    stack.stackSize = 0;
-                    inventory[SLOT_COIN] = null;
-                    markDirty();
-                    worldObj.playSoundEffect(xCoord, yCoord, zCoord, "universalcoins:insert_coin", 1f, 1f);
-                    state.accountBalance = UniversalCoinsServer.cardDb.getAccountBalance(state.cardAccount.getNumber());
-                    depositFailure = null;
-                }
-                catch (DataBaseException e)
-                {
-                    e.printStackTrace();
-                    depositFailure = stack.copy();
-                    //UniversalCoinsServer.logger.error(e);
-                }
-            }
+        try
+        {
+            Transaction transaction = new Transaction(
+                    this,
+                    Transaction.Operation.DEPOSIT_TO_ACCOUNT_FROM_MACHINE,
+                    new PlayerOperator(opener),
+                    null,
+                    createCardCoinSource(value),
+                    stack
+            );
+
+            int balance = UniversalCoinsServer.cardDb.depositAllToAccount(state.cardAccount.getNumber(), value, transaction);
+            if(balance < 0)
+                return;
+
+            state.accountBalance = balance;
+            stack.stackSize = 0;
+            inventory[SLOT_COIN] = null;
+            markDirty();
+            worldObj.playSoundEffect(xCoord, yCoord, zCoord, "universalcoins:insert_coin", 1f, 1f);
+        }
+        catch (DataBaseException e)
+        {
+            e.printStackTrace();
         }
     }
 
-    public void schedule(Runnable task, int ticks)
+    /**
+     * Executes a task after some ticks, it's cancelled if the station is reset, removed or unloaded
+     */
+    public TickScheduler.Task schedule(Runnable task, int ticks)
     {
-        schedule = task;
-        scheduleTicks = ticks;
+        return TickScheduler.schedule(this, ticks, task);
+    }
+
+    /**
+     * Schedules the next step of a forced menu, replacing the step that is still pending
+     */
+    private void scheduleMenu(Runnable task, int ticks)
+    {
+        if(menuTask != null)
+            menuTask.cancel();
+        menuTask = schedule(task, ticks);
     }
 
     public void cancelSchedule()
     {
-        schedule = null;
-        scheduleTicks = -1;
+        TickScheduler.cancelAll(this);
+    }
+
+    /**
+     * Fills the coin slot at the end of the tick, outside of the slot change that is being processed
+     */
+    private void scheduleCoinFill()
+    {
+        if(coinFill != null && coinFill.isPending())
+            return;
+
+        coinFill = schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                fillCoinSlot();
+            }
+        }, 0);
     }
 
     public void onCardRemoved()
@@ -203,13 +227,13 @@ public class TileCardStation extends TileTransactionMachine
 
                         state.reset();
                         state.force(GUI_BAD_CARD);
-                        schedule(new Runnable()
+                        scheduleMenu(new Runnable()
                         {
                             @Override
                             public void run()
                             {
                                 inventory[slot] = null;
-                                schedule(new Runnable()
+                                scheduleMenu(new Runnable()
                                 {
                                     @Override
                                     public void run()
@@ -257,7 +281,7 @@ public class TileCardStation extends TileTransactionMachine
                                         if(state.forcedMenuState == GUI_UNAUTHORIZED_ACCESS)
                                         {
                                             state.force(GUI_TAKE_CARD);
-                                            schedule(states[1], time);
+                                            scheduleMenu(states[1], time);
                                         }
                                     }
                                 };
@@ -269,11 +293,11 @@ public class TileCardStation extends TileTransactionMachine
                                         if(state.forcedMenuState == GUI_TAKE_CARD)
                                         {
                                             state.force(GUI_UNAUTHORIZED_ACCESS);
-                                            schedule(states[0], time);
+                                            scheduleMenu(states[0], time);
                                         }
                                     }
                                 };
-                                schedule(states[0], time);
+                                scheduleMenu(states[0], time);
                             }
                             else
                             {
@@ -308,6 +332,9 @@ public class TileCardStation extends TileTransactionMachine
                     }
                     return;
                 }
+                case SLOT_COIN:
+                    depositCoins();
+                    return;
             }
         }
         else if(slot == SLOT_CARD)
@@ -316,17 +343,8 @@ public class TileCardStation extends TileTransactionMachine
         {
             if(coins <= 0)
                 onCoinsRemoved();
-            else if(schedule == null)
-                schedule(new Runnable()
-                {
-                    @Override
-                    public void run()
-                    {
-                        fillCoinSlot();
-                    }
-                }, 0);
             else
-                fillCoinSlot();
+                scheduleCoinFill();
         }
     }
 
@@ -362,17 +380,7 @@ public class TileCardStation extends TileTransactionMachine
         if(slot == SLOT_CARD && inventory[SLOT_CARD] == null)
             onCardRemoved();
 
-        if(schedule == null)
-            schedule(new Runnable()
-            {
-                @Override
-                public void run()
-                {
-                    fillCoinSlot();
-                }
-            }, 0);
-        else
-            fillCoinSlot();
+        scheduleCoinFill();
         return stack;
     }
 
@@ -386,7 +394,7 @@ public class TileCardStation extends TileTransactionMachine
                 @Override
                 public void run()
                 {
-                    schedule(new Runnable()
+                    scheduleMenu(new Runnable()
                     {
                         @Override
                         public void run()
@@ -599,6 +607,7 @@ public class TileCardStation extends TileTransactionMachine
                 }
                 state.depositCoins = true;
                 state.withdrawCoins = false;
+                depositCoins();
                 return;
             case FUNCTION_WITHDRAW:
                 if(state.cardAccount == null || state.coinWithdrawalAmount <= 0)
@@ -643,7 +652,7 @@ public class TileCardStation extends TileTransactionMachine
         }
     }
 
-    public Transaction.CardCoinSource createCardCoinSource(int increment) throws DataBaseException
+    public Transaction.CardCoinSource createCardCoinSource(int increment)
     {
         if(state.activeCard != null)
             return new Transaction.CardCoinSource(state.activeCard, increment);
@@ -684,8 +693,7 @@ public class TileCardStation extends TileTransactionMachine
     public void reset()
     {
         cardRemovalHook = null;
-        schedule = null;
-        scheduleTicks = -1;
+        cancelSchedule();
         validOperations = Ints.asList(FUNCTION_ACCOUNT_INFO, FUNCTION_DESTROY_CARD);
     }
 
@@ -10,13 +10,11 @@ import net.minecraft.command.CommandBase;
 import net.minecraft.entity.item.EntityItem;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.entity.player.EntityPlayerMP;
-import net.minecraft.init.Blocks;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.network.NetworkManager;
-import net.minecraft.network.Packet;
 import net.minecraft.network.play.server.S35PacketUpdateTileEntity;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.ChatComponentText;
@@ -580,35 +578,16 @@ public class TilePackager extends TileTransactionMachine
     }
 
     @Override
-    public Packet getDescriptionPacket()
+    protected NBTTagCompound createDescriptionNBT()
     {
         NBTTagCompound nbt = new NBTTagCompound();
         writeToNBT(nbt);
-        NBTTagList tagList = nbt.getTagList("Inventory", Constants.NBT.TAG_COMPOUND);
-        List<Byte> slots = new ArrayList<>(inventory.length);
-        for (int i = 0; i < tagList.tagCount(); i++)
-        {
-            NBTTagCompound tag = tagList.getCompoundTagAt(i);
-            byte slot = tag.getByte("Slot");
-            slots.add(slot);
-        }
-
-        ItemStack stack = new ItemStack(Blocks.air, 0);
-        for(byte i = 0; i < inventory.length; i++)
-        {
-            if(!slots.contains(i))
-            {
-                NBTTagCompound tag = new NBTTagCompound();
-                tag.setByte("Slot", i);
-                stack.writeToNBT(tag);
-                tagList.appendTag(tag);
-            }
-        }
+        appendEmptySlots(nbt.getTagList("Inventory", Constants.NBT.TAG_COMPOUND), inventory.length);
 
         if(targetId == null)
             nbt.setString("packageTarget", "");
 
-        return new S35PacketUpdateTileEntity(xCoord, yCoord, zCoord, 1, nbt);
+        return nbt;
     }
 
     @Override
@@ -2,6 +2,7 @@ package br.com.gamemods.universalcoinsserver.tile;
 
 import br.com.gamemods.universalcoinsserver.GuiHandler;
 import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import br.com.gamemods.universalcoinsserver.api.CoinTally;
 import br.com.gamemods.universalcoinsserver.api.ScanResult;
 import br.com.gamemods.universalcoinsserver.api.UniversalCoinsServerAPI;
 import br.com.gamemods.universalcoinsserver.datastore.PlayerOperator;
@@ -14,7 +15,6 @@ import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.network.NetworkManager;
-import net.minecraft.network.Packet;
 import net.minecraft.network.play.server.S35PacketUpdateTileEntity;
 import net.minecraft.util.ChatComponentTranslation;
 import net.minecraftforge.common.util.Constants;
@@ -36,13 +36,83 @@ public class TileSignal extends TileOwned
     public int coins;
     public int fee = 1;
     public int duration = 1;
-    public int secondsLeft;
-    public int ticks;
+    /**
+     * The ticks left while the power off is not scheduled, like when the tile is not in a loaded world
+     */
+    private int ticks;
+    private TickScheduler.Task powerOff;
+    private int syncedSecondsLeft;
     private boolean unlockOutputSlot;
 
+    private final Runnable powerOffTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            powerOff = null;
+            ticks = 0;
+            providingPower = false;
+            markDirty();
+            updateNeighbors();
+        }
+    };
+
     public int stateHashcode()
     {
-        return Arrays.hashCode(new int[]{providingPower?1:0,coins,fee,duration,secondsLeft});
+        return Arrays.hashCode(new int[]{providingPower?1:0,coins,fee,duration,getTicksLeft()});
+    }
+
+    public int getTicksLeft()
+    {
+        return powerOff != null? (int) powerOff.getRemainingTicks() : ticks;
+    }
+
+    public int getSecondsLeft()
+    {
+        int ticksLeft = getTicksLeft();
+        return ticksLeft <= 0? 0 : (ticksLeft+20) / 20;
+    }
+
+    /**
+     * Replaces the pending power off by a new one, it's only scheduled when the tile is in a world
+     */
+    private void setTicksLeft(int ticks)
+    {
+        if(powerOff != null)
+        {
+            powerOff.cancel();
+            powerOff = null;
+        }
+
+        this.ticks = Math.max(0, ticks);
+        if(this.ticks > 0 && worldObj != null && !isInvalid())
+            powerOff = TickScheduler.schedule(this, this.ticks, powerOffTask);
+    }
+
+    /**
+     * Keeps the remaining ticks and cancels the pending power off, the countdown continues on {@link #validate()}
+     */
+    private void suspendTimer()
+    {
+        if(powerOff != null)
+        {
+            ticks = getTicksLeft();
+            powerOff.cancel();
+            powerOff = null;
+        }
+    }
+
+    /**
+     * Sends the countdown to the players that are using the GUI, called every tick by the open containers
+     */
+    public void refreshCountdown()
+    {
+        int secondsLeft = getSecondsLeft();
+        if(secondsLeft != syncedSecondsLeft)
+        {
+            syncedSecondsLeft = secondsLeft;
+            scheduleUpdate();
+        }
     }
 
     public void validateFields()
@@ -51,7 +121,6 @@ public class TileSignal extends TileOwned
         if(coins < 0) coins = 0;
         if(fee < 0) fee = 1;
         if(duration < 0) duration = 1;
-        if(secondsLeft < 0) secondsLeft = 0;
 
         if(coinOutput != null && coinOutput.stackSize <= 0)
         {
@@ -63,27 +132,31 @@ public class TileSignal extends TileOwned
     }
 
     @Override
-    public void updateEntity()
+    public boolean canUpdate()
     {
-        super.updateEntity();
-        if(ticks > 0)
-        {
-            ticks--;
-            int last = secondsLeft;
-            secondsLeft = (ticks+20) / 20;
-            if(last != secondsLeft)
-                markDirty();
-            else
-                super.markDirty();
+        return false;
+    }
 
-            if(ticks == 0)
-            {
-                secondsLeft = 0;
-                providingPower = false;
-                markDirty();
-                updateNeighbors();
-            }
-        }
+    @Override
+    public void validate()
+    {
+        super.validate();
+        if(powerOff == null && ticks > 0)
+            setTicksLeft(ticks);
+    }
+
+    @Override
+    public void invalidate()
+    {
+        suspendTimer();
+        super.invalidate();
+    }
+
+    @Override
+    public void onChunkUnload()
+    {
+        suspendTimer();
+        super.onChunkUnload();
     }
 
     public void onLeftClick(EntityPlayer player)
@@ -95,13 +168,14 @@ public class TileSignal extends TileOwned
             return;
         }
 
-        ScanResult scanResult = UniversalCoinsServerAPI.scanCoins(player.inventory);
-        if(scanResult.getCoins() < fee)
+        if(CoinTally.getCoins(player) < fee)
         {
             player.addChatMessage(new ChatComponentTranslation("signal.message.notenough"));
             return;
         }
 
+        ScanResult scanResult = UniversalCoinsServerAPI.scanCoins(player.inventory);
+
         PlayerOperator operator = new PlayerOperator(player);
         Transaction transaction = new Transaction(this, Transaction.Operation.BUY_FROM_MACHINE, duration,
                 operator,
@@ -135,7 +209,8 @@ public class TileSignal extends TileOwned
     public void activate(int ticks)
     {
         providingPower = true;
-        this.ticks += ticks;
+        setTicksLeft(getTicksLeft() + ticks);
+        markDirty();
         updateNeighbors();
     }
 
@@ -259,9 +334,9 @@ public class TileSignal extends TileOwned
         coins = compound.getInteger("coinSum");
         fee = compound.getInteger("fee");
         duration = compound.getInteger("duration");
-        ticks = compound.getInteger("ticks");
+        int ticks = compound.getInteger("ticks");
         providingPower = ticks > 0;
-        secondsLeft = ticks <= 0? 0 : (ticks+20)/20;
+        setTicksLeft(ticks);
         validateFields();
         updateNeighbors();
     }
@@ -282,8 +357,8 @@ public class TileSignal extends TileOwned
         compound.setInteger("coinSum", coins);
         compound.setInteger("fee", fee);
         compound.setInteger("duration", duration);
-        compound.setInteger("secondsLeft", secondsLeft);
-        compound.setInteger("ticks", ticks);
+        compound.setInteger("secondsLeft", getSecondsLeft());
+        compound.setInteger("ticks", getTicksLeft());
         //compound.setString("customName", "");
         compound.setBoolean("canProvidePower", providingPower);
     }
@@ -292,7 +367,7 @@ public class TileSignal extends TileOwned
     public void readFromNBT(NBTTagCompound compound)
     {
         super.readFromNBT(compound);
-        ticks = compound.getInteger("ticks");
+        setTicksLeft(compound.getInteger("ticks"));
 
         NBTTagList tagList = compound.getTagList("Inventory", Constants.NBT.TAG_COMPOUND);
         coinOutput = null;
@@ -307,7 +382,6 @@ public class TileSignal extends TileOwned
         coins = compound.getInteger("coinSum");
         fee = compound.getInteger("fee");
         duration = compound.getInteger("duration");
-        secondsLeft = compound.getInteger("secondsLeft");
         providingPower = compound.getBoolean("canProvidePower");
         validateFields();
     }
@@ -402,11 +476,11 @@ public class TileSignal extends TileOwned
     }
 
     @Override
-    public Packet getDescriptionPacket()
+    protected NBTTagCompound createDescriptionNBT()
     {
         NBTTagCompound nbt = new NBTTagCompound();
         writeToNBT(nbt);
-        return new S35PacketUpdateTileEntity(xCoord, yCoord, zCoord, 1, nbt);
+        return nbt;
     }
 
     @Override
@@ -1,23 +1,37 @@
 package br.com.gamemods.universalcoinsserver.tile;
 
-import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
-import br.com.gamemods.universalcoinsserver.datastore.DataBaseException;
 import br.com.gamemods.universalcoinsserver.datastore.Machine;
+import br.com.gamemods.universalcoinsserver.datastore.MachineRegistrationQueue;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.inventory.IInventory;
+import net.minecraft.init.Blocks;
 import net.minecraft.inventory.ISidedInventory;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.network.Packet;
+import net.minecraft.network.play.server.S35PacketUpdateTileEntity;
 import net.minecraft.tileentity.TileEntity;
 
+import javax.annotation.Nullable;
 import java.util.UUID;
 
-public abstract class TileTransactionMachine extends TileEntity implements Machine, ISidedInventory
+public abstract class TileTransactionMachine extends TileEntity implements Machine, ISidedInventory, UpdateScheduler.Target
 {
     private UUID machineId;
     public EntityPlayer opener;
 
+    /**
+     * The last description broadcasted by {@link #flushUpdate()}
+     */
+    private NBTTagCompound syncedDescription;
+
+    /**
+     * If the block was marked for update by {@link #flushUpdate()} and {@link #syncedDescription} wasn't sent yet
+     */
+    private boolean descriptionPending;
+
     public boolean isInUse(EntityPlayer player)
     {
         if(opener == null)
@@ -43,14 +57,7 @@ public abstract class TileTransactionMachine extends TileEntity implements Machi
         if(machineId == null)
         {
             machineId = UUID.randomUUID();
-            try
-            {
-                UniversalCoinsServer.cardDb.saveNewMachine(this);
-            }
-            catch (DataBaseException e)
-            {
-                UniversalCoinsServer.logger.error("Failed to save machine ID "+machineId, e);
-            }
+            MachineRegistrationQueue.instance.register(this);
         }
         return machineId;
     }
@@ -85,10 +92,114 @@ public abstract class TileTransactionMachine extends TileEntity implements Machi
         compound.setString("MachineId", getMachineId().toString());
     }
 
+    /**
+     * Creates the NBT sent to the clients by {@link #getDescriptionPacket()}. It's called on every
+     * {@link #flushUpdate()}, so it must only write the current state without validating it against the data store.
+     * @return {@code null} if this machine doesn't have a description packet
+     */
+    @Nullable
+    protected NBTTagCompound createDescriptionNBT()
+    {
+        return null;
+    }
+
+    /**
+     * Sends the description that {@link #flushUpdate()} created and compared, other requests like the players that
+     * start watching the chunk get a new one.
+     */
+    @Override
+    public Packet getDescriptionPacket()
+    {
+        NBTTagCompound nbt;
+        if(descriptionPending)
+        {
+            descriptionPending = false;
+            nbt = syncedDescription;
+        }
+        else
+            nbt = createDescriptionNBT();
+
+        if(nbt == null)
+            return super.getDescriptionPacket();
+
+        return new S35PacketUpdateTileEntity(xCoord, yCoord, zCoord, 1, nbt);
+    }
+
+    /**
+     * Schedules the description packet to be sent to the watching players at the end of the tick, multiple calls in
+     * the same tick send a single update
+     */
     public void scheduleUpdate()
     {
         if(worldObj != null)
-            worldObj.markBlockForUpdate(xCoord, yCoord, zCoord);
+            UpdateScheduler.schedule(this);
+    }
+
+    /**
+     * Sends the description packet to the watching players.
+     * <p>
+     * Machines that implement {@link #createDescriptionNBT()} only send it when the description differs from the
+     * last one that was sent. Players that start watching the chunk always receive the full description.
+     */
+    @Override
+    public void flushUpdate()
+    {
+        if(worldObj == null)
+            return;
+
+        NBTTagCompound nbt = createDescriptionNBT();
+        if(nbt != null)
+        {
+            if(nbt.equals(syncedDescription))
+                return;
+            syncedDescription = nbt;
+            descriptionPending = true;
+        }
+
+        worldObj.markBlockForUpdate(xCoord, yCoord, zCoord);
+    }
+
+    /**
+     * Cancels the tasks that this machine scheduled on the {@link TickScheduler}
+     */
+    @Override
+    public void invalidate()
+    {
+        TickScheduler.cancelAll(this);
+        super.invalidate();
+    }
+
+    @Override
+    public void onChunkUnload()
+    {
+        TickScheduler.cancelAll(this);
+        super.onChunkUnload();
+    }
+
+    /**
+     * Adds air stacks to the slots that are missing in an inventory tag list, so the clients clear them
+     */
+    protected static void appendEmptySlots(NBTTagList tagList, int size)
+    {
+        boolean[] present = new boolean[size];
+        for (int i = 0; i < tagList.tagCount(); i++)
+        {
+            int slot = tagList.getCompoundTagAt(i).getByte("Slot");
+            if(slot >= 0 && slot < size)
+                present[slot] = true;
+        }
+
+        ItemStack stack = new ItemStack(Blocks.air, 0);
+        for(byte i = 0; i < size; i++)
+        {
+            if(!present[i])
+            {
+                NBTTagCompound tag = new NBTTagCompound();
+                tag.setByte("Slot", i);
+                stack.writeToNBT(tag);
+                tagList.appendTag(tag);
+            }
+        }
     }
 
     public void updateNeighbors()
@@ -1,13 +1,13 @@
 package br.com.gamemods.universalcoinsserver.tile;
 
 import br.com.gamemods.universalcoinsserver.UniversalCoinsServer;
+import br.com.gamemods.universalcoinsserver.api.CoinTally;
 import br.com.gamemods.universalcoinsserver.api.UniversalCoinsServerAPI;
 import br.com.gamemods.universalcoinsserver.datastore.*;
 import br.com.gamemods.universalcoinsserver.item.ItemCoin;
 import net.minecraft.enchantment.Enchantment;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.entity.player.EntityPlayerMP;
-import net.minecraft.init.Blocks;
 import net.minecraft.init.Items;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
@@ -15,7 +15,6 @@ import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.network.NetworkManager;
-import net.minecraft.network.Packet;
 import net.minecraft.network.play.server.S35PacketUpdateTileEntity;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.*;
@@ -61,6 +60,21 @@ public class TileVendor extends TileOwned
     private AccountAddress ownerCard;
     private AccountAddress userCard;
 
+    /**
+     * Amount of items matching the trade item and free space for it on the storage slots.
+     * Each storage slot contribution is cached and only compared with NBT again when the slot receives another stack.
+     */
+    private int stock, stockSpace;
+    private ItemStack stockTrade;
+    private final ItemStack[] stockStacks = new ItemStack[SLOT_STORAGE_LAST - SLOT_STORAGE_FIST + 1];
+    private final int[] stockSizes = new int[stockStacks.length];
+    private final boolean[] stockMatches = new boolean[stockStacks.length];
+
+    private TileAdvSign[] signs = new TileAdvSign[0];
+    private boolean signsInvalid = true;
+    private SignState signState;
+    MarketIndex.Offer marketOffer;
+
     public void validateFields()
     {
         if(ownerCoins < 0) ownerCoins = 0;
@@ -144,9 +158,16 @@ public class TileVendor extends TileOwned
     @Override
     public void writeToNBT(NBTTagCompound compound)
     {
-        super.writeToNBT(compound);
-
         validateFields();
+        writeFieldsToNBT(compound);
+    }
+
+    /**
+     * Writes the fields as they are, without validating the cards
+     */
+    private void writeFieldsToNBT(NBTTagCompound compound)
+    {
+        super.writeToNBT(compound);
 
         NBTTagList itemList = new NBTTagList();
         for(int i=0; i < inventory.length; i++)
@@ -210,30 +231,12 @@ public class TileVendor extends TileOwned
     }
 
     @Override
-    public Packet getDescriptionPacket()
+    protected NBTTagCompound createDescriptionNBT()
     {
         NBTTagCompound nbt = new NBTTagCompound();
-        writeToNBT(nbt);
-        NBTTagList tagList = nbt.getTagList("Inventory", Constants.NBT.TAG_COMPOUND);
-        List<Byte> slots = new ArrayList<>(inventory.length);
-        for (int i = 0; i < tagList.tagCount(); i++)
-        {
-            NBTTagCompound tag = tagList.getCompoundTagAt(i);
-            byte slot = tag.getByte("Slot");
-            slots.add(slot);
-        }
-        ItemStack stack = new ItemStack(Blocks.air, 0);
-        for(byte i = 0; i < inventory.length; i++)
-        {
-            if(!slots.contains(i))
-            {
-                NBTTagCompound tag = new NBTTagCompound();
-                tag.setByte("Slot", i);
-                stack.writeToNBT(tag);
-                tagList.appendTag(tag);
-            }
-        }
-        return new S35PacketUpdateTileEntity(xCoord, yCoord, zCoord, 1, nbt);
+        writeFieldsToNBT(nbt);
+        appendEmptySlots(nbt.getTagList("Inventory", Constants.NBT.TAG_COMPOUND), inventory.length);
+        return nbt;
     }
 
     @Override
@@ -276,6 +279,8 @@ public class TileVendor extends TileOwned
 
         if(slot == SLOT_USER_CARD || slot == SLOT_OWNER_CARD)
             updateCards();
+        else if(slot >= SLOT_STORAGE_FIST && slot <= SLOT_STORAGE_LAST)
+            updateStock(slot);
 
         scheduleUpdate();
 
@@ -301,6 +306,15 @@ public class TileVendor extends TileOwned
             case SLOT_USER_CARD:
                 updateCards();
                 return;
+            case SLOT_TRADE:
+                resetStock();
+                return;
+        }
+
+        if(slot >= SLOT_STORAGE_FIST && slot <= SLOT_STORAGE_LAST)
+        {
+            updateStock(slot);
+            return;
         }
 
         if(stack == null)
@@ -522,7 +536,7 @@ public class TileVendor extends TileOwned
             Transaction.CoinSource userSource = null;
             if(operator instanceof PlayerOperator)
             {
-                int balance =  UniversalCoinsServerAPI.scanCoins(opener.inventory).getCoins();
+                int balance =  CoinTally.getCoins(opener);
                 userSource = new Transaction.InventoryCoinSource(operator, balance+depositAmount, -depositAmount);
             }
 
@@ -588,8 +602,25 @@ public class TileVendor extends TileOwned
         if(worldObj == null)
             return;
 
+        boolean signsChanged = signsInvalid;
+        if(signsChanged)
+        {
+            signsInvalid = false;
+            List<TileAdvSign> found = new ArrayList<>(4);
+            findSigns(found);
+            signs = found.toArray(new TileAdvSign[found.size()]);
+        }
+
+        if(signs.length == 0)
+            return;
+
         @Nullable
         ItemStack trade = inventory[SLOT_TRADE];
+        SignState state = new SignState(this, trade);
+        if(!signsChanged && state.equals(signState))
+            return;
+        signState = trade == null? state : new SignState(this, trade.copy());
+
         IChatComponent signText[] = new IChatComponent[5];
         EnumChatFormatting[] styles = EnumChatFormatting.values();
         ChatStyle color = new ChatStyle().setColor(styles[textColor]);
@@ -668,27 +699,81 @@ public class TileVendor extends TileOwned
 
         signText[3] = new ChatComponentTranslation("sign.price").setChatStyle(color).appendText(Integer.toString(price));
 
-        // find and update all signs
-        updateSign(signText);
+        // update only the signs that are showing a different text
+        String[] lines = TileAdvSign.serializeLines(signText);
+        for(TileAdvSign sign: signs)
+        {
+            if(!sign.isInvalid() && sign.setLines(lines))
+            {
+                sign.scheduleUpdate();
+                sign.markDirty();
+            }
+        }
+    }
+
+    /**
+     * Makes the vendor look for its signs again on the next update, called when a sign next to it is added or removed
+     */
+    void invalidateSigns()
+    {
+        signsInvalid = true;
     }
 
-    protected void updateSign(IChatComponent[] lines, TileEntity te)
+    protected void findSigns(List<TileAdvSign> signs)
     {
-        if (te instanceof TileAdvSign)
-        {
-            TileAdvSign tile = (TileAdvSign) te;
-            tile.setLines(lines);
-            tile.scheduleUpdate();
-            tile.markDirty();
-        }
+        addSign(signs, worldObj.getTileEntity(xCoord + 1, yCoord - 1, zCoord));
+        addSign(signs, worldObj.getTileEntity(xCoord - 1, yCoord - 1, zCoord));
+        addSign(signs, worldObj.getTileEntity(xCoord, yCoord - 1, zCoord - 1));
+        addSign(signs, worldObj.getTileEntity(xCoord, yCoord - 1, zCoord + 1));
     }
 
-    protected void updateSign(IChatComponent[] lines)
+    protected static void addSign(List<TileAdvSign> signs, TileEntity te)
     {
-        updateSign(lines, worldObj.getTileEntity(xCoord + 1, yCoord - 1, zCoord));
-        updateSign(lines, worldObj.getTileEntity(xCoord - 1, yCoord - 1, zCoord));
-        updateSign(lines, worldObj.getTileEntity(xCoord, yCoord - 1, zCoord - 1));
-        updateSign(lines, worldObj.getTileEntity(xCoord, yCoord - 1, zCoord + 1));
+        if(te instanceof TileAdvSign)
+            signs.add((TileAdvSign) te);
+    }
+
+    /**
+     * Everything that is shown on the vendor signs, the signs are only rendered again when it changes
+     */
+    private static final class SignState
+    {
+        private final boolean sellToUser, infinite, outOfStock, outOfCoins, outOfInventorySpace;
+        private final byte textColor;
+        private final int price;
+        private final ItemStack trade;
+
+        private SignState(TileVendor vendor, ItemStack trade)
+        {
+            sellToUser = vendor.sellToUser;
+            infinite = vendor.infinite;
+            outOfStock = vendor.outOfStock;
+            outOfCoins = vendor.outOfCoins;
+            outOfInventorySpace = vendor.outOfInventorySpace;
+            textColor = vendor.textColor;
+            price = vendor.price;
+            this.trade = trade;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            SignState that = (SignState) o;
+            return sellToUser == that.sellToUser && infinite == that.infinite && outOfStock == that.outOfStock
+                    && outOfCoins == that.outOfCoins && outOfInventorySpace == that.outOfInventorySpace
+                    && textColor == that.textColor && price == that.price
+                    && ItemStack.areItemStacksEqual(trade, that.trade);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(sellToUser, infinite, outOfStock, outOfCoins, outOfInventorySpace, textColor, price,
+                    trade == null? 0 : trade.stackSize);
+        }
     }
 
     public void onButtonPressed(EntityPlayerMP player, int buttonId, boolean shiftPressed)
@@ -782,27 +867,10 @@ public class TileVendor extends TileOwned
             return;
         }
 
-        List<Integer> spaces = new ArrayList<>(SLOT_STORAGE_LAST - SLOT_STORAGE_FIST);
-        int storageSpace = 0;
-        int maxStackSize = trade.getMaxStackSize();
         if(!infinite)
         {
-            for(int i = SLOT_STORAGE_FIST; i <= SLOT_STORAGE_LAST; i++)
-            {
-                ItemStack stack = inventory[i];
-                if(stack == null)
-                {
-                    storageSpace += maxStackSize;
-                    spaces.add(i);
-                }
-                else if(UniversalCoinsServerAPI.matches(stack, trade) && stack.stackSize < maxStackSize)
-                {
-                    storageSpace += maxStackSize - stack.stackSize;
-                    spaces.add(i);
-                }
-            }
-
-            if(storageSpace < trade.stackSize)
+            syncStock();
+            if(stockSpace < trade.stackSize)
             {
                 sellButtonActive = false;
                 outOfInventorySpace = true;
@@ -811,88 +879,43 @@ public class TileVendor extends TileOwned
             }
         }
 
-        if(userCard == null && ((long)userCoins) + ((long)price) > Integer.MAX_VALUE)
-        {
-            sellButtonActive = false;
-            scheduleUpdate();
-            return;
-        }
-
-        int ownerBalance;
-        int userBalance;
         AccountAddress ownerCard = this.ownerCard;
         AccountAddress userCard = this.userCard;
-        if(ownerCard != null)
-            try
-            {
-                ownerBalance = UniversalCoinsServer.cardDb.getAccountBalance(ownerCard);
-            }
-            catch (DataBaseException e)
-            {
-                e.printStackTrace();
-                ownerCard = null;
-                ownerBalance = ownerCoins;
-            }
-        else
-            ownerBalance = ownerCoins;
+        int quantity = all? input.stackSize / trade.stackSize : 1;
+        if(!infinite)
+            quantity = Math.min(quantity, stockSpace / trade.stackSize);
+        quantity = affordable(quantity, Integer.MAX_VALUE, price);
+        if(userCard == null)
+            quantity = affordable(quantity, Integer.MAX_VALUE - (long)userCoins, price);
+        if(!infinite && ownerCard == null)
+            quantity = affordable(quantity, ownerCoins, price);
 
-        if(userCard != null)
+        if(all && quantity > 1 && (userCard != null || !infinite && ownerCard != null))
+        {
             try
             {
-                userBalance = UniversalCoinsServer.cardDb.getAccountBalance(userCard);
+                if(userCard != null)
+                    quantity = affordable(quantity, Integer.MAX_VALUE - (long)UniversalCoinsServer.cardDb.getAccountBalance(userCard), price);
+                if(!infinite && ownerCard != null)
+                    quantity = affordable(quantity, UniversalCoinsServer.cardDb.getAccountBalance(ownerCard), price);
             }
             catch (DataBaseException e)
             {
                 e.printStackTrace();
-                userCard = null;
-                userBalance = userCoins;
-            }
-        else
-            userBalance = userCoins;
-
-        int quantity = 1;
-        if(all && trade.stackSize * 2 <= maxStackSize)
-        {
-            int maxQuantity = input.stackSize / trade.stackSize;
-            if(!infinite) maxQuantity = Math.min(maxQuantity, storageSpace / trade.stackSize);
-
-            if(maxQuantity <= 0)
-            {
-                sellButtonActive = false;
-                scheduleUpdate();
-                return;
-            }
-            else if(maxQuantity > 1)
-            {
-                if(infinite || price * maxQuantity <= ownerBalance)
-                    quantity = maxQuantity;
-                else
-                    quantity = ownerBalance / price;
-            }
-
-            if(quantity <= 0)
                 return;
-            else if(quantity > 1)
-            {
-                for(; quantity>1; quantity--)
-                {
-                    if(((long)userBalance) + (((long)price)*quantity) <= Integer.MAX_VALUE)
-                        break;
-                }
             }
         }
 
-        try
-        {
-            userSource = userCard != null ? new Transaction.CardCoinSource(userCard, price * quantity) : new Transaction.MachineCoinSource(this, userCoins, price * quantity);
-            ownerSource = infinite ? null : ownerCard != null ? new Transaction.CardCoinSource(ownerCard, -(price * quantity)) : new Transaction.MachineCoinSource(this, ownerCoins, -(price * quantity));
-        }
-        catch (DataBaseException e)
+        if(quantity <= 0)
         {
-            e.printStackTrace();
+            sellButtonActive = false;
+            scheduleUpdate();
             return;
         }
 
+        userSource = userCard != null ? new Transaction.CardCoinSource(userCard, price * quantity) : new Transaction.MachineCoinSource(this, userCoins, price * quantity);
+        ownerSource = infinite ? null : ownerCard != null ? new Transaction.CardCoinSource(ownerCard, -(price * quantity)) : new Transaction.MachineCoinSource(this, ownerCoins, -(price * quantity));
+
         ItemStack product = input.copy();
         product.stackSize = trade.stackSize * quantity;
 
@@ -919,48 +942,7 @@ public class TileVendor extends TileOwned
             if(ownerCard == null)
                 ownerCoins -= price * quantity;
 
-            storageSpace = product.stackSize;
-            for(int space: spaces)
-            {
-                ItemStack stack = inventory[space];
-                if(stack == null)
-                {
-                    if(storageSpace >= maxStackSize)
-                    {
-                        storageSpace -= maxStackSize;
-                        stack = trade.copy();
-                        stack.stackSize = maxStackSize;
-                        inventory[space] = stack;
-                        if(storageSpace == 0)
-                            break;
-                    }
-                    else
-                    {
-                        stack = trade.copy();
-                        stack.stackSize = storageSpace;
-                        //storageSpace = 0;
-                        inventory[space] = stack;
-                        break;
-                    }
-                }
-                else
-                {
-                    int available = maxStackSize - stack.stackSize;
-                    if(storageSpace >= available)
-                    {
-                        stack.stackSize += available;
-                        storageSpace -= available;
-                        if(storageSpace == 0)
-                            break;
-                    }
-                    else
-                    {
-                        stack.stackSize += storageSpace;
-                        //storageSpace = 0;
-                        break;
-                    }
-                }
-            }
+            storeStock(trade, product.stackSize);
         }
 
         worldObj.playSoundEffect(xCoord, yCoord, zCoord, "universalcoins:sold", 1f, 1f);
@@ -969,6 +951,77 @@ public class TileVendor extends TileOwned
         scheduleUpdate();
     }
 
+    /**
+     * @return The highest quantity up to {@code limit} that costs no more than {@code coins}
+     */
+    private static int affordable(int limit, long coins, int price)
+    {
+        if(price <= 0)
+            return limit;
+
+        return (int) Math.max(0, Math.min(limit, coins / price));
+    }
+
+    /**
+     * Adds items to the storage slots with a single pass, filling the stacks that match the trade before the empty slots.
+     * The stock counters must be synchronized and there must be enough space.
+     */
+    private void storeStock(ItemStack trade, int amount)
+    {
+        int maxStackSize = trade.getMaxStackSize();
+        int[] emptySlots = new int[stockStacks.length];
+        int empty = 0;
+        for(int slot = SLOT_STORAGE_FIST; slot <= SLOT_STORAGE_LAST && amount > 0; slot++)
+        {
+            ItemStack stack = inventory[slot];
+            if(stack == null)
+            {
+                emptySlots[empty++] = slot;
+                continue;
+            }
+
+            int available = maxStackSize - stack.stackSize;
+            if(!stockMatches[slot - SLOT_STORAGE_FIST] || available <= 0)
+                continue;
+
+            int added = Math.min(amount, available);
+            stack.stackSize += added;
+            amount -= added;
+            updateStock(slot);
+        }
+
+        for(int i = 0; i < empty && amount > 0; i++)
+        {
+            int slot = emptySlots[i];
+            ItemStack stack = trade.copy();
+            stack.stackSize = Math.min(amount, maxStackSize);
+            amount -= stack.stackSize;
+            inventory[slot] = stack;
+            updateStock(slot);
+        }
+    }
+
+    /**
+     * Removes items matching the trade from the storage slots with a single pass.
+     * The stock counters must be synchronized and there must be enough stock.
+     */
+    private void takeStock(int amount)
+    {
+        for(int slot = SLOT_STORAGE_FIST; slot <= SLOT_STORAGE_LAST && amount > 0; slot++)
+        {
+            ItemStack stack = inventory[slot];
+            if(stack == null || !stockMatches[slot - SLOT_STORAGE_FIST])
+                continue;
+
+            int taken = Math.min(amount, stack.stackSize);
+            stack.stackSize -= taken;
+            amount -= taken;
+            if(stack.stackSize <= 0)
+                inventory[slot] = null;
+            updateStock(slot);
+        }
+    }
+
     public Operator getOperator()
     {
         if(opener != null)
@@ -978,9 +1031,6 @@ public class TileVendor extends TileOwned
 
     public void buy(boolean all)
     {
-        // TODO Better fix
-        all = infinite? all : false;
-
         updateCards();
 
         Transaction.Operation operation = Transaction.Operation.BUY_FROM_MACHINE;
@@ -1013,106 +1063,53 @@ public class TileVendor extends TileOwned
             }
         }
 
-        int found = 0;
-        List<ItemStack> subtraction = new ArrayList<>(SLOT_STORAGE_LAST - SLOT_STORAGE_FIST);
         if(!infinite)
         {
-            for(int i = SLOT_STORAGE_FIST; i <= SLOT_STORAGE_LAST; i++)
-            {
-                ItemStack stack = inventory[i];
-                if(UniversalCoinsServerAPI.matches(stack, trade))
-                {
-                    subtraction.add(stack);
-                    found += stack.stackSize;
-                }
-            }
-
-            if(found < trade.stackSize)
+            syncStock();
+            if(stock < trade.stackSize)
             {
                 updateOperations();
                 return;
             }
         }
 
-        int ownerBalance;
-        int userBalance;
         AccountAddress ownerCard = this.ownerCard;
         AccountAddress userCard = this.userCard;
-        if(ownerCard != null)
-            try
-            {
-                ownerBalance = UniversalCoinsServer.cardDb.getAccountBalance(ownerCard);
-            }
-            catch (DataBaseException e)
-            {
-                e.printStackTrace();
-                ownerCard = null;
-                ownerBalance = ownerCoins;
-            }
-        else
-            ownerBalance = ownerCoins;
+        int quantity = all? (trade.getMaxStackSize() - (output == null? 0 : output.stackSize)) / trade.stackSize : 1;
+        if(!infinite)
+            quantity = Math.min(quantity, stock / trade.stackSize);
+        quantity = affordable(quantity, Integer.MAX_VALUE, price);
+        if(userCard == null)
+            quantity = affordable(quantity, userCoins, price);
+        if(!infinite && ownerCard == null)
+            quantity = affordable(quantity, Integer.MAX_VALUE - (long)ownerCoins, price);
 
-        if(userCard != null)
+        if(all && quantity > 1 && (userCard != null || !infinite && ownerCard != null))
+        {
             try
             {
-                userBalance = UniversalCoinsServer.cardDb.getAccountBalance(userCard);
+                if(userCard != null)
+                    quantity = affordable(quantity, UniversalCoinsServer.cardDb.getAccountBalance(userCard), price);
+                if(!infinite && ownerCard != null)
+                    quantity = affordable(quantity, Integer.MAX_VALUE - (long)UniversalCoinsServer.cardDb.getAccountBalance(ownerCard), price);
             }
             catch (DataBaseException e)
             {
                 e.printStackTrace();
-                userCard = null;
-                userBalance = userCoins;
-            }
-        else
-            userBalance = userCoins;
-
-
-        int quantity = 1;
-        if(all && trade.stackSize * 2 <= trade.getMaxStackSize())
-        {
-            if(output == null)
-            {
-                if(trade.getMaxStackSize() * price / trade.stackSize <= userBalance)
-                {
-                    // buy as many as will fit in a stack
-                    quantity = trade.getMaxStackSize() / trade.stackSize;
-                }
-                else
-                {
-                    // buy as many as i have coins for.
-                    quantity = userBalance / price;
-                }
-            }
-            else
-            {
-                if((output.getMaxStackSize() - output.stackSize) * price <= userBalance)
-                {
-                    // buy as much as i can fit in a stack since we have enough
-                    // coins
-                    quantity = (trade.getMaxStackSize() - output.stackSize) / output.stackSize;
-                }
-                else
-                {
-                    // buy as many as possible with available coins.
-                    quantity = userBalance / price;
-                }
-            }
-
-            if(quantity <= 0)
                 return;
+            }
         }
 
-        try
+        if(quantity <= 0)
         {
-            userSource = userCard != null? new Transaction.CardCoinSource(userCard, -(price*quantity)) : new Transaction.MachineCoinSource(this, userBalance, -(price*quantity));
-            ownerSource = infinite? null : ownerCard != null? new Transaction.CardCoinSource(ownerCard, price*quantity) : new Transaction.MachineCoinSource(this, ownerBalance, price*quantity);
-        }
-        catch (DataBaseException e)
-        {
-            e.printStackTrace();
+            buyButtonActive = false;
+            markDirty();
             return;
         }
 
+        userSource = userCard != null? new Transaction.CardCoinSource(userCard, -(price*quantity)) : new Transaction.MachineCoinSource(this, userCoins, -(price*quantity));
+        ownerSource = infinite? null : ownerCard != null? new Transaction.CardCoinSource(ownerCard, price*quantity) : new Transaction.MachineCoinSource(this, ownerCoins, price*quantity);
+
         ItemStack product;
         if(output != null)
         {
@@ -1137,47 +1134,17 @@ public class TileVendor extends TileOwned
         }
 
         if(!infinite)
-        {
-            found = trade.stackSize * quantity;
-
-            for(ItemStack stack: subtraction)
-            {
-                if(stack.stackSize >= found)
-                {
-                    stack.stackSize -= found;
-                    break;
-                }
-
-                found -= stack.stackSize;
-                stack.stackSize = 0;
-                if(found == 0)
-                    break;
-            }
-
-            for(int i = SLOT_STORAGE_FIST; i <= SLOT_STORAGE_LAST; i++)
-            {
-                ItemStack stack = inventory[i];
-                if (stack != null && stack.stackSize <= 0)
-                    inventory[i] = null;
-            }
-        }
+            takeStock(product.stackSize);
 
         if(output != null)
-        {
             output.stackSize += product.stackSize;
-            if(userCard == null)
-                userCoins-= price * quantity;
-            if(!infinite && ownerCard == null)
-                ownerCoins += price * quantity;
-        }
         else
-        {
             inventory[SLOT_OUTPUT] = product;
-            if(userCard == null)
-                userCoins -= price * quantity;
-            if(!infinite && ownerCard == null)
-                ownerCoins += price * quantity;
-        }
+
+        if(userCard == null)
+            userCoins -= price * quantity;
+        if(!infinite && ownerCard == null)
+            ownerCoins += price * quantity;
 
         worldObj.playSoundEffect(xCoord, yCoord, zCoord, "universalcoins:sold", 1f, 1f);
 
@@ -1295,38 +1262,18 @@ public class TileVendor extends TileOwned
             outOfInventorySpace = false;
             if(stateHashcode() != hashcode)
             {
-                markDirty();
+                scheduleUpdate();
+                updateBlocks();
             }
+            MarketIndex.instance.update(this, false);
             return;
         }
 
         if(!infinite)
         {
-            outOfStock = true;
-            outOfInventorySpace = true;
-            int foundItems = 0;
-            int foundSpace = 0;
-            for(int i = SLOT_STORAGE_FIST; i <= SLOT_STORAGE_LAST; i++)
-            {
-                ItemStack stack = inventory[i];
-                if(stack == null)
-                {
-                    foundSpace += trade.getMaxStackSize();
-                }
-                else if(UniversalCoinsServerAPI.matches(stack, trade))
-                {
-                    int maxStackSize = stack.getMaxStackSize();
-                    if(stack.stackSize < maxStackSize)
-                        foundSpace += maxStackSize - stack.stackSize;
-                    if(stack.stackSize > 0)
-                        foundItems += stack.stackSize;
-                }
-            }
-
-            if(foundItems >= trade.stackSize)
-                outOfStock = false;
-            if(foundSpace >= trade.stackSize)
-                outOfInventorySpace = false;
+            syncStock();
+            outOfStock = stock < trade.stackSize;
+            outOfInventorySpace = stockSpace < trade.stackSize;
         }
         else
         {
@@ -1353,6 +1300,105 @@ public class TileVendor extends TileOwned
             scheduleUpdate();
             updateBlocks();
         }
+
+        MarketIndex.instance.update(this, sellToUser? !outOfStock : !outOfCoins && !outOfInventorySpace);
+    }
+
+    /**
+     * Recomputes the stock counters if the trade item was replaced, otherwise updates only the storage slots that
+     * were replaced or had their stack size changed directly
+     */
+    private void syncStock()
+    {
+        if(inventory[SLOT_TRADE] != stockTrade)
+        {
+            resetStock();
+            return;
+        }
+
+        for(int slot = SLOT_STORAGE_FIST; slot <= SLOT_STORAGE_LAST; slot++)
+        {
+            int index = slot - SLOT_STORAGE_FIST;
+            ItemStack stack = inventory[slot];
+            if(stack != stockStacks[index] || stack != null && stack.stackSize != stockSizes[index])
+                updateStock(slot);
+        }
+    }
+
+    private void resetStock()
+    {
+        stockTrade = inventory[SLOT_TRADE];
+        stock = 0;
+        stockSpace = 0;
+        Arrays.fill(stockStacks, null);
+        Arrays.fill(stockSizes, 0);
+        Arrays.fill(stockMatches, false);
+        if(stockTrade == null)
+            return;
+
+        for(int slot = SLOT_STORAGE_FIST; slot <= SLOT_STORAGE_LAST; slot++)
+        {
+            int index = slot - SLOT_STORAGE_FIST;
+            ItemStack stack = inventory[slot];
+            stockStacks[index] = stack;
+            if(stack == null)
+            {
+                stockSpace += stockTrade.getMaxStackSize();
+                continue;
+            }
+
+            stockMatches[index] = UniversalCoinsServerAPI.matches(stack, stockTrade);
+            stockSizes[index] = stack.stackSize;
+            addStock(index, 1);
+        }
+    }
+
+    private void updateStock(int slot)
+    {
+        ItemStack trade = inventory[SLOT_TRADE];
+        if(trade != stockTrade)
+        {
+            resetStock();
+            return;
+        }
+        else if(trade == null)
+            return;
+
+        int index = slot - SLOT_STORAGE_FIST;
+        ItemStack stack = inventory[slot];
+        ItemStack previous = stockStacks[index];
+
+        if(previous == null)
+            stockSpace -= trade.getMaxStackSize();
+        else
+            addStock(index, -1);
+
+        stockStacks[index] = stack;
+        if(stack == null)
+        {
+            stockMatches[index] = false;
+            stockSizes[index] = 0;
+            stockSpace += trade.getMaxStackSize();
+            return;
+        }
+
+        if(stack != previous)
+            stockMatches[index] = UniversalCoinsServerAPI.matches(stack, trade);
+        stockSizes[index] = stack.stackSize;
+        addStock(index, 1);
+    }
+
+    private void addStock(int index, int signal)
+    {
+        if(!stockMatches[index])
+            return;
+
+        int size = stockSizes[index];
+        int maxStackSize = stockStacks[index].getMaxStackSize();
+        if(size > 0)
+            stock += signal * size;
+        if(size < maxStackSize)
+            stockSpace += signal * (maxStackSize - size);
     }
 
     private void updateWithdrawButtons(boolean fromOwner)
@@ -1370,6 +1416,13 @@ public class TileVendor extends TileOwned
         markDirty();
     }
 
+    @Override
+    public void invalidate()
+    {
+        MarketIndex.instance.remove(this);
+        super.invalidate();
+    }
+
     @Override
     public void setOpener(EntityPlayer opener)
     {
@@ -1,13 +1,13 @@
 package br.com.gamemods.universalcoinsserver.tile;
 
-import net.minecraft.util.IChatComponent;
+import java.util.List;
 
 public class TileVendorFrame extends TileVendor
 {
     @Override
-    protected void updateSign(IChatComponent[] lines)
+    protected void findSigns(List<TileAdvSign> signs)
     {
-        updateSign(lines, worldObj.getTileEntity(xCoord, yCoord - 1, zCoord));
-        updateSign(lines, worldObj.getTileEntity(xCoord, yCoord + 1, zCoord));
+        addSign(signs, worldObj.getTileEntity(xCoord, yCoord - 1, zCoord));
+        addSign(signs, worldObj.getTileEntity(xCoord, yCoord + 1, zCoord));
     }
 }
@@ -0,0 +1,80 @@
+package br.com.gamemods.universalcoinsserver.tile;
+
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.World;
+import net.minecraftforge.event.world.WorldEvent;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * Collects the tiles that requested a block update during a tick and updates each one only once at the end of the
+ * server tick, after the player packets were processed.
+ * <p>
+ * Must be used only from the server thread.
+ */
+public final class UpdateScheduler
+{
+    public static final UpdateScheduler instance = new UpdateScheduler();
+
+    /**
+     * A tile entity that sends its block update when the scheduler flushes
+     */
+    public interface Target
+    {
+        void flushUpdate();
+
+        /**
+         * Implemented by {@link TileEntity}, invalid targets are not flushed
+         */
+        boolean isInvalid();
+    }
+
+    private final Map<World, Set<Target>> dirty = new WeakHashMap<>();
+
+    private UpdateScheduler()
+    {
+    }
+
+    /**
+     * Schedules a block update to the end of the current tick, it does nothing if it's already scheduled
+     * @param tile The tile entity
+     */
+    public static <T extends TileEntity & Target> void schedule(@Nonnull T tile)
+    {
+        World world = tile.getWorldObj();
+        if(world == null)
+            return;
+
+        Set<Target> tiles = instance.dirty.get(world);
+        if(tiles == null)
+            instance.dirty.put(world, tiles = new LinkedHashSet<>());
+        tiles.add(tile);
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END || dirty.isEmpty())
+            return;
+
+        for(World world: new ArrayList<>(dirty.keySet()))
+        {
+            Set<Target> tiles = dirty.remove(world);
+            if(tiles == null)
+                continue;
+
+            for(Target tile: tiles)
+                if(!tile.isInvalid())
+                    tile.flushUpdate();
+        }
+    }
+
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event)
+    {
+        dirty.remove(event.world);
+    }
+}